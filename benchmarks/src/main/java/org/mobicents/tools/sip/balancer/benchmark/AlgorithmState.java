@@ -0,0 +1,172 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2017, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.tools.sip.balancer.benchmark;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.sip.SipFactory;
+import javax.sip.message.MessageFactory;
+import javax.sip.message.Request;
+import javax.sip.message.Response;
+
+import org.apache.log4j.Logger;
+import org.mobicents.tools.configuration.LoadBalancerConfiguration;
+import org.mobicents.tools.heartbeat.api.Node;
+import org.mobicents.tools.heartbeat.api.Protocol;
+import org.mobicents.tools.sip.balancer.BalancerContext;
+import org.mobicents.tools.sip.balancer.CallIDAffinityBalancerAlgorithm;
+import org.mobicents.tools.sip.balancer.ClusterSubdomainAffinityAlgorithm;
+import org.mobicents.tools.sip.balancer.DefaultBalancerAlgorithm;
+import org.mobicents.tools.sip.balancer.HeaderConsistentHashBalancerAlgorithm;
+import org.mobicents.tools.sip.balancer.InvocationContext;
+import org.mobicents.tools.sip.balancer.KeySip;
+import org.mobicents.tools.sip.balancer.PureConsistentHashBalancerAlgorithm;
+import org.mobicents.tools.sip.balancer.TopologyPublisher;
+import org.mobicents.tools.sip.balancer.UserBasedAlgorithm;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Builds an {@link InvocationContext} for one balancer algorithm without starting a SIP stack:
+ * a synthetic set of nodes is registered the same way NodeRegisterImpl does it, through a
+ * {@link TopologyPublisher} so the algorithms see a published routing table, and a fixed pool
+ * of requests and responses is parsed once, so the benchmarks only measure the routing decision.
+ */
+
+@State(Scope.Benchmark)
+public class AlgorithmState {
+
+	public static final int MESSAGES = 1024;
+	public static final String CLIENT_HOST = "192.168.100.1";
+	public static final int CLIENT_PORT = 5070;
+	public static final int NODE_PORT = 5080;
+
+	@Param({"DefaultBalancerAlgorithm", "CallIDAffinityBalancerAlgorithm", "HeaderConsistentHashBalancerAlgorithm",
+		"PureConsistentHashBalancerAlgorithm", "UserBasedAlgorithm", "ClusterSubdomainAffinityAlgorithm"})
+	public String algorithm;
+
+	@Param({"2", "10", "100", "500"})
+	public int nodeCount;
+
+	public InvocationContext ctx;
+	public TopologyPublisher topologyPublisher;
+	public DefaultBalancerAlgorithm balancerAlgorithm;
+	public Node[] nodes;
+	public Request[] requests;
+	public Response[] responses;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		Logger.getRootLogger().setLevel(org.apache.log4j.Level.WARN);
+
+		BalancerContext balancerContext = new BalancerContext();
+		balancerContext.lbConfig = new LoadBalancerConfiguration();
+		balancerContext.algorithmClassName = algorithmClass(algorithm).getName();
+		if(algorithm.equals(UserBasedAlgorithm.class.getSimpleName()))
+			balancerContext.lbConfig.getSipConfiguration().getAlgorithmConfiguration().setSipHeaderAffinityKey("To");
+		if(algorithm.equals(DefaultBalancerAlgorithm.class.getSimpleName()))
+		{
+			balancerContext.lbConfig.getSipConfiguration().setTrafficRampupCyclePeriod(Integer.MAX_VALUE);
+			balancerContext.lbConfig.getSipConfiguration().setTrafficPercentageIncrease(10);
+		}
+		balancerContext.lbConfig.getSipConfiguration().getAlgorithmConfiguration().setSubclusterMap(subclusters(nodeCount));
+		balancerContext.sipHeaderAffinityKey = balancerContext.lbConfig.getSipConfiguration().getAlgorithmConfiguration().getSipHeaderAffinityKey();
+		balancerContext.sipHeaderAffinityFallbackKey = balancerContext.lbConfig.getSipConfiguration().getAlgorithmConfiguration().getSipHeaderAffinityFallbackKey();
+		balancerContext.responsesStatusCodeNodeRemoval = balancerContext.lbConfig.getSipConfiguration().getResponsesStatusCodeNodeRemoval();
+		balancerContext.externalHost = "127.0.0.1";
+
+		ctx = new InvocationContext("0", balancerContext);
+		balancerAlgorithm = ctx.balancerAlgorithm;
+		topologyPublisher = new TopologyPublisher(new CopyOnWriteArrayList<Node>());
+
+		nodes = new Node[nodeCount];
+		for(int i = 0; i < nodeCount; i++)
+		{
+			nodes[i] = createNode(i);
+			ctx.sipNodeMap(false).put(new KeySip(nodes[i], false), nodes[i]);
+			topologyPublisher.nodeAdded(ctx, nodes[i]);
+		}
+
+		MessageFactory messageFactory = SipFactory.getInstance().createMessageFactory();
+		requests = new Request[MESSAGES];
+		responses = new Response[MESSAGES];
+		for(int i = 0; i < MESSAGES; i++)
+		{
+			requests[i] = messageFactory.createRequest(invite(i));
+			responses[i] = messageFactory.createResponse(Response.OK, messageFactory.createRequest(invite(i)));
+		}
+		// responses only come back for calls that were routed already, so the affinity algorithms
+		// need their maps populated before the response path is measured
+		for(Request request : requests)
+			balancerAlgorithm.processExternalRequest(request, false);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		balancerAlgorithm.stop();
+	}
+
+	public static Node createNode(int index) {
+		Node node = new Node("node" + index, "10." + (index >> 16 & 0xff) + "." + (index >> 8 & 0xff) + "." + (index & 0xff));
+		node.getProperties().put(Protocol.UDP_PORT, "" + NODE_PORT);
+		node.getProperties().put(Protocol.TCP_PORT, "" + NODE_PORT);
+		node.getProperties().put(Protocol.VERSION, "0");
+		return node;
+	}
+
+	private static String subclusters(int nodeCount) {
+		StringBuilder map = new StringBuilder();
+		for(int i = 0; i + 1 < nodeCount; i += 2)
+			map.append("(").append(createNode(i).getIp()).append(",").append(createNode(i + 1).getIp()).append(")");
+		return map.toString();
+	}
+
+	private static String invite(int index) {
+		return "INVITE sip:user" + index + "@example.com SIP/2.0\r\n" +
+				"Via: SIP/2.0/UDP " + CLIENT_HOST + ":" + CLIENT_PORT + ";branch=z9hG4bK" + index + "\r\n" +
+				"From: <sip:caller" + index + "@example.org>;tag=" + index + "\r\n" +
+				"To: <sip:user" + index + "@example.com>\r\n" +
+				"Call-ID: " + index + "-benchmark@" + CLIENT_HOST + "\r\n" +
+				"CSeq: 1 INVITE\r\n" +
+				"Max-Forwards: 70\r\n" +
+				"Content-Length: 0\r\n" +
+				"\r\n";
+	}
+
+	private static Class<?> algorithmClass(String name) {
+		if(name.equals(DefaultBalancerAlgorithm.class.getSimpleName()))
+			return RampUpBalancerAlgorithm.class;
+		if(name.equals(CallIDAffinityBalancerAlgorithm.class.getSimpleName()))
+			return CallIDAffinityBalancerAlgorithm.class;
+		if(name.equals(HeaderConsistentHashBalancerAlgorithm.class.getSimpleName()))
+			return HeaderConsistentHashBalancerAlgorithm.class;
+		if(name.equals(PureConsistentHashBalancerAlgorithm.class.getSimpleName()))
+			return PureConsistentHashBalancerAlgorithm.class;
+		if(name.equals(UserBasedAlgorithm.class.getSimpleName()))
+			return UserBasedAlgorithm.class;
+		if(name.equals(ClusterSubdomainAffinityAlgorithm.class.getSimpleName()))
+			return ClusterSubdomainAffinityAlgorithm.class;
+		throw new RuntimeException("Unknown balancer algorithm " + name);
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2017, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.tools.sip.balancer.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.sip.header.ViaHeader;
+import javax.sip.message.Request;
+import javax.sip.message.Response;
+
+import org.mobicents.tools.heartbeat.api.Node;
+import org.mobicents.tools.sip.balancer.KeySip;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Routing decision cost of the SIP balancer algorithms, apart from the SIP stack.
+ * Build with mvn package in this module and run java -jar target/benchmarks.jar,
+ * for example with -p algorithm=CallIDAffinityBalancerAlgorithm -p nodeCount=100.
+ */
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BalancerAlgorithmBenchmark {
+
+	@State(Scope.Thread)
+	public static class Cursor {
+		int index;
+
+		int next() {
+			return index++ & (AlgorithmState.MESSAGES - 1);
+		}
+	}
+
+	@Benchmark
+	public Node processExternalRequest(AlgorithmState state, Cursor cursor) {
+		return state.balancerAlgorithm.processExternalRequest(state.requests[cursor.next()], false);
+	}
+
+	@Benchmark
+	public Request processInternalRequest(AlgorithmState state, Cursor cursor) {
+		Request request = state.requests[cursor.next()];
+		state.balancerAlgorithm.processInternalRequest(request);
+		return request;
+	}
+
+	/**
+	 * The algorithms rewrite the Via of a response coming from outside, so it is put back to the
+	 * client address first. Otherwise only the first pass over the pool would take the lookup path.
+	 */
+	@Benchmark
+	public Response processExternalResponse(AlgorithmState state, Cursor cursor) throws Exception {
+		Response response = state.responses[cursor.next()];
+		ViaHeader via = (ViaHeader) response.getHeader(ViaHeader.NAME);
+		via.setHost(AlgorithmState.CLIENT_HOST);
+		via.setPort(AlgorithmState.CLIENT_PORT);
+		state.balancerAlgorithm.processExternalResponse(response, false);
+		return response;
+	}
+
+	/**
+	 * Removes one node and registers it again, in the same order NodeRegisterImpl updates the
+	 * node map and publishes the topology, so the node set keeps its size between invocations.
+	 */
+	@Benchmark
+	public Node nodeRemovedAndAdded(AlgorithmState state, Cursor cursor) {
+		Node node = state.nodes[cursor.next() % state.nodes.length];
+		KeySip keySip = new KeySip(node, false);
+		state.ctx.sipNodeMap(false).remove(keySip);
+		state.topologyPublisher.nodeRemoved(state.ctx, node);
+		state.ctx.sipNodeMap(false).put(keySip, node);
+		state.topologyPublisher.nodeAdded(state.ctx, node);
+		return node;
+	}
+}
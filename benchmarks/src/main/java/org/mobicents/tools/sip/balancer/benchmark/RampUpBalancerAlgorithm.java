@@ -0,0 +1,44 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2017, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.tools.sip.balancer.benchmark;
+
+import javax.sip.message.Request;
+
+import org.mobicents.tools.heartbeat.api.Node;
+import org.mobicents.tools.sip.balancer.DefaultBalancerAlgorithm;
+
+/**
+ * DefaultBalancerAlgorithm is abstract, so this routes every request through the inherited
+ * ramp-up cycle and nothing else. It lets the benchmarks measure the base class on its own.
+ */
+
+public class RampUpBalancerAlgorithm extends DefaultBalancerAlgorithm {
+
+	public Node processExternalRequest(Request request, Boolean isIpV6) {
+		return getNextRampUpNode(isIpV6);
+	}
+
+	public void init() {
+	}
+
+	public Integer getNumberOfActiveCalls() {
+		return -1;
+	}
+}
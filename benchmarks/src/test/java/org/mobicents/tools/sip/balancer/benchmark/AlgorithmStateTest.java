@@ -0,0 +1,70 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2017, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+package org.mobicents.tools.sip.balancer.benchmark;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import org.junit.Test;
+import org.mobicents.tools.heartbeat.api.Node;
+import org.mobicents.tools.sip.balancer.KeySip;
+
+/**
+ * Runs each benchmark once per algorithm, so a state the algorithms cannot route with fails the build
+ * instead of only showing up as an unexpectedly fast benchmark.
+ */
+public class AlgorithmStateTest {
+
+	private static final String[] ALGORITHMS = {"DefaultBalancerAlgorithm", "CallIDAffinityBalancerAlgorithm",
+		"HeaderConsistentHashBalancerAlgorithm", "PureConsistentHashBalancerAlgorithm", "UserBasedAlgorithm",
+		"ClusterSubdomainAffinityAlgorithm"};
+
+	@Test
+	public void testEveryAlgorithmRoutes() throws Exception {
+		for(String algorithm : ALGORITHMS)
+			for(int nodeCount : new int[] {2, 10})
+				smoke(algorithm, nodeCount);
+	}
+
+	private static void smoke(String algorithm, int nodeCount) throws Exception {
+		AlgorithmState state = new AlgorithmState();
+		state.algorithm = algorithm;
+		state.nodeCount = nodeCount;
+		state.setup();
+		try {
+			BalancerAlgorithmBenchmark benchmark = new BalancerAlgorithmBenchmark();
+			BalancerAlgorithmBenchmark.Cursor cursor = new BalancerAlgorithmBenchmark.Cursor();
+			assertEquals(algorithm, nodeCount, state.ctx.getRoutingTable().getNodes(false).length);
+			for(int i = 0; i < AlgorithmState.MESSAGES; i++)
+				assertNotNull(algorithm + " with " + nodeCount + " nodes", benchmark.processExternalRequest(state, cursor));
+			for(int i = 0; i < AlgorithmState.MESSAGES; i++) {
+				benchmark.processInternalRequest(state, cursor);
+				benchmark.processExternalResponse(state, cursor);
+			}
+			for(int i = 0; i < nodeCount; i++) {
+				Node node = benchmark.nodeRemovedAndAdded(state, cursor);
+				assertNotNull(state.ctx.sipNodeMap(false).get(new KeySip(node, false)));
+				assertNotNull(algorithm + " after a membership change", benchmark.processExternalRequest(state, cursor));
+			}
+			assertEquals(algorithm, nodeCount, state.ctx.getRoutingTable().getNodes(false).length);
+		} finally {
+			state.tearDown();
+		}
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2017, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+package org.mobicents.tools.heartbeat.api;
+
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+
+/**
+ * Binary form of a {@link DeltaHeartbeatPacket} : a version byte, the session id on 8 bytes, the
+ * sequence on 4 bytes, the number of changed properties on 2 bytes then for each of them its name
+ * and its value, each one as its length on 2 bytes followed by its UTF-8 bytes, -1 as length for a
+ * removed property. A heartbeat without changes takes 15 bytes.
+ */
+public class BinaryHeartbeatCodec {
+
+	public static final String CONTENT_TYPE = "application/octet-stream";
+	public static final byte VERSION = 1;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private BinaryHeartbeatCodec() {}
+
+	public static ChannelBuffer encode(DeltaHeartbeatPacket packet)
+	{
+		Map<String, String> changed = packet.getChangedProperties();
+		ChannelBuffer buf = ChannelBuffers.dynamicBuffer(15 + changed.size() * 32);
+		buf.writeByte(VERSION);
+		buf.writeLong(packet.getSessionId());
+		buf.writeInt(packet.getSequence());
+		buf.writeShort(changed.size());
+		for(Map.Entry<String, String> entry : changed.entrySet())
+		{
+			writeString(buf, entry.getKey());
+			writeString(buf, entry.getValue());
+		}
+		return buf;
+	}
+
+	/**
+	 * @throws IllegalArgumentException if the content is not a delta heartbeat of a supported version
+	 */
+	public static DeltaHeartbeatPacket decode(ChannelBuffer buf)
+	{
+		try {
+			byte version = buf.readByte();
+			if(version != VERSION)
+				throw new IllegalArgumentException("Unsupported version of binary heartbeat : " + version);
+			long sessionId = buf.readLong();
+			int sequence = buf.readInt();
+			int count = buf.readUnsignedShort();
+			Map<String, String> changed = new LinkedHashMap<String, String>();
+			for(int i = 0; i < count; i++)
+			{
+				String key = readString(buf);
+				if(key == null)
+					throw new IllegalArgumentException("Property without name in binary heartbeat");
+				changed.put(key, readString(buf));
+			}
+			return new DeltaHeartbeatPacket(sessionId, sequence, changed);
+		} catch (IndexOutOfBoundsException e) {
+			throw new IllegalArgumentException("Truncated binary heartbeat", e);
+		}
+	}
+
+	private static void writeString(ChannelBuffer buf, String value)
+	{
+		if(value == null)
+		{
+			buf.writeShort(-1);
+			return;
+		}
+		byte[] bytes = value.getBytes(UTF8);
+		if(bytes.length > Short.MAX_VALUE)
+			throw new IllegalArgumentException("Property too long for binary heartbeat : " + value.substring(0, 32));
+		buf.writeShort(bytes.length);
+		buf.writeBytes(bytes);
+	}
+
+	private static String readString(ChannelBuffer buf)
+	{
+		short length = buf.readShort();
+		if(length < 0)
+			return null;
+		byte[] bytes = new byte[length];
+		buf.readBytes(bytes);
+		return new String(bytes, UTF8);
+	}
+}
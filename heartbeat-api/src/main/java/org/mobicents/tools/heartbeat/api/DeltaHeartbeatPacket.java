@@ -0,0 +1,75 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2017, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+package org.mobicents.tools.heartbeat.api;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Heartbeat of a node which already sent its full descriptor in its start request : only the session,
+ * a sequence number and the properties changed since the start request, a null value for a removed
+ * property. Sent with {@link BinaryHeartbeatCodec} to the load balancers which accept it.
+ */
+public class DeltaHeartbeatPacket implements Packet{
+
+	private long sessionId;
+	private int sequence;
+	private Map<String, String> changedProperties;
+
+	public DeltaHeartbeatPacket(long sessionId, int sequence, Map<String, String> changedProperties)
+	{
+		this.sessionId = sessionId;
+		this.sequence = sequence;
+		this.changedProperties = changedProperties;
+	}
+
+	/**
+	 * @param startProperties properties sent in the start request
+	 * @param properties current properties of the node
+	 * @return the properties added or modified since the start request and the removed ones with a null value
+	 */
+	public static Map<String, String> diff(Map<String, String> startProperties, Map<String, String> properties)
+	{
+		Map<String, String> changed = new LinkedHashMap<String, String>();
+		for(Map.Entry<String, String> entry : properties.entrySet())
+		{
+			String value = entry.getValue();
+			if(value != null && !value.equals(startProperties.get(entry.getKey())))
+				changed.put(entry.getKey(), value);
+		}
+		for(String key : startProperties.keySet())
+		{
+			if(properties.get(key) == null)
+				changed.put(key, null);
+		}
+		return changed;
+	}
+
+	public long getSessionId() {
+		return sessionId;
+	}
+
+	public int getSequence() {
+		return sequence;
+	}
+
+	public Map<String, String> getChangedProperties() {
+		return changedProperties;
+	}
+}
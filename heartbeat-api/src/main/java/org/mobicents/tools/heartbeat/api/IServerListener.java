@@ -29,6 +29,7 @@ public interface IServerListener extends IListener{
 	void responseReceived(JsonObject json);
 	void startRequestReceived(MessageEvent e, JsonObject json);
 	void heartbeatRequestReceived(MessageEvent e, JsonObject json);
+	void deltaHeartbeatReceived(MessageEvent e, DeltaHeartbeatPacket packet);
 	void shutdownRequestReceived(MessageEvent e, JsonObject json);
 	void stopRequestReceived(MessageEvent e, JsonObject json);
 	void switchoverRequestReceived(MessageEvent e, JsonObject asJsonObject);
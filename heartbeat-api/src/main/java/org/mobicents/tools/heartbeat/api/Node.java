@@ -19,6 +19,7 @@
 package org.mobicents.tools.heartbeat.api;
 
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -32,17 +33,27 @@ import java.util.concurrent.atomic.AtomicLong;
  */
 public class Node implements Comparable<Node> {
 
+	// port properties of the transports, in the order of the ports of a snapshot
+	private static final String[] PORT_PROPERTIES = {Protocol.UDP_PORT, Protocol.TCP_PORT, Protocol.TLS_PORT,
+			Protocol.WS_PORT, Protocol.WSS_PORT, Protocol.HTTP_PORT, Protocol.SSL_PORT, Protocol.SCTP_PORT, Protocol.SMPP_PORT};
+
 	private String hostName = null;
 	private String ip = null;
-	private long timeStamp = System.currentTimeMillis();
-	private HashMap<String, String> properties = new HashMap<String, String>();
-	private boolean gracefulShutdown;
-	private boolean bad;
+	private volatile long timeStamp = System.currentTimeMillis();
+	private volatile Map<String, String> properties = new HashMap<String, String>();
+	private volatile boolean gracefulShutdown;
+	private volatile boolean bad;
 	private AtomicInteger failCounter = new AtomicInteger(0);
-	private int weightIndex = 0;
+	private volatile long joinTime = System.currentTimeMillis();
     private AtomicInteger requestNumberWithoutResponse = new AtomicInteger(0);
+    private AtomicInteger outstandingTransactions = new AtomicInteger(0);
     private AtomicLong lastTimeResponse = new AtomicLong(System.currentTimeMillis());
     private AtomicLong lastTimeError = new AtomicLong(System.currentTimeMillis());
+    // only set for snapshots, computed once from properties which can't change anymore
+    private Integer[] ports;
+    private String portsKey;
+    private String orderingKey;
+    private int hash;
 	
 	public Node(){}
 	public Node(String hostName, String ip) {
@@ -57,7 +68,7 @@ public class Node implements Comparable<Node> {
 	@SuppressWarnings("unchecked")
 	public Node(JsonObject json) {
 		Gson gson = new Gson();
-		properties = gson.fromJson(json,properties.getClass());
+		properties = gson.fromJson(json,HashMap.class);
 		this.hostName = properties.remove(Protocol.HOST_NAME);
 		this.ip = properties.remove(Protocol.IP);
 		//rename restcomm instance id key
@@ -66,6 +77,94 @@ public class Node implements Comparable<Node> {
 			properties.put(Protocol.RESTCOMM_INSTANCE_ID, restcommInstanceId);
 	}
 
+	/**
+	 * Immutable copy of the node as published by the node register when a heartbeat is accepted:
+	 * the properties can't be modified, the ports are parsed once and the hash, the key used by
+	 * {@link #equals(Object)} and the ordering key are computed once. The health flags, counters
+	 * and time stamp stay mutable.
+	 * @return the snapshot, the node itself if it already is one
+	 */
+	public Node snapshot() {
+		if(ports != null)
+			return this;
+		Node snapshot = new Node();
+		snapshot.hostName = hostName;
+		snapshot.ip = ip;
+		snapshot.timeStamp = timeStamp;
+		snapshot.properties = Collections.unmodifiableMap(new HashMap<String, String>(properties));
+		snapshot.gracefulShutdown = gracefulShutdown;
+		snapshot.bad = bad;
+		snapshot.failCounter.set(failCounter.get());
+		snapshot.joinTime = joinTime;
+		snapshot.requestNumberWithoutResponse.set(requestNumberWithoutResponse.get());
+		snapshot.lastTimeResponse.set(lastTimeResponse.get());
+		snapshot.lastTimeError.set(lastTimeError.get());
+		Integer[] ports = new Integer[PORT_PROPERTIES.length];
+		for(int i = 0; i < PORT_PROPERTIES.length; i++)
+			ports[i] = parsePort(properties.get(PORT_PROPERTIES[i]));
+		snapshot.portsKey = snapshot.getPorts();
+		snapshot.orderingKey = snapshot.toStringWithoutJvmroute();
+		snapshot.hash = snapshot.hashCode();
+		snapshot.ports = ports;
+		return snapshot;
+	}
+
+	public boolean isSnapshot() {
+		return ports != null;
+	}
+
+	/**
+	 * Applies the properties changed by a delta heartbeat without rebuilding the node. A snapshot gets
+	 * an updated immutable copy of its properties, its ports, hash and ordering key stay the ones computed
+	 * when it was taken, so the ports can't change this way (see {@link #isPortProperty(String)}).
+	 * @param changedProperties new values of the properties, a null value removes the property
+	 */
+	public synchronized void updateProperties(Map<String, String> changedProperties) {
+		Map<String, String> updated = new HashMap<String, String>(properties);
+		for(Map.Entry<String, String> entry : changedProperties.entrySet()) {
+			if(entry.getValue() == null)
+				updated.remove(entry.getKey());
+			else
+				updated.put(entry.getKey(), entry.getValue());
+		}
+		properties = ports != null ? Collections.unmodifiableMap(updated) : updated;
+	}
+
+	/**
+	 * @return true if the property is the port of a transport, the ports are part of the key of a node
+	 */
+	public static boolean isPortProperty(String property) {
+		for(String portProperty : PORT_PROPERTIES)
+			if(portProperty.equals(property))
+				return true;
+		return false;
+	}
+
+	/**
+	 * @param transport name of the transport as in the port properties, like udp or smppSsl
+	 * @return the port of the node for this transport or null if the node doesn't listen on it
+	 */
+	public Integer getPort(String transport) {
+		if(ports != null) {
+			for(int i = 0; i < PORT_PROPERTIES.length; i++) {
+				String property = PORT_PROPERTIES[i];
+				if(property.length() == transport.length() + 4 && property.regionMatches(true, 0, transport, 0, transport.length()))
+					return ports[i];
+			}
+		}
+		return parsePort(properties.get(transport + "Port"));
+	}
+
+	private static Integer parsePort(String port) {
+		if(port == null)
+			return null;
+		try {
+			return Integer.valueOf(port.trim());
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
 	public String getHostName() {
 		return hostName;
 	}
@@ -109,6 +208,8 @@ public class Node implements Comparable<Node> {
 	
 	public String getPorts()
 	{
+		if(portsKey != null)
+			return portsKey;
 		return properties.get(Protocol.TCP_PORT) +
 				properties.get(Protocol.UDP_PORT) +
 				properties.get(Protocol.TLS_PORT) +
@@ -125,6 +226,12 @@ public class Node implements Comparable<Node> {
 	public void setRequestNumberWithoutResponse(int requestNumberWithoutResponse) {
 		this.requestNumberWithoutResponse.set(requestNumberWithoutResponse);
 	}
+	/**
+	 * @return the number of transactions sent to or received from the node and not answered yet
+	 */
+	public AtomicInteger getOutstandingTransactions() {
+		return outstandingTransactions;
+	}
 	public AtomicLong getLastTimeResponse() {
 		return lastTimeResponse;
 	}
@@ -140,6 +247,8 @@ public class Node implements Comparable<Node> {
 	
 	@Override
 	public int hashCode() {
+		if(ports != null)
+			return hash;
 		final int prime = 31;
 		int result = 1;
 		result = prime * result
@@ -183,6 +292,8 @@ public class Node implements Comparable<Node> {
 	}
 	
 	public String toStringWithoutJvmroute() {
+		if(orderingKey != null)
+			return orderingKey;
 
 		String result = "Node hostname[" + this.hostName + "] ip[" + this.ip
 		+ "] ";
@@ -200,12 +311,15 @@ public class Node implements Comparable<Node> {
 		return this.toStringWithoutJvmroute().compareTo(node.toStringWithoutJvmroute());
 	}
 	
-	public void incrementWeightIndex()
-	{
-		weightIndex++;
+	/**
+	 * @return the time the node joined the cluster in milliseconds, its weight ramps up from there
+	 */
+	public long getJoinTime() {
+		return joinTime;
 	}
-	public int obtainWeightIndex() {
-		return weightIndex;
+
+	public void setJoinTime(long joinTime) {
+		this.joinTime = joinTime;
 	}
 	
 	
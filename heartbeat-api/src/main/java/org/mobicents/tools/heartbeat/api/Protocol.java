@@ -28,6 +28,7 @@ public class Protocol
 	public final static String SHUTDOWN = "shutdown";
 	public static final String STOP = "stop";
 	public static final String SWITCHOVER = "switchover";
+	public static final String DELTA_HEARTBEAT = "deltaHeartbeat";
 	public final static String OK = "OK";
 	public final static String NOK = "NOK";
 	
@@ -49,5 +50,6 @@ public class Protocol
 	public static final String HEARTBEAT_PORT = "heartbeatPort";
 	public static final String GRACEFUL_SHUTDOWN ="graceful-shutdown";
 	public static final String LB_LABEL ="lbs";
+	public static final String WEIGHT ="weight";
 
 }
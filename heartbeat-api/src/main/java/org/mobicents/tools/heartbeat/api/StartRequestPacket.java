@@ -40,6 +40,7 @@ public class StartRequestPacket implements Packet{
 	private String sessionId;
 	private String restcommInstanceId;
 	private String heartbeatPort;
+	private String weight;
 	
 	public StartRequestPacket(Node node)
 	{
@@ -73,6 +74,8 @@ public class StartRequestPacket implements Packet{
 				                break;
             	case Protocol.HEARTBEAT_PORT: heartbeatPort = node.getProperties().get(key);
 								break;
+            	case Protocol.WEIGHT: weight = node.getProperties().get(key);
+								break;
 			}
 		}
 	}
@@ -108,6 +111,8 @@ public class StartRequestPacket implements Packet{
 				                break;
             	case Protocol.HEARTBEAT_PORT: heartbeatPort = ((Integer)sipNode.getProperties().get(key)).toString();
 								break;
+            	case Protocol.WEIGHT: weight = String.valueOf(sipNode.getProperties().get(key));
+								break;
 			}
 		}
 	}
@@ -216,6 +221,14 @@ public class StartRequestPacket implements Packet{
 		this.heartbeatPort = heartbeatPort;
 	}
 
+	public String getWeight() {
+		return weight;
+	}
+
+	public void setWeight(String weight) {
+		this.weight = weight;
+	}
+
 
 
 }
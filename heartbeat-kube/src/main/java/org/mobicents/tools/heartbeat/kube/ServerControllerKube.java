@@ -24,10 +24,14 @@ import io.fabric8.kubernetes.api.model.PodList;
 import io.fabric8.kubernetes.api.model.PodStatus;
 import io.fabric8.kubernetes.client.DefaultKubernetesClient;
 import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import io.fabric8.kubernetes.client.Watch;
+import io.fabric8.kubernetes.client.Watcher;
 
 import java.net.InetAddress;
-import java.util.List;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
@@ -39,25 +43,42 @@ import org.mobicents.tools.heartbeat.api.IServerHeartbeatService;
 import org.mobicents.tools.heartbeat.api.IServerListener;
 import org.mobicents.tools.heartbeat.api.Node;
 import org.mobicents.tools.heartbeat.api.NodeShutdownRequestPacket;
+import org.mobicents.tools.heartbeat.api.NodeStopRequestPacket;
+import org.mobicents.tools.heartbeat.api.Packet;
 import org.mobicents.tools.heartbeat.api.Protocol;
 import org.mobicents.tools.heartbeat.api.StartRequestPacket;
 
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
 /**
+ * Discovers the nodes from the pods of the cluster : the pods are listed once, then watched from
+ * the resource version of the list, so only the pods added, modified or deleted afterwards are
+ * received and turned in start, shutdown and stop requests. The pods are kept in a local cache
+ * which the heartbeats of the nodes are sent from every pull period, without calling the API server.
+ * When the watch is closed it is opened again from the last resource version seen, or after a new
+ * list when that version is too old.
+ *
  * @author Konstantin Nosach (kostyantyn.nosach@telestax.com)
  */
 public class ServerControllerKube implements IListener,IServerHeartbeatService<HeartbeatConfigKube> {
 
 	private static Logger logger = Logger.getLogger(ServerControllerKube.class.getCanonicalName());
 
+	private static final long MAX_RETRY_DELAY = 30000;
+	// resource version of the watch too old, the pods have to be listed again
+	private static final int HTTP_GONE = 410;
+
 	private IServerListener listener;
 	private Timer timer;
 	private KubernetesClient kube;
 	private Gson gson = new Gson();
-	private JsonParser parser = new JsonParser();
 	private ConcurrentHashMap<String, Node> activeNodes = new ConcurrentHashMap<>();
+	// pods of the cluster by name, as last listed or received by the watch
+	private ConcurrentHashMap<String, Pod> pods = new ConcurrentHashMap<>();
+	private volatile String resourceVersion;
+	private volatile Watch watch;
+	private volatile boolean stopped;
+	private long retryDelay;
 	private String lbIp;
 	private long pullPeriod = 3000;
 	private String nodeName = "sip-node";
@@ -65,46 +86,17 @@ public class ServerControllerKube implements IListener,IServerHeartbeatService<H
 	@Override
 	public void startServer() 
 	{
+		stopped = false;
 		timer = new Timer();
+		timer.schedule(new TimerTask() {
+			public void run() {
+				synchronize(true);
+			}
+		}, 2000);
 		timer.scheduleAtFixedRate(new TimerTask() {
 			public void run() {
-				PodList pods = kube.pods().list();
-				List<Pod> items = pods.getItems();
-				 for (Pod pod : items) 
-				 {
-			        	if(isValidPod(pod))
-			        	{
-			        		String currSessionId = getSessionId(pod);
-			        		Node currNode = activeNodes.get(currSessionId);
-			        		if(currNode==null)
-			        		{
-			        			for(ContainerStatus status : pod.getStatus().getContainerStatuses())
-			        			{
-			        				if(status.getName().startsWith(nodeName)&&status.getReady())
-			        				{
-			        					Node newNode = getNodeFromPod(pod);
-			        					JsonObject jsonObject = parser.parse(gson.toJson(new StartRequestPacket(newNode))).getAsJsonObject();
-			        					listener.startRequestReceived(null, jsonObject);
-			        					activeNodes.put(newNode.getProperties().get(Protocol.SESSION_ID), newNode);
-			        				}
-			        			}
-			        		}
-			        		else if(!isGracefulShutdown(pod) || currNode.isGracefulShutdown())
-			        		{
-	        					JsonObject jsonObject = parser.parse(gson.toJson(new HeartbeatRequestPacket(currNode))).getAsJsonObject();
-	        					listener.heartbeatRequestReceived(null, jsonObject);
-			        		}
-			        		else
-			        		{
-			        			if(!currNode.isGracefulShutdown())
-			        			{
-			        				currNode.setGracefulShutdown(true);
-			        				JsonObject jsonObject = parser.parse(gson.toJson(new NodeShutdownRequestPacket(currNode))).getAsJsonObject();
-			        				listener.shutdownRequestReceived(null, jsonObject);
-			        			}
-			        		}
-			        	}
-			     }
+				for(Node node : activeNodes.values())
+					listener.heartbeatRequestReceived(null, toJson(new HeartbeatRequestPacket(node)));
 			}
 		}, 2000, pullPeriod);
 
@@ -113,17 +105,30 @@ public class ServerControllerKube implements IListener,IServerHeartbeatService<H
 	@Override
 	public void stopServer() 
 	{
+		stopped = true;
 		timer.cancel();
+		Watch current = watch;
+		if(current!=null)
+			current.close();
 		activeNodes.clear();
+		pods.clear();
 		kube.close();
 	}
 
 	@Override
 	public void init(IServerListener listener, InetAddress serverAddress, HeartbeatConfigKube config) 
+	{		
+		init(listener, serverAddress, config, new DefaultKubernetesClient());
+	}
+
+	/**
+	 * @param kube client of the cluster, like the one of a mock server
+	 */
+	public void init(IServerListener listener, InetAddress serverAddress, HeartbeatConfigKube config, KubernetesClient kube) 
 	{		
 		this.listener = listener;
 		this.lbIp = serverAddress.getHostAddress();
-		this.kube = new DefaultKubernetesClient();
+		this.kube = kube;
 		this.pullPeriod = config.getPullPeriod();
 		this.nodeName = config.getNodeName();
 	}
@@ -133,6 +138,128 @@ public class ServerControllerKube implements IListener,IServerHeartbeatService<H
 	{
 		
 	}
+
+	/**
+	 * Lists the pods if needed then opens the watch from the last resource version, retried with an
+	 * increasing delay while the API server can't be reached
+	 */
+	private void synchronize(boolean list)
+	{
+		if(stopped)
+			return;
+		try
+		{
+			if(list || resourceVersion==null)
+				listPods();
+			watch = kube.pods().withResourceVersion(resourceVersion).watch(new PodWatcher());
+			retryDelay = 0;
+		}
+		catch(Exception e)
+		{
+			retryDelay = retryDelay==0 ? Math.min(pullPeriod, MAX_RETRY_DELAY) : Math.min(retryDelay * 2, MAX_RETRY_DELAY);
+			logger.warn("Unable to watch the pods, retrying in " + retryDelay + " ms : " + e.getMessage());
+			scheduleSynchronize(list || isGone(e), retryDelay);
+		}
+	}
+
+	private void scheduleSynchronize(final boolean list, long delay)
+	{
+		if(stopped)
+			return;
+		try
+		{
+			timer.schedule(new TimerTask() {
+				public void run() {
+					synchronize(list);
+				}
+			}, delay);
+		}
+		catch(IllegalStateException e)
+		{
+			// timer cancelled, the server is stopping
+		}
+	}
+
+	/**
+	 * Replaces the local cache of the pods with a full list, the pods missing from the list were
+	 * deleted while nothing was watched
+	 */
+	private synchronized void listPods()
+	{
+		PodList list = kube.pods().list();
+		Set<String> names = new HashSet<String>();
+		for(Pod pod : list.getItems())
+		{
+			names.add(pod.getMetadata().getName());
+			podUpdated(pod);
+		}
+		for(Pod pod : pods.values())
+		{
+			if(!names.contains(pod.getMetadata().getName()))
+				podDeleted(pod);
+		}
+		resourceVersion = list.getMetadata().getResourceVersion();
+	}
+
+	private synchronized void podUpdated(Pod pod)
+	{
+		Pod previous = pods.put(pod.getMetadata().getName(), pod);
+		String previousSessionId = previous==null ? null : getSessionId(previous);
+		if(previousSessionId!=null && !previousSessionId.equals(getSessionId(pod)))
+		{
+			// the node in the pod was restarted with a new session
+			stopNode(previous);
+		}
+		if(!isValidPod(pod))
+		{
+			// not running anymore or not for this load balancer
+			stopNode(pod);
+			return;
+		}
+		String currSessionId = getSessionId(pod);
+		Node currNode = currSessionId==null ? null : activeNodes.get(currSessionId);
+		if(currNode==null)
+		{
+			for(ContainerStatus status : pod.getStatus().getContainerStatuses())
+			{
+				if(status.getName().startsWith(nodeName)&&status.getReady())
+				{
+					Node newNode = getNodeFromPod(pod);
+					listener.startRequestReceived(null, toJson(new StartRequestPacket(newNode)));
+					activeNodes.put(newNode.getProperties().get(Protocol.SESSION_ID), newNode);
+				}
+			}
+		}
+		else if(isGracefulShutdown(pod) && !currNode.isGracefulShutdown())
+		{
+			currNode.setGracefulShutdown(true);
+			listener.shutdownRequestReceived(null, toJson(new NodeShutdownRequestPacket(currNode)));
+		}
+	}
+
+	private synchronized void podDeleted(Pod pod)
+	{
+		pods.remove(pod.getMetadata().getName());
+		stopNode(pod);
+	}
+
+	private void stopNode(Pod pod)
+	{
+		String sessionId = getSessionId(pod);
+		Node node = sessionId==null ? null : activeNodes.remove(sessionId);
+		if(node!=null)
+			listener.stopRequestReceived(null, toJson(new NodeStopRequestPacket(node)));
+	}
+
+	private JsonObject toJson(Packet packet)
+	{
+		return gson.toJsonTree(packet).getAsJsonObject();
+	}
+
+	private static boolean isGone(Exception e)
+	{
+		return e instanceof KubernetesClientException && ((KubernetesClientException)e).getCode()==HTTP_GONE;
+	}
 	
 	private Node getNodeFromPod(Pod pod)
 	{
@@ -145,16 +272,18 @@ public class ServerControllerKube implements IListener,IServerHeartbeatService<H
 	
 	private String getSessionId(Pod pod)
 	{
-		return pod.getMetadata().getLabels().get(Protocol.SESSION_ID);
+		Map<String,String> labels = pod.getMetadata().getLabels();
+		return labels==null ? null : labels.get(Protocol.SESSION_ID);
 	}
 	
 	private boolean isValidPod(Pod pod)
 	{
 		return pod.getMetadata().getName().startsWith(nodeName) 
-				&& pod.getStatus().getPhase().equals("Running")
+				&& pod.getStatus()!=null && "Running".equals(pod.getStatus().getPhase())
+				&& pod.getMetadata().getLabels()!=null
 				&& hasIpOfLB(pod.getMetadata().getLabels().get(Protocol.LB_LABEL));
 	}
-	
+
 	private boolean isGracefulShutdown(Pod pod)
 	{
 		if(pod.getMetadata().getLabels().get(Protocol.GRACEFUL_SHUTDOWN)==null)
@@ -178,4 +307,37 @@ public class ServerControllerKube implements IListener,IServerHeartbeatService<H
 		
 	}
 
+	private class PodWatcher implements Watcher<Pod>
+	{
+		@Override
+		public void eventReceived(Action action, Pod pod)
+		{
+			if(pod==null || pod.getMetadata()==null)
+				return;
+			resourceVersion = pod.getMetadata().getResourceVersion();
+			switch(action)
+			{
+				case ADDED:
+				case MODIFIED:
+					podUpdated(pod);
+					break;
+				case DELETED:
+					podDeleted(pod);
+					break;
+				default:
+					logger.warn("Error received while watching the pods : " + pod);
+			}
+		}
+
+		@Override
+		public void onClose(KubernetesClientException cause)
+		{
+			if(stopped)
+				return;
+			logger.warn("The watch of the pods is closed" + (cause==null ? "" : " : " + cause.getMessage()));
+			// the watch reconnects by itself, it is only closed when that fails or the version is too old
+			scheduleSynchronize(cause==null || cause.getCode()==HTTP_GONE, Math.min(pullPeriod, MAX_RETRY_DELAY));
+		}
+	}
+
 }
\ No newline at end of file
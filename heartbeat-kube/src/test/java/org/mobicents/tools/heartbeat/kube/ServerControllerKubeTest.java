@@ -0,0 +1,146 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2017, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.tools.heartbeat.kube;
+
+import static org.junit.Assert.assertEquals;
+
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.PodBuilder;
+import io.fabric8.kubernetes.api.model.PodListBuilder;
+import io.fabric8.kubernetes.api.model.StatusBuilder;
+import io.fabric8.kubernetes.api.model.WatchEvent;
+import io.fabric8.kubernetes.server.mock.KubernetesServer;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jboss.netty.channel.MessageEvent;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mobicents.tools.heartbeat.api.DeltaHeartbeatPacket;
+import org.mobicents.tools.heartbeat.api.IServerListener;
+import org.mobicents.tools.heartbeat.api.Protocol;
+
+import com.google.gson.JsonObject;
+
+public class ServerControllerKubeTest {
+
+	private static final String PODS = "/api/v1/namespaces/test/pods";
+
+	@Rule
+	public KubernetesServer server = new KubernetesServer();
+
+	private ServerControllerKube controller;
+	private RecordingListener listener = new RecordingListener();
+
+	@After
+	public void tearDown() {
+		if(controller != null)
+			controller.stopServer();
+	}
+
+	@Test
+	public void testListWatchAndRelist() throws Exception {
+		Pod first = pod("sip-node-1", "1001", "10.0.0.1", "1");
+		Pod second = pod("sip-node-2", "1002", "10.0.0.2", "1");
+		Pod third = pod("sip-node-3", "1003", "10.0.0.3", "4");
+		server.expect().withPath(PODS).andReturn(200, new PodListBuilder()
+				.withNewMetadata().withResourceVersion("1").endMetadata()
+				.addToItems(first, second).build()).once();
+		// the first pod is deleted, then the version of the watch is too old
+		server.expect().withPath(PODS + "?resourceVersion=1&watch=true").andUpgradeToWebSocket().open()
+				.waitFor(100).andEmit(new WatchEvent(pod("sip-node-1", "1001", "10.0.0.1", "2"), "DELETED"))
+				.waitFor(100).andEmit(new WatchEvent(new StatusBuilder().withCode(410).withMessage("too old resource version").build(), "ERROR"))
+				.done().once();
+		// the new list has the pod added while nothing was watched
+		server.expect().withPath(PODS).andReturn(200, new PodListBuilder()
+				.withNewMetadata().withResourceVersion("5").endMetadata()
+				.addToItems(second, third).build()).once();
+		server.expect().withPath(PODS + "?resourceVersion=5&watch=true").andUpgradeToWebSocket().open()
+				.done().once();
+
+		HeartbeatConfigKube config = new HeartbeatConfigKube();
+		config.setPullPeriod(500);
+		config.setNodeName("sip-node");
+		controller = new ServerControllerKube();
+		controller.init(listener, InetAddress.getByName("127.0.0.1"), config, server.getClient());
+		controller.startServer();
+
+		List<String> expected = Arrays.asList("start 1001", "start 1002", "stop 1001", "start 1003");
+		long deadline = System.currentTimeMillis() + 10000;
+		while(listener.getEvents().size() < expected.size() && System.currentTimeMillis() < deadline)
+			Thread.sleep(100);
+		assertEquals(expected, listener.getEvents());
+	}
+
+	private static Pod pod(String name, String sessionId, String ip, String resourceVersion) {
+		return new PodBuilder()
+				.withNewMetadata().withName(name).withResourceVersion(resourceVersion)
+					.addToLabels(Protocol.SESSION_ID, sessionId).addToLabels(Protocol.UDP_PORT, "5060").endMetadata()
+				.withNewStatus().withPhase("Running").withPodIP(ip)
+					.addNewContainerStatus().withName("sip-node").withReady(true).endContainerStatus().endStatus()
+				.build();
+	}
+
+	private static class RecordingListener implements IServerListener {
+		private final List<String> events = new ArrayList<String>();
+
+		synchronized List<String> getEvents() {
+			return new ArrayList<String>(events);
+		}
+
+		private synchronized void record(String request, JsonObject json) {
+			events.add(request + " " + json.get("sessionId").getAsString());
+		}
+
+		@Override
+		public void startRequestReceived(MessageEvent e, JsonObject json) {
+			record("start", json);
+		}
+
+		@Override
+		public void stopRequestReceived(MessageEvent e, JsonObject json) {
+			record("stop", json);
+		}
+
+		@Override
+		public void responseReceived(JsonObject json) {
+		}
+
+		@Override
+		public void heartbeatRequestReceived(MessageEvent e, JsonObject json) {
+		}
+
+		@Override
+		public void deltaHeartbeatReceived(MessageEvent e, DeltaHeartbeatPacket packet) {
+		}
+
+		@Override
+		public void shutdownRequestReceived(MessageEvent e, JsonObject json) {
+		}
+
+		@Override
+		public void switchoverRequestReceived(MessageEvent e, JsonObject json) {
+		}
+	}
+}
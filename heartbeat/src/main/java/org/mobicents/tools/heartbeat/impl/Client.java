@@ -22,12 +22,15 @@ import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
 
 import java.net.InetSocketAddress;
 import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 
 import org.apache.log4j.Logger;
 import org.jboss.netty.bootstrap.ClientBootstrap;
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelFuture;
 import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
 import org.jboss.netty.handler.codec.http.DefaultHttpRequest;
@@ -35,6 +38,8 @@ import org.jboss.netty.handler.codec.http.HttpHeaders;
 import org.jboss.netty.handler.codec.http.HttpMethod;
 import org.jboss.netty.handler.codec.http.HttpRequest;
 import org.jboss.netty.handler.codec.http.HttpVersion;
+import org.mobicents.tools.heartbeat.api.BinaryHeartbeatCodec;
+import org.mobicents.tools.heartbeat.api.DeltaHeartbeatPacket;
 import org.mobicents.tools.heartbeat.api.HeartbeatRequestPacket;
 import org.mobicents.tools.heartbeat.api.Node;
 import org.mobicents.tools.heartbeat.api.NodeShutdownRequestPacket;
@@ -48,26 +53,40 @@ import org.mobicents.tools.heartbeat.interfaces.IClientListener;
 import org.mobicents.tools.heartbeat.packets.SwitchoverRequestPacket;
 
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 /**
+ * Sends the packets of a node to one load balancer over a single keep-alive HTTP/1.1 connection,
+ * opened again when the load balancer closes it. While the load balancer can't be reached the
+ * attempts to connect are spaced by a delay doubled after each failure, the packets sent meanwhile
+ * are dropped as when the connection fails. Once the load balancer accepted delta heartbeats the
+ * heartbeats only carry the session, a sequence number and the properties changed since the start
+ * request, encoded by {@link BinaryHeartbeatCodec}.
+ *
  * @author Konstantin Nosach (kostyantyn.nosach@telestax.com)
  */
 public class Client implements IClient{
 
 	private static final Logger logger = Logger.getLogger(Client.class.getCanonicalName());
 	
+	private static final Gson gson = new Gson();
+	private static final long MIN_RECONNECT_DELAY = 100;
+	private static final long MAX_RECONNECT_DELAY = 5000;
+	
 	private ExecutorService executor;
 	private ClientBootstrap clientBootstrap;
 	private NioClientSocketChannelFactory nioClientSocketChannelFactory;
-	private ChannelFuture future;
+	private volatile Channel channel;
+	private long reconnectDelay;
+	private long nextConnectTime;
 
 	private String lbAddress;
 	private int lbPort;
 	private Node node;
 	
 	private Packet packet;
+	private volatile boolean deltaHeartbeats;
+	private Map<String, String> startProperties;
+	private int sequence;
 	private IClientListener clientListener;
 	private InetSocketAddress isa;
 	
@@ -91,18 +110,18 @@ public class Client implements IClient{
 		this.nioClientSocketChannelFactory = new NioClientSocketChannelFactory(executor, executor);
 		this.clientBootstrap = new ClientBootstrap(nioClientSocketChannelFactory);
 		this.clientBootstrap.setPipelineFactory(new ClientPipelineFactory(clientListener));
+		this.clientBootstrap.setOption("tcpNoDelay", true);
+		this.clientBootstrap.setOption("keepAlive", true);
 		this.isa = new InetSocketAddress(lbAddress, lbPort);
 	}
 	
 	@Override
-	public void switchover(String fromJvmRoute, String toJvmRoute)
+	public synchronized void switchover(String fromJvmRoute, String toJvmRoute)
 	{
 		Packet packet = new SwitchoverRequestPacket(fromJvmRoute, toJvmRoute);
-		ClientBootstrap clientBootstrap = new ClientBootstrap(new NioClientSocketChannelFactory(executor, executor));
-		clientBootstrap.setPipelineFactory(new ClientPipelineFactory(clientListener));
-		ChannelFuture future = clientBootstrap.connect(new InetSocketAddress(lbAddress, lbPort));
-		future.awaitUninterruptibly();
-		future.getChannel().write(createRequest(Protocol.SWITCHOVER,packet));
+		Channel channel = getChannel();
+		if(channel!=null)
+			channel.write(createRequest(Protocol.SWITCHOVER,packet));
 	}
 
 	@Override
@@ -110,8 +129,6 @@ public class Client implements IClient{
 	{
 		if(clientBootstrap!=null&&!executor.isShutdown())
 		{
-			
-			future = clientBootstrap.connect(isa);
 			switch(command)
 			{
 				case Protocol.START:
@@ -119,6 +136,8 @@ public class Client implements IClient{
 					{
 						node.getProperties().put(Protocol.SESSION_ID, ""+ System.currentTimeMillis());
 						packet = new StartRequestPacket(node);
+						startProperties = new HashMap<String, String>(node.getProperties());
+						sequence = 0;
 					}
 					break;
 				case Protocol.HEARTBEAT:
@@ -132,35 +151,69 @@ public class Client implements IClient{
 					packet = new NodeStopRequestPacket(node);
 					break;
 			}
-			future.awaitUninterruptibly();
-			future.getChannel().write(createRequest(command, null));
+			Channel channel = getChannel();
+			if(channel!=null)
+			{
+				if(deltaHeartbeats&&command.equals(Protocol.HEARTBEAT))
+					channel.write(createDeltaRequest());
+				else
+					channel.write(createRequest(command, null));
+			}
 		}
 	}
 
 	@Override
-	public void stop() 
+	public void setDeltaHeartbeats(boolean deltaHeartbeats)
+	{
+		this.deltaHeartbeats = deltaHeartbeats;
+	}
+
+	@Override
+	public synchronized void stop() 
 	{
 		
 		if(executor==null) return;
-			executor.shutdownNow();
+		if(channel!=null)
+			channel.close().awaitUninterruptibly();
+		executor.shutdownNow();
 		if(clientBootstrap!=null)
 			clientBootstrap.shutdown();
 		nioClientSocketChannelFactory.shutdown();
 	}
+
+	/**
+	 * @return the connection to the load balancer, opened if needed, or null if it can't be opened now
+	 */
+	private Channel getChannel()
+	{
+		Channel current = channel;
+		if(current!=null&&current.isConnected())
+			return current;
+		long now = System.currentTimeMillis();
+		if(now < nextConnectTime)
+			return null;
+		ChannelFuture future = clientBootstrap.connect(isa);
+		future.awaitUninterruptibly();
+		if(!future.isSuccess())
+		{
+			reconnectDelay = reconnectDelay==0 ? MIN_RECONNECT_DELAY : Math.min(reconnectDelay * 2, MAX_RECONNECT_DELAY);
+			nextConnectTime = now + reconnectDelay;
+			logger.warn("Unable to connect to the load balancer " + isa + ", next attempt in " + reconnectDelay + " ms");
+			return null;
+		}
+		reconnectDelay = 0;
+		nextConnectTime = 0;
+		channel = future.getChannel();
+		return channel;
+	}
 	
 	private String getStringFromJson(String packetType, Packet packet)
 	{
-		GsonBuilder builder = new GsonBuilder();
-		Gson gson = builder.setPrettyPrinting().create();
-		JsonElement je = null;
-		if(packet==null)
-			je = gson.toJsonTree(this.packet);
-		else
-			je = gson.toJsonTree(packet);
 		JsonObject jo = new JsonObject();
-		jo.add(packetType, je);
+		jo.add(packetType, gson.toJsonTree(packet==null ? this.packet : packet));
 		String output=jo.toString();
-		logger.debug("Client is sending request : "+ output);
+		if(logger.isDebugEnabled())
+			logger.debug("Client is sending request : "+ output);
 		return output;
 	}
 	private HttpRequest createRequest(String packetType, Packet packet)
@@ -169,8 +222,24 @@ public class Client implements IClient{
     	ChannelBuffer buf = ChannelBuffers.copiedBuffer(getStringFromJson(packetType, packet), Charset.forName("UTF-8"));
     	request.setHeader(HttpHeaders.Names.CONTENT_TYPE, APPLICATION_JSON);
     	request.setHeader(HttpHeaders.Names.CONTENT_LENGTH, buf.readableBytes());
+    	// the load balancer keeps the connection open only when asked, older nodes never close it
+    	request.setHeader(HttpHeaders.Names.CONNECTION, HttpHeaders.Values.KEEP_ALIVE);
     	request.setContent(buf);
     	return request;
 	}
+	private HttpRequest createDeltaRequest()
+	{
+		DeltaHeartbeatPacket delta = new DeltaHeartbeatPacket(Long.parseLong(startProperties.get(Protocol.SESSION_ID)), ++sequence,
+				DeltaHeartbeatPacket.diff(startProperties, node.getProperties()));
+		if(logger.isDebugEnabled())
+			logger.debug("Client is sending delta heartbeat " + delta.getSequence() + " with changes : " + delta.getChangedProperties());
+		HttpRequest request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/");
+		ChannelBuffer buf = BinaryHeartbeatCodec.encode(delta);
+		request.setHeader(HttpHeaders.Names.CONTENT_TYPE, BinaryHeartbeatCodec.CONTENT_TYPE);
+		request.setHeader(HttpHeaders.Names.CONTENT_LENGTH, buf.readableBytes());
+		request.setHeader(HttpHeaders.Names.CONNECTION, HttpHeaders.Values.KEEP_ALIVE);
+		request.setContent(buf);
+		return request;
+	}
 
 }
@@ -46,6 +46,7 @@ public class ClientController implements IClientListener {
 	private String lbAddress;
 	private int lbPort;
 	private int maxErrors = 3;
+	private boolean deltaHeartbeats;
 	private AtomicInteger failResponsesCounter = new AtomicInteger(0);
 	
 	public ClientController(IClientListener listener, String lbAddress, int lbPort, Node node, int startPeriod, int heartbeatPeriod, ExecutorService executor)
@@ -67,6 +68,14 @@ public class ClientController implements IClientListener {
 		this.maxErrors = maxErrors;
 		client = new Client(this, lbAddress, lbPort, node, executor);		
 	}
+	/**
+	 * @param deltaHeartbeats whether to send delta heartbeats to the load balancer once it told it accepts them
+	 */
+	public ClientController(IClientListener listener, String lbAddress, int lbPort, Node node, int startPeriod, int heartbeatPeriod, int maxErrors, boolean deltaHeartbeats, ExecutorService executor)
+	{
+		this(listener, lbAddress, lbPort, node, startPeriod, heartbeatPeriod, maxErrors, executor);
+		this.deltaHeartbeats = deltaHeartbeats;
+	}
 	
 	public void updateNode(Node node)
 	{
@@ -111,6 +120,7 @@ public class ClientController implements IClientListener {
 		if(json.get(Protocol.START)!=null)
 		{
 			startTimer.cancel();
+			client.setDeltaHeartbeats(deltaHeartbeats&&json.get(Protocol.DELTA_HEARTBEAT)!=null&&json.get(Protocol.DELTA_HEARTBEAT).getAsBoolean());
 			heartbeatTimer = new Timer();
 			heartbeatTimer.scheduleAtFixedRate(new TimerTask() {
 				public void run() {
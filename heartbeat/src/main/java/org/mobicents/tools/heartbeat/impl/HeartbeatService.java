@@ -63,6 +63,7 @@ public class HeartbeatService implements IClientListener{
 	private int heartBeatInterval = 5000;
 	private int startInterval = 5000;
 	private int maxHeartbeatErrors = 3;
+	private boolean deltaHeartbeats;
 	private ExecutorService executor = Executors.newCachedThreadPool();
 	
 	private ServerBootstrap serverBootstrap;
@@ -79,6 +80,14 @@ public class HeartbeatService implements IClientListener{
         this.startInterval = startInterval;
         this.maxHeartbeatErrors = maxHeartbeatErrors;
 	}
+	/**
+	 * @param deltaHeartbeats whether nodes send delta heartbeats to the load balancers accepting them
+	 */
+	public HeartbeatService(String heartBeatIp, int heartBeatPort, int heartBeatInterval, int startInterval, int maxHeartbeatErrors, boolean deltaHeartbeats)
+	{
+		this(heartBeatIp, heartBeatPort, heartBeatInterval, startInterval, maxHeartbeatErrors);
+		this.deltaHeartbeats = deltaHeartbeats;
+	}
 	public void start ()
 	{
 		serverBootstrap = new ServerBootstrap(new NioServerSocketChannelFactory(executor, executor));
@@ -117,7 +126,7 @@ public class HeartbeatService implements IClientListener{
 	
 	public void startClientController(String lbAddress, int lbHeartbeatPort, Node node)
 	{
-		ClientController currController = new ClientController(this, lbAddress, lbHeartbeatPort, node, startInterval , heartBeatInterval, maxHeartbeatErrors, executor);
+		ClientController currController = new ClientController(this, lbAddress, lbHeartbeatPort, node, startInterval , heartBeatInterval, maxHeartbeatErrors, deltaHeartbeats, executor);
 		currController.startClient();
 		clientControllers.add(currController);
 	}
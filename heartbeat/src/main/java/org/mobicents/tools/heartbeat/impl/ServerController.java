@@ -22,6 +22,7 @@ import java.net.InetAddress;
 
 import org.apache.log4j.Logger;
 import org.jboss.netty.channel.MessageEvent;
+import org.mobicents.tools.heartbeat.api.DeltaHeartbeatPacket;
 import org.mobicents.tools.heartbeat.api.IServerHeartbeatService;
 import org.mobicents.tools.heartbeat.api.IServerListener;
 import org.mobicents.tools.heartbeat.api.Protocol;
@@ -80,6 +81,12 @@ public class ServerController implements IServerListener,IServerHeartbeatService
 		listener.heartbeatRequestReceived(e, json);
 	}
 
+	@Override
+	public void deltaHeartbeatReceived(MessageEvent e, DeltaHeartbeatPacket packet) 
+	{
+		listener.deltaHeartbeatReceived(e, packet);
+	}
+
 	@Override
 	public void shutdownRequestReceived(MessageEvent e, JsonObject json) 
 	{
@@ -29,5 +29,6 @@ public interface IClient {
 	void sendPacket(String command);
 	void stop();
 	void switchover(String fromJvmRoute, String toJvmRoute);
+	void setDeltaHeartbeats(boolean deltaHeartbeats);
 	
 }
@@ -26,12 +26,20 @@ import org.mobicents.tools.heartbeat.api.Packet;
 public class StartResponsePacket implements Packet {
 	
 	private String start;
+	// set by the load balancers accepting delta heartbeats, not sent by the older ones
+	private Boolean deltaHeartbeat;
 	
 	public StartResponsePacket(String status)
 	{
 		this.start = status;
 	}
 
+	public StartResponsePacket(String status, boolean deltaHeartbeat)
+	{
+		this.start = status;
+		this.deltaHeartbeat = deltaHeartbeat;
+	}
+
 	public String getStart() {
 		return start;
 	}
@@ -40,4 +48,12 @@ public class StartResponsePacket implements Packet {
 		this.start = start;
 	}
 
+	public Boolean getDeltaHeartbeat() {
+		return deltaHeartbeat;
+	}
+
+	public void setDeltaHeartbeat(Boolean deltaHeartbeat) {
+		this.deltaHeartbeat = deltaHeartbeat;
+	}
+
 }
@@ -24,7 +24,9 @@ import org.apache.log4j.Logger;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.channel.MessageEvent;
 import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.handler.codec.http.HttpHeaders;
 import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.mobicents.tools.heartbeat.api.BinaryHeartbeatCodec;
 import org.mobicents.tools.heartbeat.api.IListener;
 import org.mobicents.tools.heartbeat.api.IServerListener;
 import org.mobicents.tools.heartbeat.api.Protocol;
@@ -53,6 +55,11 @@ public class HttpRequestHandler extends SimpleChannelUpstreamHandler{
     public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception 
     {
     	request = (HttpRequest)e.getMessage();
+    	if(listener instanceof IServerListener&&BinaryHeartbeatCodec.CONTENT_TYPE.equals(request.getHeader(HttpHeaders.Names.CONTENT_TYPE)))
+    	{
+    		((IServerListener) listener).deltaHeartbeatReceived(e, BinaryHeartbeatCodec.decode(request.getContent()));
+    		return;
+    	}
     	JsonObject json = parser.parse(request.getContent().toString("UTF-8")).getAsJsonObject();
     	Entry<String, JsonElement> jsonEntry = json.entrySet().iterator().next();
     	String command =  jsonEntry.getKey();
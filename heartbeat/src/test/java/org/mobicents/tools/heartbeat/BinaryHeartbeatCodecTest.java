@@ -0,0 +1,78 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2017, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.tools.heartbeat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Test;
+import org.mobicents.tools.heartbeat.api.BinaryHeartbeatCodec;
+import org.mobicents.tools.heartbeat.api.DeltaHeartbeatPacket;
+import org.mobicents.tools.heartbeat.api.Protocol;
+
+public class BinaryHeartbeatCodecTest {
+
+	@Test
+	public void testEmptyDelta() {
+		Map<String, String> properties = new HashMap<String, String>();
+		properties.put(Protocol.SESSION_ID, "1500000000000");
+		properties.put(Protocol.UDP_PORT, "5060");
+		Map<String, String> changed = DeltaHeartbeatPacket.diff(properties, new HashMap<String, String>(properties));
+		assertTrue(changed.isEmpty());
+
+		ChannelBuffer buf = BinaryHeartbeatCodec.encode(new DeltaHeartbeatPacket(1500000000000L, 7, changed));
+		assertEquals(15, buf.readableBytes());
+		DeltaHeartbeatPacket packet = BinaryHeartbeatCodec.decode(buf);
+		assertEquals(1500000000000L, packet.getSessionId());
+		assertEquals(7, packet.getSequence());
+		assertTrue(packet.getChangedProperties().isEmpty());
+	}
+
+	@Test
+	public void testChangedProperties() {
+		Map<String, String> startProperties = new HashMap<String, String>();
+		startProperties.put(Protocol.UDP_PORT, "5060");
+		startProperties.put(Protocol.TCP_PORT, "5060");
+		Map<String, String> properties = new HashMap<String, String>(startProperties);
+		properties.put(Protocol.UDP_PORT, "5070");
+		properties.remove(Protocol.TCP_PORT);
+		properties.put("jvmRoute", "r\u00e9gion-1");
+
+		DeltaHeartbeatPacket packet = BinaryHeartbeatCodec.decode(BinaryHeartbeatCodec.encode(
+				new DeltaHeartbeatPacket(1, 2, DeltaHeartbeatPacket.diff(startProperties, properties))));
+		assertEquals(3, packet.getChangedProperties().size());
+		assertEquals("5070", packet.getChangedProperties().get(Protocol.UDP_PORT));
+		assertEquals("r\u00e9gion-1", packet.getChangedProperties().get("jvmRoute"));
+		assertTrue(packet.getChangedProperties().containsKey(Protocol.TCP_PORT));
+		assertNull(packet.getChangedProperties().get(Protocol.TCP_PORT));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTruncated() {
+		ChannelBuffer buf = BinaryHeartbeatCodec.encode(new DeltaHeartbeatPacket(1, 2, new HashMap<String, String>()));
+		BinaryHeartbeatCodec.decode(ChannelBuffers.copiedBuffer(buf.toByteBuffer(0, 9)));
+	}
+}
@@ -14,6 +14,7 @@ import org.jboss.netty.handler.codec.http.HttpHeaders;
 import org.jboss.netty.handler.codec.http.HttpResponse;
 import org.jboss.netty.handler.codec.http.HttpResponseStatus;
 import org.jboss.netty.handler.codec.http.HttpVersion;
+import org.mobicents.tools.heartbeat.api.DeltaHeartbeatPacket;
 import org.mobicents.tools.heartbeat.api.IServerListener;
 import org.mobicents.tools.heartbeat.api.Packet;
 import org.mobicents.tools.heartbeat.api.Protocol;
@@ -46,6 +47,12 @@ public class TestNodeRegister implements IServerListener {
 		writeResponse(e, HttpResponseStatus.OK, Protocol.HEARTBEAT);
 	}
 
+	@Override
+	public void deltaHeartbeatReceived(MessageEvent e, DeltaHeartbeatPacket packet) 
+	{
+		writeResponse(e, HttpResponseStatus.OK, Protocol.HEARTBEAT);
+	}
+
 	@Override
 	public void shutdownRequestReceived(MessageEvent e, JsonObject json) 
 	{
@@ -11,6 +11,10 @@ public class AlgorithmConfiguration {
 	public static final String HTTP_AFFINITY_KEY = "appsession";
 	public static final String SUBCLUSTER_MAP = null;
 	public static final Boolean EARLY_DIALOG_WORST_CASE = false;
+	public static final Integer VIRTUAL_NODES = 160;
+	public static final Integer MAGLEV_TABLE_SIZE = 65537;
+	public static final Double BOUNDED_LOAD_FACTOR = 0.0;
+	public static final Integer PEAK_EWMA_DECAY_TIME = 10000;
 	
 	private String algorithmClass;
 	private Integer callIdAffinityMaxTimeInCache;
@@ -21,6 +25,10 @@ public class AlgorithmConfiguration {
 	private String httpAffinityKey;
 	private String subclusterMap;
 	private Boolean earlyDialogWorstCase;
+	private Integer virtualNodes;
+	private Integer maglevTableSize;
+	private Double boundedLoadFactor;
+	private Integer peakEwmaDecayTime;
 	
 	public AlgorithmConfiguration()
 	{
@@ -32,6 +40,10 @@ public class AlgorithmConfiguration {
 		this.httpAffinityKey = HTTP_AFFINITY_KEY;
 		this.subclusterMap = SUBCLUSTER_MAP;
 		this.earlyDialogWorstCase = EARLY_DIALOG_WORST_CASE;
+		this.virtualNodes = VIRTUAL_NODES;
+		this.maglevTableSize = MAGLEV_TABLE_SIZE;
+		this.boundedLoadFactor = BOUNDED_LOAD_FACTOR;
+		this.peakEwmaDecayTime = PEAK_EWMA_DECAY_TIME;
 	}
 
 	public void setCallIdAffinityGroupFailover(Boolean callIdAffinityGroupFailover) {
@@ -101,6 +113,38 @@ public class AlgorithmConfiguration {
 		this.earlyDialogWorstCase = earlyDialogWorstCase;
 	}
 
+	public Integer getVirtualNodes() {
+		return virtualNodes;
+	}
+
+	public void setVirtualNodes(Integer virtualNodes) {
+		this.virtualNodes = virtualNodes;
+	}
+
+	public Integer getMaglevTableSize() {
+		return maglevTableSize;
+	}
+
+	public void setMaglevTableSize(Integer maglevTableSize) {
+		this.maglevTableSize = maglevTableSize;
+	}
+
+	public Double getBoundedLoadFactor() {
+		return boundedLoadFactor;
+	}
+
+	public void setBoundedLoadFactor(Double boundedLoadFactor) {
+		this.boundedLoadFactor = boundedLoadFactor;
+	}
+
+	public Integer getPeakEwmaDecayTime() {
+		return peakEwmaDecayTime;
+	}
+
+	public void setPeakEwmaDecayTime(Integer peakEwmaDecayTime) {
+		this.peakEwmaDecayTime = peakEwmaDecayTime;
+	}
+
 	/**
 	 * @return the sipHeaderAffinityKeyExclusionPattern
 	 */
@@ -8,12 +8,18 @@ public class HttpConfiguration
 	public static final Integer HTTPS_PORT = null;
 	public static final String UNAVAILABLE_HOST = null;
 	public  static final String REQUEST_CHECK_PATTERN = null;
+	public static final Integer BACKEND_POOL_MIN_SIZE = 0;
+	public static final Integer BACKEND_POOL_MAX_SIZE = 20;
+	public static final Long BACKEND_POOL_IDLE_TIMEOUT = 60000L;
 	
 	private Integer httpPort;
 	private Integer httpsPort;
 	private String unavailableHost;
 	private String requestCheckPattern;
 	private Document urlrewriteRule;
+	private Integer backendPoolMinSize;
+	private Integer backendPoolMaxSize;
+	private Long backendPoolIdleTimeout;
 	
 	 public HttpConfiguration() 
 	 {
@@ -21,6 +27,9 @@ public class HttpConfiguration
 		 this.httpsPort = HTTPS_PORT;
 	     this.unavailableHost = UNAVAILABLE_HOST;
 	     this.requestCheckPattern = REQUEST_CHECK_PATTERN;   
+	     this.backendPoolMinSize = BACKEND_POOL_MIN_SIZE;
+	     this.backendPoolMaxSize = BACKEND_POOL_MAX_SIZE;
+	     this.backendPoolIdleTimeout = BACKEND_POOL_IDLE_TIMEOUT;
 	 }
 
 	public Integer getHttpPort() 
@@ -73,4 +82,34 @@ public class HttpConfiguration
 		this.requestCheckPattern = requestCheckPattern;
 	}
 	
+	public Integer getBackendPoolMinSize() 
+	{
+		return backendPoolMinSize;
+	}
+
+	public void setBackendPoolMinSize(Integer backendPoolMinSize) 
+	{
+		this.backendPoolMinSize = backendPoolMinSize;
+	}
+
+	public Integer getBackendPoolMaxSize() 
+	{
+		return backendPoolMaxSize;
+	}
+
+	public void setBackendPoolMaxSize(Integer backendPoolMaxSize) 
+	{
+		this.backendPoolMaxSize = backendPoolMaxSize;
+	}
+
+	public Long getBackendPoolIdleTimeout() 
+	{
+		return backendPoolIdleTimeout;
+	}
+
+	public void setBackendPoolIdleTimeout(Long backendPoolIdleTimeout) 
+	{
+		this.backendPoolIdleTimeout = backendPoolIdleTimeout;
+	}
+	
 }
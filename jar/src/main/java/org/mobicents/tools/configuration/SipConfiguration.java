@@ -30,6 +30,7 @@ public class SipConfiguration {
 	public static final String INTERNAL_TRANSPORT = null;
 	public static final Integer TRAFFIC_RAMPUP_CYCLE_PERIOD = null;
 	public static final Integer MAX_WEIGHT_INDEX = null;
+	public static final String TRAFFIC_RAMPUP_CURVE = "linear";
 	public static final Integer MAX_REQUEST_NUMBER_WITHOUT_RESPONSE = null;
 	public static final Long MAX_RESPONSE_TIME = null;
 
@@ -53,6 +54,7 @@ public class SipConfiguration {
 	private String internalTransport;
 	private Integer trafficRampupCyclePeriod;
 	private Integer maxWeightIndex;
+	private String trafficRampupCurve;
 	private Integer maxRequestNumberWithoutResponse;
 	private Long maxResponseTime;
 	private ArrayList<RoutingRule> routingRulesIpv4;
@@ -84,6 +86,7 @@ public class SipConfiguration {
         this.internalTransport = INTERNAL_TRANSPORT;
         this.trafficRampupCyclePeriod = TRAFFIC_RAMPUP_CYCLE_PERIOD;
         this.maxWeightIndex = MAX_WEIGHT_INDEX;
+        this.trafficRampupCurve = TRAFFIC_RAMPUP_CURVE;
         this.maxRequestNumberWithoutResponse = MAX_REQUEST_NUMBER_WITHOUT_RESPONSE;
         this.maxResponseTime = MAX_RESPONSE_TIME;
     }
@@ -273,6 +276,14 @@ public class SipConfiguration {
 		this.maxWeightIndex = 100/trafficPercentageIncrease;
 	}
 
+	public String getTrafficRampupCurve() {
+		return trafficRampupCurve;
+	}
+
+	public void setTrafficRampupCurve(String trafficRampupCurve) {
+		this.trafficRampupCurve = trafficRampupCurve;
+	}
+
 	public Integer getMaxRequestNumberWithoutResponse() {
 		return maxRequestNumberWithoutResponse;
 	}
@@ -138,6 +138,7 @@ public class XmlConfigurationLoader{
         	dst.setTrafficRampupCyclePeriod(src.getInteger("trafficRampupCyclePeriod", SipConfiguration.TRAFFIC_RAMPUP_CYCLE_PERIOD));
         if(src.getString("trafficPercentageIncrease")!=null&&!src.getString("trafficPercentageIncrease").equals(""))
         	dst.setTrafficPercentageIncrease(src.getInteger("trafficPercentageIncrease", SipConfiguration.MAX_WEIGHT_INDEX));
+        dst.setTrafficRampupCurve(src.getString("trafficRampupCurve", SipConfiguration.TRAFFIC_RAMPUP_CURVE));
         if(src.getString("maxRequestNumberWithoutResponse") != null && !src.getString("maxRequestNumberWithoutResponse").equals(""))
         	dst.setMaxRequestNumberWithoutResponse(src.getInteger("maxRequestNumberWithoutResponse", SipConfiguration.MAX_REQUEST_NUMBER_WITHOUT_RESPONSE));
         if(src.getString("maxResponseTime") != null && !src.getString("maxResponseTime").equals(""))
@@ -173,6 +174,10 @@ public class XmlConfigurationLoader{
         alg.setHttpAffinityKey(src.getString("algorithm.httpAffinityKey",AlgorithmConfiguration.HTTP_AFFINITY_KEY));
         alg.setSubclusterMap(src.getString("subclusterMap",AlgorithmConfiguration.SUBCLUSTER_MAP));
         alg.setEarlyDialogWorstCase(src.getBoolean("earlyDialogWorstCase",AlgorithmConfiguration.EARLY_DIALOG_WORST_CASE));
+        alg.setVirtualNodes(src.getInteger("algorithm.virtualNodes",AlgorithmConfiguration.VIRTUAL_NODES));
+        alg.setMaglevTableSize(src.getInteger("algorithm.maglevTableSize",AlgorithmConfiguration.MAGLEV_TABLE_SIZE));
+        alg.setBoundedLoadFactor(src.getDouble("algorithm.boundedLoadFactor",AlgorithmConfiguration.BOUNDED_LOAD_FACTOR));
+        alg.setPeakEwmaDecayTime(src.getInteger("algorithm.peakEwmaDecayTime",AlgorithmConfiguration.PEAK_EWMA_DECAY_TIME));
         //external leg configuration
         ex.setHost(src.getString("external.host",ExternalLegConfiguration.HOST));
         String externalIpLoadBalancerAddresses = src.getString("external.ipLoadBalancerAddress", ExternalLegConfiguration.IP_LOAD_BALANCER_ADRESS);
@@ -317,6 +322,9 @@ public class XmlConfigurationLoader{
         	dst.setUnavailableHost(src.getString("unavailableHost", HttpConfiguration.UNAVAILABLE_HOST));
         	dst.setRequestCheckPattern(src.getString("requestCheckPattern", HttpConfiguration.REQUEST_CHECK_PATTERN));
         }
+        dst.setBackendPoolMinSize(src.getInteger("backendPoolMinSize", HttpConfiguration.BACKEND_POOL_MIN_SIZE));
+        dst.setBackendPoolMaxSize(src.getInteger("backendPoolMaxSize", HttpConfiguration.BACKEND_POOL_MAX_SIZE));
+        dst.setBackendPoolIdleTimeout(src.getLong("backendPoolIdleTimeout", HttpConfiguration.BACKEND_POOL_IDLE_TIMEOUT));
         setFilterConfig(xml, dst);
      }
 
@@ -1,11 +1,15 @@
 package org.mobicents.tools.http.balancer;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.jboss.netty.channel.Channel;
 
 public class AdvancedChannel {
 	
 	private Channel channel;
 	private boolean isCheckNeed = false;
+	// requests of the exchange still waiting for their response, shared by both sides of a pooled association
+	private AtomicInteger outstanding;
 	public AdvancedChannel (Channel channel)
 	{
 		this(channel, false);
@@ -17,6 +21,12 @@ public class AdvancedChannel {
 		this.isCheckNeed = isCheckNeed;
 	}
 
+	public AdvancedChannel (Channel channel, boolean isCheckNeed, AtomicInteger outstanding)
+	{
+		this(channel, isCheckNeed);
+		this.outstanding = outstanding;
+	}
+
 	public Channel getChannel() {
 		return channel;
 	}
@@ -32,6 +42,37 @@ public class AdvancedChannel {
 	public void setCheckNeed(boolean isCheckNeed) {
 		this.isCheckNeed = isCheckNeed;
 	}
+
+	/**
+	 * @return true when the node channel of this association belongs to the backend pool
+	 * and the association only lasts for one exchange
+	 */
+	public boolean isPooled() {
+		return outstanding != null;
+	}
+
+	/**
+	 * Adds a request pipelined by the client to the exchange of a pooled association
+	 * @return false when the last response of the exchange has already been received
+	 */
+	public boolean addRequest() {
+		if(outstanding == null)
+			return true;
+		while(true) {
+			int current = outstanding.get();
+			if(current == 0)
+				return false;
+			if(outstanding.compareAndSet(current, current + 1))
+				return true;
+		}
+	}
+
+	/**
+	 * @return true when the response completes the last outstanding request of a pooled association
+	 */
+	public boolean completeRequest() {
+		return outstanding != null && outstanding.decrementAndGet() == 0;
+	}
 	
 	@Override
     public int hashCode() {
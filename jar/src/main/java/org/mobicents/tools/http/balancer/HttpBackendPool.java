@@ -0,0 +1,272 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2017, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.tools.http.balancer;
+
+import java.net.InetSocketAddress;
+import java.util.Iterator;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.jboss.netty.bootstrap.ClientBootstrap;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.Channels;
+
+/**
+ * Pool of keep-alive HTTP/1.1 connections to the nodes, one pool per node address and scheme.
+ * A connection is taken from the pool for one request and response exchange and given back
+ * once the response is complete, so the requests of many clients share a few node connections.
+ * Up to the max size connections are kept per node, more are opened when needed and closed after
+ * their exchange. Idle connections are evicted down to the min size after the idle timeout and
+ * connections closed by the node are dropped, both when taken and by the periodic maintenance.
+ */
+
+public class HttpBackendPool {
+
+	private static final Logger logger = Logger.getLogger(HttpBackendPool.class.getCanonicalName());
+
+	private final ClientBootstrap bootstrap;
+	private final ClientBootstrap secureBootstrap;
+	private final int minSize;
+	private final int maxSize;
+	private final long idleTimeout;
+	private final ConcurrentHashMap<InetSocketAddress, NodePool> pools = new ConcurrentHashMap<InetSocketAddress, NodePool>();
+	private final ConcurrentHashMap<InetSocketAddress, NodePool> securePools = new ConcurrentHashMap<InetSocketAddress, NodePool>();
+	private final ConcurrentHashMap<Channel, PooledChannel> pooledChannels = new ConcurrentHashMap<Channel, PooledChannel>();
+	private Timer timer;
+
+	public HttpBackendPool(ClientBootstrap bootstrap, ClientBootstrap secureBootstrap, int minSize, int maxSize, long idleTimeout) {
+		this.bootstrap = bootstrap;
+		this.secureBootstrap = secureBootstrap;
+		this.minSize = Math.min(minSize, maxSize);
+		this.maxSize = maxSize;
+		this.idleTimeout = idleTimeout;
+	}
+
+	/**
+	 * @return false when the max size is 0, every client then keeps its own node connection
+	 */
+	public boolean isEnabled() {
+		return maxSize > 0;
+	}
+
+	public void start() {
+		if(!isEnabled() || idleTimeout <= 0)
+			return;
+		timer = new Timer("HttpBackendPool", true);
+		long period = Math.max(idleTimeout / 2, 1000);
+		timer.schedule(new TimerTask() {
+			public void run() {
+				try {
+					maintain();
+				} catch (Exception e) {
+					logger.error("Error while maintaining the HTTP backend pool", e);
+				}
+			}
+		}, period, period);
+	}
+
+	/**
+	 * @return a future completed with an idle connected channel of the pool or with a new connection
+	 */
+	public ChannelFuture acquire(InetSocketAddress address, boolean secure) {
+		NodePool pool = getPool(address, secure);
+		pool.lastUsed = System.currentTimeMillis();
+		PooledChannel pooled;
+		while((pooled = pool.idle.pollFirst()) != null) {
+			if(pooled.channel.isConnected())
+				return Channels.succeededFuture(pooled.channel);
+			pooled.channel.close();
+		}
+		return connect(pool, false);
+	}
+
+	/**
+	 * Gives the channel back to its pool once its exchange is complete. Channels opened over the max
+	 * size of the pool or not connected anymore are closed.
+	 */
+	public void release(Channel channel) {
+		PooledChannel pooled = pooledChannels.get(channel);
+		if(pooled == null || !channel.isConnected()) {
+			channel.close();
+			return;
+		}
+		long now = System.currentTimeMillis();
+		pooled.idleSince = now;
+		pooled.pool.lastUsed = now;
+		pooled.pool.idle.offerFirst(pooled);
+	}
+
+	public int getNumberOfChannels(InetSocketAddress address, boolean secure) {
+		NodePool pool = (secure ? securePools : pools).get(address);
+		return pool == null ? 0 : pool.size.get();
+	}
+
+	public int getNumberOfIdleChannels(InetSocketAddress address, boolean secure) {
+		NodePool pool = (secure ? securePools : pools).get(address);
+		return pool == null ? 0 : pool.idle.size();
+	}
+
+	/**
+	 * Drops the idle channels closed by the nodes, evicts the channels idle for longer than the idle
+	 * timeout down to the min size, opens channels up to the min size for the nodes used recently
+	 * and forgets the nodes not used anymore
+	 */
+	void maintain() {
+		long now = System.currentTimeMillis();
+		maintain(pools, now);
+		maintain(securePools, now);
+	}
+
+	private void maintain(ConcurrentHashMap<InetSocketAddress, NodePool> pools, long now) {
+		Iterator<NodePool> iterator = pools.values().iterator();
+		while(iterator.hasNext()) {
+			NodePool pool = iterator.next();
+			for(PooledChannel pooled : pool.idle) {
+				if(!pooled.channel.isConnected() && pool.idle.removeFirstOccurrence(pooled))
+					pooled.channel.close();
+			}
+			PooledChannel oldest;
+			while(pool.size.get() > minSize && (oldest = pool.idle.peekLast()) != null
+					&& now - oldest.idleSince >= idleTimeout) {
+				if(pool.idle.removeLastOccurrence(oldest)) {
+					if(logger.isDebugEnabled())
+						logger.debug("Closing idle HTTP connection " + oldest.channel);
+					oldest.channel.close();
+				}
+			}
+			boolean used = now - pool.lastUsed < idleTimeout;
+			if(used) {
+				for(int i = pool.size.get(); i < minSize; i++)
+					connect(pool, true);
+			} else if(pool.size.get() == 0) {
+				iterator.remove();
+			}
+		}
+	}
+
+	public void close() {
+		if(timer != null) {
+			timer.cancel();
+			timer = null;
+		}
+		for(PooledChannel pooled : pooledChannels.values())
+			pooled.channel.close();
+		pooledChannels.clear();
+		pools.clear();
+		securePools.clear();
+	}
+
+	private NodePool getPool(InetSocketAddress address, boolean secure) {
+		ConcurrentHashMap<InetSocketAddress, NodePool> pools = secure ? securePools : this.pools;
+		NodePool pool = pools.get(address);
+		if(pool == null) {
+			pool = new NodePool(address, secure);
+			NodePool previous = pools.putIfAbsent(address, pool);
+			if(previous != null)
+				pool = previous;
+		}
+		return pool;
+	}
+
+	private ChannelFuture connect(final NodePool pool, final boolean idle) {
+		ChannelFuture future = (pool.secure ? secureBootstrap : bootstrap).connect(pool.address);
+		// added first, so the channel is known by the pool before the caller is notified
+		future.addListener(new ChannelFutureListener() {
+			public void operationComplete(ChannelFuture future) throws Exception {
+				if(!future.isSuccess())
+					return;
+				final Channel channel = future.getChannel();
+				channel.getCloseFuture().addListener(new ChannelFutureListener() {
+					public void operationComplete(ChannelFuture future) throws Exception {
+						PooledChannel pooled = pooledChannels.remove(channel);
+						if(pooled != null) {
+							pool.size.decrementAndGet();
+							pool.idle.removeFirstOccurrence(pooled);
+						}
+						closeClient(channel);
+					}
+				});
+				if(pool.size.incrementAndGet() > maxSize) {
+					pool.size.decrementAndGet();
+					if(idle)
+						channel.close();
+					return;
+				}
+				PooledChannel pooled = new PooledChannel(channel, pool);
+				pooledChannels.put(channel, pooled);
+				if(!channel.isOpen() && pooledChannels.remove(channel) != null) {
+					// closed before it was known by the pool
+					pool.size.decrementAndGet();
+					return;
+				}
+				if(idle) {
+					pooled.idleSince = System.currentTimeMillis();
+					pool.idle.offerLast(pooled);
+				}
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * A node closing a channel in the middle of an exchange closes the client connection, as when
+	 * the client has its own node connection
+	 */
+	private static void closeClient(Channel channel) {
+		if(HttpChannelAssociations.channels == null)
+			return;
+		AdvancedChannel client = HttpChannelAssociations.channels.remove(new AdvancedChannel(channel));
+		if(client != null) {
+			HttpChannelAssociations.channels.remove(client);
+			client.getChannel().close();
+		}
+	}
+
+	private static final class NodePool {
+		private final InetSocketAddress address;
+		private final boolean secure;
+		// most recently released first, so the oldest idle channels are at the end
+		private final ConcurrentLinkedDeque<PooledChannel> idle = new ConcurrentLinkedDeque<PooledChannel>();
+		private final AtomicInteger size = new AtomicInteger();
+		private volatile long lastUsed = System.currentTimeMillis();
+
+		NodePool(InetSocketAddress address, boolean secure) {
+			this.address = address;
+			this.secure = secure;
+		}
+	}
+
+	private static final class PooledChannel {
+		private final Channel channel;
+		private final NodePool pool;
+		private volatile long idleSince;
+
+		PooledChannel(Channel channel, NodePool pool) {
+			this.channel = channel;
+			this.pool = pool;
+		}
+	}
+}
@@ -33,6 +33,7 @@ import org.jboss.netty.bootstrap.ServerBootstrap;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
 import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+import org.mobicents.tools.configuration.HttpConfiguration;
 import org.mobicents.tools.http.urlrewriting.BalancerUrlRewriteFilter;
 import org.mobicents.tools.sip.balancer.BalancerRunner;
 
@@ -101,6 +102,12 @@ public class HttpBalancerForwarder {
 		}
 		
 		HttpChannelAssociations.inboundBootstrap.setPipelineFactory(new HttpClientPipelineFactory(balancerRunner, false));		
+		HttpChannelAssociations.inboundBootstrap.setOption("keepAlive", true);
+
+		HttpConfiguration httpConfiguration = balancerRunner.balancerContext.lbConfig.getHttpConfiguration();
+		HttpChannelAssociations.backendPool = new HttpBackendPool(HttpChannelAssociations.inboundBootstrap, HttpChannelAssociations.inboundSecureBootstrap,
+				httpConfiguration.getBackendPoolMinSize(), httpConfiguration.getBackendPoolMaxSize(), httpConfiguration.getBackendPoolIdleTimeout());
+		HttpChannelAssociations.backendPool.start();
 	}
 
 	public void stop() {
@@ -114,6 +121,8 @@ public class HttpBalancerForwarder {
 			entry.getValue().getChannel().getCloseFuture().awaitUninterruptibly();
 		}
 		
+		HttpChannelAssociations.backendPool.close();
+
 		serverChannel.unbind();
 		serverChannel.close();
 		serverChannel.getCloseFuture().awaitUninterruptibly();
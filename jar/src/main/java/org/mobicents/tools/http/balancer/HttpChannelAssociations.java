@@ -39,6 +39,7 @@ public class HttpChannelAssociations {
     static ClientBootstrap inboundBootstrap;
     static ClientBootstrap inboundSecureBootstrap;
     static ConcurrentHashMap<AdvancedChannel, AdvancedChannel> channels;
+    static HttpBackendPool backendPool;
     public static Channel serverApiChannel;
     static BalancerUrlRewriteFilter urlRewriteFilter;
 
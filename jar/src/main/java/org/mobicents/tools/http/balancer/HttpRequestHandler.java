@@ -36,8 +36,10 @@ import java.util.Set;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.log4j.LogManager;
@@ -60,6 +62,7 @@ import org.jboss.netty.handler.codec.http.DefaultHttpResponse;
 import org.jboss.netty.handler.codec.http.HttpChunk;
 import org.jboss.netty.handler.codec.http.HttpHeaders;
 import org.jboss.netty.handler.codec.http.HttpHeaders.Names;
+import org.jboss.netty.handler.codec.http.HttpMethod;
 import org.jboss.netty.handler.codec.http.HttpRequest;
 import org.jboss.netty.handler.codec.http.HttpResponse;
 import org.jboss.netty.handler.codec.http.HttpResponseStatus;
@@ -73,6 +76,7 @@ import org.mobicents.tools.sip.balancer.InvocationContext;
 import org.mobicents.tools.sip.balancer.KeySip;
 import org.mobicents.tools.sip.balancer.LbUtils;
 import org.mobicents.tools.sip.balancer.NodesInfoObject;
+import org.mobicents.tools.sip.balancer.RegexRoutes;
 import org.mobicents.tools.sip.balancer.StatisticObject;
 
 import com.google.gson.Gson;
@@ -90,6 +94,8 @@ import com.google.gson.JsonObject;
 public class HttpRequestHandler extends SimpleChannelUpstreamHandler {
 
     private static final Logger logger = Logger.getLogger(HttpRequestHandler.class.getCanonicalName());
+    // serializes the updates of the regex routes so the last compiled routes match the map
+    private static final Object regexLock = new Object();
 
     private volatile HttpRequest request;
     private volatile boolean readingChunks;
@@ -100,6 +106,7 @@ public class HttpRequestHandler extends SimpleChannelUpstreamHandler {
     private boolean isSecured;
     private Pattern pattern;
     private Semaphore semaphore;
+    private boolean closeListenerAdded;
 	private ConcurrentHashMap<String, Semaphore> semaphoreMap = new ConcurrentHashMap<>();
 
     private BalancerRunner balancerRunner;
@@ -264,16 +271,16 @@ public class HttpRequestHandler extends SimpleChannelUpstreamHandler {
 				return;
 			}
 
-			if (associatedChannel != null && associatedChannel.isConnected()) {
+			// a request pipelined during the exchange of a pooled association follows it on the same node channel
+			if (associatedChannel != null && associatedChannel.isConnected() && currentAC.addRequest()) {
 				semaphore.release();
 				associatedChannel.write(request);
+			} else if (isPoolable(request)) {
+				addCloseListener(e.getChannel());
+				sendToPooledChannel(e, request);
 			} else {
 
-				e.getChannel().getCloseFuture().addListener(new ChannelFutureListener() {
-					public void operationComplete(ChannelFuture arg0) throws Exception {
-						closeChannelPair(arg0.getChannel());
-					}
-				});
+				addCloseListener(e.getChannel());
 
 				// Start the connection attempt.
 				ChannelFuture future = null;
@@ -287,7 +294,7 @@ public class HttpRequestHandler extends SimpleChannelUpstreamHandler {
 						wsrequest = true;
 						wsVersion = request.getHeader(Names.SEC_WEBSOCKET_VERSION);
 						websocketServerPipelineFactory = new WebsocketModifyClientPipelineFactory();
-						future = HttpChannelAssociations.inboundBootstrap.connect(new InetSocketAddress(node.getIp(), Integer.parseInt(node.getProperties().get("wsPort"))));
+						future = HttpChannelAssociations.inboundBootstrap.connect(new InetSocketAddress(node.getIp(), node.getPort("ws")));
 
 					}
 				} else {
@@ -295,12 +302,12 @@ public class HttpRequestHandler extends SimpleChannelUpstreamHandler {
 						if (logger.isDebugEnabled()) {
 							logger.debug("Dispatching HTTP request to node: " + node.getIp() + " port: " + node.getProperties().get("httpPort"));
 						}
-						future = HttpChannelAssociations.inboundBootstrap.connect(new InetSocketAddress(node.getIp(), Integer.parseInt(node.getProperties().get("httpPort"))));
+						future = HttpChannelAssociations.inboundBootstrap.connect(new InetSocketAddress(node.getIp(), node.getPort("http")));
 					} else {
 						if (logger.isDebugEnabled()) {
 							logger.debug("Dispatching HTTPS request to node: " + node.getIp() + " port: " + node.getProperties().get("sslPort"));
 						}
-						future = HttpChannelAssociations.inboundSecureBootstrap.connect(new InetSocketAddress(node.getIp(), Integer.parseInt(node.getProperties().get("sslPort"))));
+						future = HttpChannelAssociations.inboundSecureBootstrap.connect(new InetSocketAddress(node.getIp(), node.getPort("ssl")));
 					}
 				}
 
@@ -354,6 +361,62 @@ public class HttpRequestHandler extends SimpleChannelUpstreamHandler {
 		}
 	}
 
+	/**
+	 * Plain keep-alive HTTP requests are sent on a connection of the backend pool, websocket
+	 * upgrades and requests of clients closing their connection keep a connection of their own
+	 */
+	private boolean isPoolable(HttpRequest request) {
+		HttpBackendPool backendPool = HttpChannelAssociations.backendPool;
+		return backendPool != null && backendPool.isEnabled()
+				&& !request.headers().contains("Sec-WebSocket-Protocol")
+				&& !request.getMethod().equals(HttpMethod.HEAD) && !request.getMethod().equals(HttpMethod.CONNECT)
+				&& HttpHeaders.isKeepAlive(request);
+	}
+
+	private void sendToPooledChannel(final MessageEvent e, final HttpRequest request) {
+		String transport = isSecured ? "ssl" : "http";
+		if (logger.isDebugEnabled()) {
+			logger.debug("Dispatching " + (isSecured ? "HTTPS" : "HTTP") + " request to node: " + node.getIp() + " port: " + node.getPort(transport) + " over pooled connection");
+		}
+		final InetSocketAddress address = new InetSocketAddress(node.getIp(), node.getPort(transport));
+
+		HttpChannelAssociations.backendPool.acquire(address, isSecured).addListener(new ChannelFutureListener() {
+			public void operationComplete(ChannelFuture future) throws Exception {
+				if (!future.isSuccess()) {
+					logger.warn("Can not connect to node " + address + " : " + future.getCause());
+					semaphore.release();
+					e.getChannel().close();
+					return;
+				}
+				Channel channel = future.getChannel();
+				boolean isCheckNeed = pattern != null && pattern.matcher(request.getUri()).find();
+				if (isCheckNeed)
+					logger.info("request : " + request.getUri() + " matches to pattern : " + pattern);
+				AtomicInteger outstanding = new AtomicInteger(1);
+				HttpChannelAssociations.channels.put(new AdvancedChannel(e.getChannel(), isCheckNeed, outstanding), new AdvancedChannel(channel, isCheckNeed, outstanding));
+				HttpChannelAssociations.channels.put(new AdvancedChannel(channel, isCheckNeed, outstanding), new AdvancedChannel(e.getChannel(), isCheckNeed, outstanding));
+
+				if (request.isChunked()) {
+					readingChunks = true;
+				}
+
+				semaphore.release();
+				channel.write(request);
+			}
+		});
+	}
+
+	private void addCloseListener(Channel channel) {
+		if (closeListenerAdded)
+			return;
+		closeListenerAdded = true;
+		channel.getCloseFuture().addListener(new ChannelFutureListener() {
+			public void operationComplete(ChannelFuture arg0) throws Exception {
+				closeChannelPair(arg0.getChannel());
+			}
+		});
+	}
+
 	private void closeChannelPair(Channel channel) {
 		Channel associatedChannel = null;
 		AdvancedChannel advancedChannel = HttpChannelAssociations.channels.get(new AdvancedChannel(channel));
@@ -519,22 +582,35 @@ public class HttpRequestHandler extends SimpleChannelUpstreamHandler {
     	
     	if(regex!=null&&ip!=null&&port!=null)
     	{
-    		KeySip keySip = new KeySip(ip,Integer.parseInt(port),isIpV6);
-    		if(balancerRunner.balancerContext.regexMap==null)
+    		try
     		{
-    			balancerRunner.balancerContext.regexMap = new ConcurrentHashMap<String,KeySip>();
-    			balancerRunner.balancerContext.regexMap.put(regex, keySip);
-    			return true;
+    			Pattern.compile(regex);
     		}
-    		else
+    		catch(PatternSyntaxException ex)
     		{
+    			logger.warn("invalid regex : " + regex + " " + ex.getMessage());
+    			return false;
+    		}
+    		KeySip keySip = new KeySip(ip,Integer.parseInt(port),isIpV6);
+    		synchronized (regexLock)
+    		{
+    			if(balancerRunner.balancerContext.regexMap==null)
+    				balancerRunner.balancerContext.regexMap = new ConcurrentHashMap<String,KeySip>();
     			balancerRunner.balancerContext.regexMap.put(regex, keySip);
-    			return true;
+    			balancerRunner.balancerContext.regexRoutes = new RegexRoutes(balancerRunner.balancerContext.regexMap);
     		}
+    		return true;
     	}
     	else if(regex!=null)
     	{
-  			KeySip keySip = balancerRunner.balancerContext.regexMap.remove(regex);
+    		KeySip keySip = null;
+    		synchronized (regexLock)
+    		{
+    			if(balancerRunner.balancerContext.regexMap!=null)
+    				keySip = balancerRunner.balancerContext.regexMap.remove(regex);
+    			if(keySip!=null)
+    				balancerRunner.balancerContext.regexRoutes = new RegexRoutes(balancerRunner.balancerContext.regexMap);
+    		}
   			if(keySip!=null)
   			{
   				logger.info("regex removed from map : " + regex);
@@ -35,6 +35,7 @@ import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
 import org.jboss.netty.handler.codec.http.DefaultHttpChunk;
 import org.jboss.netty.handler.codec.http.HttpChunk;
 import org.jboss.netty.handler.codec.http.HttpChunkTrailer;
+import org.jboss.netty.handler.codec.http.HttpHeaders;
 import org.jboss.netty.handler.codec.http.HttpHeaders.Names;
 import org.jboss.netty.handler.codec.http.HttpResponse;
 import org.jboss.netty.handler.codec.http.websocketx.TextWebSocketFrame;
@@ -56,6 +57,7 @@ public class HttpResponseHandler extends SimpleChannelUpstreamHandler {
 	private static final Logger logger = Logger.getLogger(HttpResponseHandler.class.getCanonicalName());
 	private volatile boolean readingChunks;
 	private volatile HttpResponse response;
+	private volatile boolean keepAlive;
 	private volatile String wsVersion;
 	private volatile WebsocketModifyServerPipelineFactory websocketModifyServerPipelineFactory;
 	private BalancerRunner balancerRunner;
@@ -102,12 +104,15 @@ public class HttpResponseHandler extends SimpleChannelUpstreamHandler {
 			Channel channel = null;
 			if(ac!=null)
 				channel = ac.getChannel();
+			boolean completed = chunk.isLast() && endExchange(e.getChannel(), ac);
 			if(channel != null) 
 			{
 				if(logger.isDebugEnabled())
 					logger.debug("Send chunked response from : " + e.getChannel().getRemoteAddress() + " to : " + channel.getRemoteAddress() + " capacity : " + chunk.getContent().capacity());
 				channel.write(chunk);				
 			}
+			if(completed)
+				releaseChannel(e.getChannel());
 		}
 		else if(!readingChunks || !(e.getMessage() instanceof DefaultHttpChunk))
 		{
@@ -148,16 +153,21 @@ public class HttpResponseHandler extends SimpleChannelUpstreamHandler {
 			if(response.isChunked()){
 				readingChunks = true;
 			}
+			keepAlive = HttpHeaders.isKeepAlive(response) && (response.isChunked() || response.headers().contains(Names.CONTENT_LENGTH));
 
 			AdvancedChannel ac = HttpChannelAssociations.channels.get(new AdvancedChannel(e.getChannel()));
 			Channel channel = null;
 			if(ac!=null)
 				channel = ac.getChannel();
+			// 1xx responses are followed by the final response of the same exchange
+			boolean completed = !response.isChunked() && stsusCode >= 200 && endExchange(e.getChannel(), ac);
 			if(channel != null) {
 				if(logger.isDebugEnabled())
 					logger.debug("Send response from : " + e.getChannel().getRemoteAddress() + " to : " + channel.getRemoteAddress() + " capacity : " + response.getContent().capacity());
 				channel.write(response);
 			}
+			if(completed)
+				releaseChannel(e.getChannel());
 
 			Set<String> headers = response.getHeaderNames();
 			if(headers.contains("Sec-WebSocket-Protocol")) {
@@ -186,15 +196,43 @@ public class HttpResponseHandler extends SimpleChannelUpstreamHandler {
 			Channel channel = null;
 			if(ac!=null)
 				channel = ac.getChannel();
+			boolean completed = chunk.isLast() && endExchange(e.getChannel(), ac);
 			if(channel != null) 
 			{
 				if(logger.isDebugEnabled())
 					logger.debug("Send chunked response from : " + e.getChannel().getRemoteAddress() + " to : " + channel.getRemoteAddress() + " capacity : " + chunk.getContent().capacity());
 				channel.write(chunk);				
 			}
+			if(completed)
+				releaseChannel(e.getChannel());
 		}
 	}
 
+	/**
+	 * The association of a pooled node channel with its client ends with the last part of the
+	 * response to the last request pipelined by the client, before it is written so the next
+	 * request of the client gets a channel again
+	 * @return true if the node channel belongs to the backend pool and has no request left
+	 */
+	private boolean endExchange(Channel nodeChannel, AdvancedChannel client) {
+		if(client == null || !client.completeRequest())
+			return false;
+		HttpChannelAssociations.channels.remove(new AdvancedChannel(nodeChannel));
+		HttpChannelAssociations.channels.remove(client);
+		return true;
+	}
+
+	/**
+	 * Gives the node channel back to the pool, unless the node is closing the connection
+	 * or the end of its responses can only be known by the connection closing
+	 */
+	private void releaseChannel(Channel nodeChannel) {
+		if(keepAlive && HttpChannelAssociations.backendPool != null)
+			HttpChannelAssociations.backendPool.release(nodeChannel);
+		else
+			nodeChannel.close();
+	}
+
 	@Override
 	public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e)
 			throws Exception {
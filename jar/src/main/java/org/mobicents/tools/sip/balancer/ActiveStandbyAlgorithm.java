@@ -77,9 +77,8 @@ public class ActiveStandbyAlgorithm extends DefaultBalancerAlgorithm {
 
 		if(!found) {
 			Node node = selectNewNode(isIpV6);
-			String transportProperty = transport + "Port";
-			port = Integer.parseInt(node.getProperties().get(transportProperty));
-			if(port == null) throw new RuntimeException("No transport found for node " + node + " " + transportProperty);
+			port = node.getPort(transport);
+			if(port == null) throw new RuntimeException("No transport found for node " + node + " " + transport + "Port");
 			if(logger.isDebugEnabled())
 				logger.debug("changing via " + via + "setting new values " + node.getIp() + ":" + port);
 			
@@ -100,9 +99,8 @@ public class ActiveStandbyAlgorithm extends DefaultBalancerAlgorithm {
 		Via via = (Via) response.getHeader(Via.NAME);
 		String transport = via.getTransport().toLowerCase();
 		Node node = selectNewNode(isIpV6);
-		String transportProperty = transport + "Port";
-		Integer port = Integer.parseInt(node.getProperties().get(transportProperty));
-		if(port == null) throw new RuntimeException("No transport found for node " + node + " " + transportProperty);
+		Integer port = node.getPort(transport);
+		if(port == null) throw new RuntimeException("No transport found for node " + node + " " + transport + "Port");
 		if(logger.isDebugEnabled())
 			logger.debug("changing via " + via + "setting new values " + node.getIp() + ":" + port);
 
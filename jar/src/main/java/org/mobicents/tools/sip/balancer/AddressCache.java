@@ -0,0 +1,247 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2017, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.tools.sip.balancer;
+
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.security.Security;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Bounded cache of the hosts seen in SIP messages, with the address they resolve to and how they
+ * relate to the load balancer : address family and whether they are one of our own listening
+ * addresses on the external or internal leg. Literal addresses never need DNS and stay until the
+ * cache is cleared, host names are kept for the JVM DNS TTL and failed lookups for the negative TTL,
+ * so a slow resolver is only hit once per host and TTL instead of once per message.
+ */
+
+public class AddressCache {
+	private static final Logger logger = Logger.getLogger(AddressCache.class.getCanonicalName());
+
+	public static final int DEFAULT_MAX_ENTRIES = 10000;
+	public static final long DEFAULT_TTL = 30000;
+	public static final long DEFAULT_NEGATIVE_TTL = 10000;
+
+	public static final int EXTERNAL_HOST = 1;
+	public static final int INTERNAL_HOST = 2;
+	public static final int EXTERNAL_LOAD_BALANCER_ADDRESS = 4;
+	public static final int INTERNAL_LOAD_BALANCER_ADDRESS = 8;
+	public static final int PUBLIC_IP = 16;
+
+	private final BalancerContext balancerContext;
+	private final ConcurrentHashMap<String, ResolvedAddress> addresses = new ConcurrentHashMap<String, ResolvedAddress>(256, 0.75f, 64);
+	private final int maxEntries;
+	private final long ttl;
+	private final long negativeTtl;
+
+	public AddressCache(BalancerContext balancerContext) {
+		this(balancerContext, DEFAULT_MAX_ENTRIES,
+				getSecurityTtl("networkaddress.cache.ttl", DEFAULT_TTL),
+				getSecurityTtl("networkaddress.cache.negative.ttl", DEFAULT_NEGATIVE_TTL));
+	}
+
+	public AddressCache(BalancerContext balancerContext, int maxEntries, long ttl, long negativeTtl) {
+		this.balancerContext = balancerContext;
+		this.maxEntries = maxEntries;
+		this.ttl = ttl;
+		this.negativeTtl = negativeTtl;
+	}
+
+	/**
+	 * @return the cached resolution of the host, never null. Brackets around an IPv6 literal are ignored
+	 */
+	public ResolvedAddress resolve(String host) {
+		ResolvedAddress resolved = addresses.get(host);
+		if(resolved != null && resolved.expires > System.currentTimeMillis())
+			return resolved;
+
+		String cleanHost = host;
+		if(cleanHost.startsWith("[") && cleanHost.endsWith("]"))
+			cleanHost = cleanHost.substring(1, cleanHost.length() - 1);
+		boolean literal = !hasLetters(cleanHost) || cleanHost.indexOf(':') >= 0;
+		InetAddress address = null;
+		try {
+			address = InetAddress.getByName(cleanHost);
+		} catch (UnknownHostException e) {
+			if(logger.isDebugEnabled())
+				logger.debug("Unable to resolve " + host + " : " + e.getMessage());
+		}
+		long expires;
+		if(address == null)
+			expires = System.currentTimeMillis() + negativeTtl;
+		else if(literal)
+			expires = Long.MAX_VALUE;
+		else
+			expires = System.currentTimeMillis() + ttl;
+
+		resolved = new ResolvedAddress(host, address, classify(host, address), expires);
+		if(addresses.size() >= maxEntries)
+			evict(addresses);
+		addresses.put(host, resolved);
+		return resolved;
+	}
+
+	/**
+	 * Same as InetAddress.getByName but served from the cache
+	 */
+	public InetAddress getAddress(String host) throws UnknownHostException {
+		ResolvedAddress resolved = resolve(host);
+		if(resolved.address == null)
+			throw new UnknownHostException(host);
+		return resolved.address;
+	}
+
+	public boolean isIpv6(String host) {
+		return resolve(host).isIpv6();
+	}
+
+	/**
+	 * @return whether the host matches a routing rule which is not a patch rule, in the IPv4 or IPv6 rules
+	 */
+	public boolean matchesRoutingRule(String host, boolean isIpv6) {
+		RoutingRuleSet rules = isIpv6 ? balancerContext.routingRuleSetIpv6 : balancerContext.routingRuleSetIpv4;
+		return rules.matches(host);
+	}
+
+	/**
+	 * Forgets every cached entry, called once the load balancer addresses are known since the
+	 * classification of an address depends on them
+	 */
+	public void clear() {
+		addresses.clear();
+	}
+
+	public int size() {
+		return addresses.size();
+	}
+
+	/**
+	 * Cheap replacement of host.matches(".*[a-zA-Z]+.*") used to tell host names from IPv4 addresses
+	 */
+	public static boolean hasLetters(String host) {
+		for(int i = 0; i < host.length(); i++) {
+			char c = host.charAt(i);
+			if((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z'))
+				return true;
+		}
+		return false;
+	}
+
+	private int classify(String host, InetAddress address) {
+		BalancerContext ctx = balancerContext;
+		int leg = 0;
+		if(address instanceof Inet6Address) {
+			if(address.equals(ctx.externalIpv6HostAddress))
+				leg |= EXTERNAL_HOST;
+			if(address.equals(ctx.internalIpv6HostAddress))
+				leg |= INTERNAL_HOST;
+			if(ctx.externalIpv6LoadBalancerAddressHosts != null && ctx.externalIpv6LoadBalancerAddressHosts.contains(address))
+				leg |= EXTERNAL_LOAD_BALANCER_ADDRESS;
+			if(ctx.internalIpv6LoadBalancerAddressHosts != null && ctx.internalIpv6LoadBalancerAddressHosts.contains(address))
+				leg |= INTERNAL_LOAD_BALANCER_ADDRESS;
+			if(address.equals(ctx.publicIPv6Host))
+				leg |= PUBLIC_IP;
+		} else {
+			if(host.equalsIgnoreCase(ctx.externalHost))
+				leg |= EXTERNAL_HOST;
+			if(host.equalsIgnoreCase(ctx.internalHost))
+				leg |= INTERNAL_HOST;
+			if(ctx.externalIpLoadBalancerAddresses != null && ctx.externalIpLoadBalancerAddresses.contains(host))
+				leg |= EXTERNAL_LOAD_BALANCER_ADDRESS;
+			if(ctx.internalIpLoadBalancerAddresses != null && ctx.internalIpLoadBalancerAddresses.contains(host))
+				leg |= INTERNAL_LOAD_BALANCER_ADDRESS;
+			if(host.equalsIgnoreCase(ctx.publicIP))
+				leg |= PUBLIC_IP;
+		}
+		return leg;
+	}
+
+	/**
+	 * Drops the expired entries, then about a quarter of the others if the cache is still full
+	 */
+	private void evict(ConcurrentHashMap<String, ResolvedAddress> map) {
+		long now = System.currentTimeMillis();
+		for(Iterator<ResolvedAddress> it = map.values().iterator(); it.hasNext();) {
+			if(it.next().expires <= now)
+				it.remove();
+		}
+		int toRemove = map.size() - maxEntries * 3 / 4;
+		for(Iterator<ResolvedAddress> it = map.values().iterator(); it.hasNext() && toRemove > 0; toRemove--) {
+			it.next();
+			it.remove();
+		}
+	}
+
+	private static long getSecurityTtl(String property, long defaultTtl) {
+		try {
+			String value = Security.getProperty(property);
+			if(value != null) {
+				long seconds = Long.parseLong(value.trim());
+				// 0 or less means no caching or caching forever, keep our default in both cases
+				if(seconds > 0)
+					return seconds * 1000;
+			}
+		} catch (Exception e) {
+			// invalid or not readable, use the default
+		}
+		return defaultTtl;
+	}
+
+	public static class ResolvedAddress {
+		private final String host;
+		private final InetAddress address;
+		private final int leg;
+		private final long expires;
+
+		ResolvedAddress(String host, InetAddress address, int leg, long expires) {
+			this.host = host;
+			this.address = address;
+			this.leg = leg;
+			this.expires = expires;
+		}
+
+		public String getHost() {
+			return host;
+		}
+
+		/**
+		 * @return the address or null if the host could not be resolved
+		 */
+		public InetAddress getAddress() {
+			return address;
+		}
+
+		public boolean isIpv6() {
+			return address instanceof Inet6Address;
+		}
+
+		/**
+		 * @param leg one of the EXTERNAL_HOST, INTERNAL_HOST... constants
+		 * @return whether the address is the given load balancer address
+		 */
+		public boolean is(int leg) {
+			return (this.leg & leg) != 0;
+		}
+	}
+}
@@ -0,0 +1,356 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2017, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.tools.sip.balancer;
+
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.mobicents.tools.heartbeat.api.Node;
+
+/**
+ * Affinity map from a key (Call-ID, user...) to the node serving it, where every entry expires
+ * after being idle for the configured time. Each entry keeps its own deadline and sits in one
+ * bucket of a hashed timing wheel, so {@link #expire(long)} only visits the entries whose bucket
+ * is due instead of scanning the whole table. Touching an entry only moves its deadline forward,
+ * the entry is moved to its new bucket when the old one comes due. The entries of each node are
+ * indexed and counted as entries are added, moved and removed, so counting the calls of a node or
+ * moving them to another node only touches the entries of that node.
+ */
+
+public class AffinityTable {
+
+	public static final long DEFAULT_TICK_DURATION = 1000;
+	public static final int DEFAULT_WHEEL_SIZE = 512;
+	private static final int CONCURRENCY_LEVEL = 64;
+
+	private final ConcurrentHashMap<String, AffinityEntry> entries = new ConcurrentHashMap<String, AffinityEntry>(1024, 0.75f, CONCURRENCY_LEVEL);
+	private final ConcurrentHashMap<Node, NodeEntries> nodeEntries = new ConcurrentHashMap<Node, NodeEntries>();
+	private final ConcurrentLinkedQueue<AffinityEntry>[] wheel;
+	private final int mask;
+	private final long tickDuration;
+	private volatile long idleTime;
+	private long lastTick = -1;
+
+	public AffinityTable(long idleTime) {
+		this(idleTime, DEFAULT_TICK_DURATION, DEFAULT_WHEEL_SIZE);
+	}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public AffinityTable(long idleTime, long tickDuration, int wheelSize) {
+		if(tickDuration <= 0)
+			throw new IllegalArgumentException("Tick duration must be positive : " + tickDuration);
+		if(wheelSize <= 0 || (wheelSize & (wheelSize - 1)) != 0)
+			throw new IllegalArgumentException("Wheel size must be a power of two : " + wheelSize);
+		this.idleTime = idleTime;
+		this.tickDuration = tickDuration;
+		this.mask = wheelSize - 1;
+		this.wheel = new ConcurrentLinkedQueue[wheelSize];
+		for(int i = 0; i < wheelSize; i++)
+			wheel[i] = new ConcurrentLinkedQueue<AffinityEntry>();
+	}
+
+	public long getIdleTime() {
+		return idleTime;
+	}
+
+	/**
+	 * New idle time applies to entries put or touched from now on
+	 */
+	public void setIdleTime(long idleTime) {
+		this.idleTime = idleTime;
+	}
+
+	public long getTickDuration() {
+		return tickDuration;
+	}
+
+	public Node get(String key) {
+		AffinityEntry entry = entries.get(key);
+		if(entry == null)
+			return null;
+		return entry.node;
+	}
+
+	/**
+	 * Same as {@link #get(String)} but also pushes the deadline of an existing entry
+	 */
+	public Node getAndTouch(String key) {
+		AffinityEntry entry = entries.get(key);
+		if(entry == null)
+			return null;
+		synchronized (entry) {
+			// evicted meanwhile, the touch came too late
+			if(entry.removed)
+				return null;
+			entry.deadline = System.currentTimeMillis() + idleTime;
+			return entry.node;
+		}
+	}
+
+	public void put(String key, Node node) {
+		long deadline = System.currentTimeMillis() + idleTime;
+		AffinityEntry entry = entries.get(key);
+		while(true) {
+			if(entry != null) {
+				synchronized (entry) {
+					// an entry removed meanwhile is replaced by a new one
+					if(!entry.removed) {
+						move(entry, node);
+						entry.deadline = deadline;
+						return;
+					}
+				}
+			}
+			AffinityEntry newEntry = new AffinityEntry(key, node, deadline);
+			// locked until indexed so a concurrent put can't move it before
+			synchronized (newEntry) {
+				entry = entries.putIfAbsent(key, newEntry);
+				if(entry == null) {
+					index(newEntry, node);
+					schedule(newEntry);
+					return;
+				}
+			}
+		}
+	}
+
+	public Node remove(String key) {
+		AffinityEntry entry = entries.remove(key);
+		if(entry == null)
+			return null;
+		return removed(entry);
+	}
+
+	public boolean containsKey(String key) {
+		return entries.containsKey(key);
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return the number of entries pointing to the node
+	 */
+	public int count(Node node) {
+		NodeEntries indexed = nodeEntries.get(node);
+		return indexed == null ? 0 : indexed.count.get();
+	}
+
+	/**
+	 * @return the nodes with at least one entry
+	 */
+	public Collection<Node> nodes() {
+		ArrayList<Node> nodes = new ArrayList<Node>();
+		for(Entry<Node, NodeEntries> indexed : nodeEntries.entrySet()) {
+			if(indexed.getValue().count.get() > 0)
+				nodes.add(indexed.getKey());
+		}
+		return nodes;
+	}
+
+	/**
+	 * @return the keys of the entries pointing to the node
+	 */
+	public Collection<String> keys(Node node) {
+		ArrayList<String> keys = new ArrayList<String>();
+		NodeEntries indexed = nodeEntries.get(node);
+		if(indexed != null) {
+			for(AffinityEntry entry : indexed.entries)
+				keys.add(entry.key);
+		}
+		return keys;
+	}
+
+	public void clear() {
+		for(AffinityEntry entry : entries.values()) {
+			if(entries.remove(entry.key, entry))
+				removed(entry);
+		}
+		for(ConcurrentLinkedQueue<AffinityEntry> bucket : wheel)
+			bucket.clear();
+	}
+
+	/**
+	 * Moves every entry pointing to oldNode to newNode
+	 * @return the number of updated entries
+	 */
+	public int replaceNode(Node oldNode, Node newNode) {
+		NodeEntries indexed = nodeEntries.get(oldNode);
+		if(indexed == null)
+			return 0;
+		int updated = 0;
+		for(AffinityEntry entry : new ArrayList<AffinityEntry>(indexed.entries)) {
+			synchronized (entry) {
+				if(!entry.removed && entry.node.equals(oldNode)) {
+					move(entry, newNode);
+					updated++;
+				}
+			}
+		}
+		return updated;
+	}
+
+	/**
+	 * Live view over the nodes of all entries, used to compute the node utilization
+	 */
+	public Collection<Node> values() {
+		return new AbstractCollection<Node>() {
+			public Iterator<Node> iterator() {
+				final Iterator<AffinityEntry> it = entries.values().iterator();
+				return new Iterator<Node>() {
+					private AffinityEntry last;
+					public boolean hasNext() {
+						return it.hasNext();
+					}
+					public Node next() {
+						last = it.next();
+						return last.node;
+					}
+					public void remove() {
+						if(last == null)
+							throw new IllegalStateException();
+						if(entries.remove(last.key, last))
+							removed(last);
+						last = null;
+					}
+				};
+			}
+			public int size() {
+				return entries.size();
+			}
+		};
+	}
+
+	/**
+	 * Advances the wheel up to the given time and evicts the entries idle past their deadline.
+	 * Entries touched since they were scheduled are moved to the bucket of their new deadline.
+	 * Called from a single timer thread.
+	 * @return the number of evicted entries
+	 */
+	public synchronized int expire(long now) {
+		long currentTick = now / tickDuration;
+		if(lastTick < 0 || currentTick - lastTick > mask + 1)
+			lastTick = currentTick - mask - 1;
+
+		int evicted = 0;
+		ArrayList<AffinityEntry> rescheduled = new ArrayList<AffinityEntry>();
+		// a tick is processed once it is fully in the past, so every deadline in its bucket has passed
+		while(lastTick < currentTick) {
+			ConcurrentLinkedQueue<AffinityEntry> bucket = wheel[(int) (lastTick & mask)];
+			AffinityEntry entry;
+			while((entry = bucket.poll()) != null) {
+				// the deadline is checked under the lock of the entry so a concurrent put or touch is not lost
+				synchronized (entry) {
+					if(entry.removed || entries.get(entry.key) != entry)
+						continue;
+					if(entry.deadline <= now) {
+						if(entries.remove(entry.key, entry)) {
+							removed(entry);
+							evicted++;
+						}
+					} else {
+						rescheduled.add(entry);
+					}
+				}
+			}
+			for(AffinityEntry pending : rescheduled)
+				schedule(pending);
+			rescheduled.clear();
+			lastTick++;
+		}
+		return evicted;
+	}
+
+	/**
+	 * Adds the entry to the index of the node, called holding the lock of the entry
+	 */
+	private void index(AffinityEntry entry, Node node) {
+		NodeEntries indexed = nodeEntries.get(node);
+		if(indexed == null) {
+			NodeEntries created = new NodeEntries();
+			indexed = nodeEntries.putIfAbsent(node, created);
+			if(indexed == null)
+				indexed = created;
+		}
+		if(indexed.entries.add(entry))
+			indexed.count.incrementAndGet();
+	}
+
+	private void unindex(AffinityEntry entry, Node node) {
+		NodeEntries indexed = nodeEntries.get(node);
+		if(indexed != null && indexed.entries.remove(entry))
+			indexed.count.decrementAndGet();
+	}
+
+	/**
+	 * Points the entry to another node, called holding the lock of the entry
+	 */
+	private void move(AffinityEntry entry, Node node) {
+		Node oldNode = entry.node;
+		entry.node = node;
+		if(!oldNode.equals(node)) {
+			unindex(entry, oldNode);
+			index(entry, node);
+		}
+	}
+
+	/**
+	 * Unindexes an entry once it has been removed from the map
+	 * @return the node of the entry
+	 */
+	private Node removed(AffinityEntry entry) {
+		synchronized (entry) {
+			entry.removed = true;
+			unindex(entry, entry.node);
+			return entry.node;
+		}
+	}
+
+	private void schedule(AffinityEntry entry) {
+		wheel[(int) ((entry.deadline / tickDuration) & mask)].offer(entry);
+	}
+
+	private static class NodeEntries {
+		final Set<AffinityEntry> entries = Collections.newSetFromMap(new ConcurrentHashMap<AffinityEntry, Boolean>());
+		final AtomicInteger count = new AtomicInteger();
+	}
+
+	private static class AffinityEntry {
+		final String key;
+		volatile Node node;
+		volatile long deadline;
+		boolean removed;
+
+		AffinityEntry(String key, Node node, long deadline) {
+			this.key = key;
+			this.node = node;
+			this.deadline = deadline;
+		}
+	}
+}
@@ -22,6 +22,8 @@
 
 package org.mobicents.tools.sip.balancer;
 
+import java.util.List;
+
 import javax.sip.message.Request;
 import javax.sip.message.Response;
 
@@ -96,6 +98,14 @@ public interface BalancerAlgorithm {
 	 */
 	void nodeAdded(Node node);
 	
+	/**
+	 * Notify the algorithm once for all the membership changes of a new topology version,
+	 * the removed nodes are applied before the added ones.
+	 * @param removed
+	 * @param added
+	 */
+	void nodesChanged(List<Node> removed, List<Node> added);
+	
 	/**
 	 * Get the properties used to load the load balancer. This way you can read algorithm-specific settings
 	 * from the main configuration file - the lb.properties.
@@ -27,7 +27,6 @@ import gov.nist.javax.sip.SipStackImpl;
 
 import java.net.InetAddress;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -51,16 +50,18 @@ import com.cloudhopper.smpp.SmppConstants;
 
 public class BalancerContext {
 	
-	/* We will store here all nodes we ever saw because we will need the addresses to determine the
+	/* We will index here the alive and the recently dead nodes because we will need the addresses to determine the
 	 *  direction of requests where a dead node is involved. Otherwise if a node has died its address
 	 *  will be recognized as client address which is wrong. This only affects config with single port SIP LB.
 	 *  If internalPort is set there is no problem because we use other means to determine the direction.
 	 */
 	
-	public HashSet<Node> allNodesEver = new HashSet<Node>();
+	public NodeEndpointIndex nodeEndpoints = new NodeEndpointIndex();
 	public CopyOnWriteArrayList<Node> aliveNodes = null;
 	public ConcurrentHashMap<String, Node> jvmRouteToSipNode;
 	public ConcurrentHashMap<String, KeySip> regexMap;
+	// compiled from regexMap each time it changes
+	public volatile RegexRoutes regexRoutes = RegexRoutes.EMPTY;
 	public String algorithmClassName;
 	public String smppToNodeAlgorithmClassName;
 	public String smppToProviderAlgorithmClassName;
@@ -90,6 +91,9 @@ public class BalancerContext {
 	public Long maxResponseTime;
 	public ArrayList <RoutingRule> routingRulesIpv4;
 	public ArrayList <RoutingRule> routingRulesIpv6;
+	// compiled from the routing rules each time they are loaded
+	public volatile RoutingRuleSet routingRuleSetIpv4 = RoutingRuleSet.EMPTY;
+	public volatile RoutingRuleSet routingRuleSetIpv6 = RoutingRuleSet.EMPTY;
 	
 	public Object parameters;
 	
@@ -154,6 +158,8 @@ public class BalancerContext {
 	
 	public InetAddress publicIPv6Host;
 	
+	public AddressCache addressCache = new AddressCache(this);
+	
 	public ArrayList<String> blockedList;
 	
 	public AddressFactory addressFactory;
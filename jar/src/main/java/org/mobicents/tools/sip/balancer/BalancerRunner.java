@@ -99,8 +99,14 @@ public class BalancerRunner implements BalancerRunnerMBean {
 		if(version == null) version = "0";
 		InvocationContext ct = contexts.get(version);
 		if(ct==null) {
-			ct = new InvocationContext(version, balancerContext);
-			contexts.put(version, ct);
+			// nodes of the same version may register concurrently, only one of them creates the context
+			synchronized (contexts) {
+				ct = contexts.get(version);
+				if(ct==null) {
+					ct = new InvocationContext(version, balancerContext);
+					contexts.put(version, ct);
+				}
+			}
 		}
 		return ct;
 	}
@@ -282,6 +288,11 @@ public class BalancerRunner implements BalancerRunnerMBean {
 							ctx.smppToProviderBalancerAlgorithm.configurationChanged();
 							smppBalancerRunner.remoteServersUpdated();
 						}
+						// the routing rules are compiled once here and swapped in for the next messages
+						balancerContext.routingRulesIpv4 = balancerContext.lbConfig.getSipConfiguration().getRoutingRulesIpv4();
+						balancerContext.routingRulesIpv6 = balancerContext.lbConfig.getSipConfiguration().getRoutingRulesIpv6();
+						balancerContext.routingRuleSetIpv4 = new RoutingRuleSet(balancerContext.routingRulesIpv4);
+						balancerContext.routingRuleSetIpv6 = new RoutingRuleSet(balancerContext.routingRulesIpv6);
 					} catch (Exception e) {
 						logger.warn("Problem reloading configuration " + e);
 					} 
@@ -40,15 +40,16 @@ public interface BalancerRunnerMBean {
 	void stop();
 	
 	/**
-	 * Sets interval between runs of task that removes nodes that expired.
+	 * Sets the heartbeat interval of the nodes. Nodes are removed at their own deadline, so this value
+	 * no longer delays the removal of expired nodes.
 	 * @param value
 	 */
 	void setNodeExpirationTaskInterval(long value);
 	long getNodeExpirationTaskInterval();
 	
 	/**
-	 * Sets value which indicates when node has expired. if node.timeStamp+nodeExpiration<System.currentTimeMilis than node has expired and on next
-	 * run of nodeExpirationTask will be removed.
+	 * Sets value which indicates when node has expired. if node.timeStamp+nodeExpiration<System.currentTimeMilis than node has expired and
+	 * is removed at once.
 	 * @param value
 	 */
 	void setNodeExpiration(long value);
@@ -26,13 +26,8 @@ import gov.nist.javax.sip.header.SIPHeader;
 import gov.nist.javax.sip.header.Via;
 import gov.nist.javax.sip.message.ResponseExt;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map.Entry;
 import java.util.Timer;
 import java.util.TimerTask;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
@@ -46,8 +41,7 @@ public class CallIDAffinityBalancerAlgorithm extends DefaultBalancerAlgorithm {
 	private static Logger logger = Logger.getLogger(CallIDAffinityBalancerAlgorithm.class.getCanonicalName());
 	
 	protected String headerName = "Call-ID";
-	protected ConcurrentHashMap<String, Node> callIdMap = new ConcurrentHashMap<String, Node>();
-	protected ConcurrentHashMap<String, Long> callIdTimestamps = new ConcurrentHashMap<String, Long>();
+	protected AffinityTable callIdMap = new AffinityTable(1000L*500);
 	protected AtomicInteger nextNodeCounter = new AtomicInteger(0);
 	protected int maxCallIdleTime = 500;
 	protected boolean groupedFailover = false;
@@ -101,9 +95,8 @@ public class CallIDAffinityBalancerAlgorithm extends DefaultBalancerAlgorithm {
 			//if(node == null || !invocationContext.nodes.contains(node)) {
 			if(node == null || !invocationContext.sipNodeMap(isIpV6).containsValue(node)) {
 				node = selectNewNode(node, callId, isIpV6);
-				String transportProperty = transport + "Port";
-				port = Integer.parseInt(node.getProperties().get(transportProperty));
-				if(port == null) throw new RuntimeException("No transport found for node " + node + " " + transportProperty);
+				port = node.getPort(transport);
+				if(port == null) throw new RuntimeException("No transport found for node " + node + " " + transport + "Port");
 				if(logger.isDebugEnabled()) {
 					logger.debug("changing via " + via + "setting new values " + node.getIp() + ":" + port);
 				}
@@ -150,9 +143,8 @@ public class CallIDAffinityBalancerAlgorithm extends DefaultBalancerAlgorithm {
 			//if(node == null || !invocationContext.nodes.contains(node)) {
 			if(node == null || !invocationContext.sipNodeMap(isIpV6).containsValue(node)) {
 				node = selectNewNode(node, callId, isIpV6);
-				String transportProperty = transport + "Port";
-				port = Integer.parseInt(node.getProperties().get(transportProperty));
-				if(port == null) throw new RuntimeException("No transport found for node " + node + " " + transportProperty);
+				port = node.getPort(transport);
+				if(port == null) throw new RuntimeException("No transport found for node " + node + " " + transport + "Port");
 				if(logger.isDebugEnabled()) {
 					logger.debug("changing via " + via + "setting new values " + node.getIp() + ":" + port);
 				}
@@ -168,8 +160,7 @@ public class CallIDAffinityBalancerAlgorithm extends DefaultBalancerAlgorithm {
 				}
 				
 			} else {
-				String transportProperty = transport + "Port";
-				port = Integer.parseInt(node.getProperties().get(transportProperty));
+				port = node.getPort(transport);
 				if(via.getHost().equalsIgnoreCase(node.getIp()) || via.getPort() != port) {
 					if(logger.isDebugEnabled()) {
 						logger.debug("changing retransmission via " + via + "setting new values " + node.getIp() + ":" + port);
@@ -195,8 +186,7 @@ public class CallIDAffinityBalancerAlgorithm extends DefaultBalancerAlgorithm {
 		String callId = ((SIPHeader) request.getHeader(headerName))
 		.getValue();
 		Node node;
-		node = callIdMap.get(callId);
-		callIdTimestamps.put(callId, System.currentTimeMillis());
+		node = callIdMap.getAndTouch(callId);
 
 		if(node == null) { //
 			if(lbConfig.getSipConfiguration().getTrafficRampupCyclePeriod()!=null&&lbConfig.getSipConfiguration().getMaxWeightIndex()!=null)
@@ -263,67 +253,16 @@ public class CallIDAffinityBalancerAlgorithm extends DefaultBalancerAlgorithm {
 		return node;
 	}
 	
-	protected synchronized Node nextAvailableNode(Boolean isIpV6) {
-
-		if(invocationContext.sipNodeMap(isIpV6).size() == 0) return null;
-		Iterator<Entry<KeySip, Node>> currIt = null; 
-		if(isIpV6)
-			currIt = ipv6It;
-		else
-			currIt = ipv4It;
-		if(currIt==null)
-			{
-			currIt = invocationContext.sipNodeMap(isIpV6).entrySet().iterator();
-			if(isIpV6)
-				ipv6It = currIt;
-			else
-				ipv4It = currIt;
-			}
-		Entry<KeySip, Node> pair = null;
-		int count = invocationContext.sipNodeMap(isIpV6).size();
-		while(count>0)
-		{
-			while(currIt.hasNext() && count > 0)
-			{
-				pair = currIt.next();
-				if(invocationContext.sipNodeMap(isIpV6).containsKey(pair.getKey())
-						&&!invocationContext.sipNodeMap(isIpV6).get(pair.getKey()).isGracefulShutdown()
-						&&!invocationContext.sipNodeMap(isIpV6).get(pair.getKey()).isBad())
-				{
-					return pair.getValue();
-				}
-				else
-				{
-					count--;
-				}
-			}
-			
-			if(!currIt.hasNext())
-				currIt = invocationContext.sipNodeMap(isIpV6).entrySet().iterator();
-			
-			if(isIpV6)
-				 ipv6It = currIt;
-			else
-				 ipv4It = currIt;
-		}
-		return null;
+	protected Node nextAvailableNode(Boolean isIpV6) {
+		return invocationContext.getRoutingTable().nextAvailableNode(isIpV6);
 	}
 	
-	protected synchronized Node leastBusyTargetNode(Node deadNode) {
-		HashMap<Node, Integer> nodeUtilization = new HashMap<Node, Integer>();
-		for(Node node : callIdMap.values()) {
-			Integer n = nodeUtilization.get(node);
-			if(n == null) {
-				nodeUtilization.put(node, 0);
-			} else {
-				nodeUtilization.put(node, n+1);
-			}
-		}
-		
+	protected Node leastBusyTargetNode(Node deadNode) {
 		int minUtil = Integer.MAX_VALUE;
 		Node minUtilNode = null;
-		for(Node node : nodeUtilization.keySet()) {
-			Integer util = nodeUtilization.get(node);
+		// the calls of each node are counted by the affinity map
+		for(Node node : callIdMap.nodes()) {
+			int util = callIdMap.count(node);
 			if(!node.equals(deadNode) && (util < minUtil)) {
 				minUtil = util;
 				minUtilNode = node;
@@ -348,36 +287,23 @@ public class CallIDAffinityBalancerAlgorithm extends DefaultBalancerAlgorithm {
 			}
 		}
 		logger.info("Call Idle Time is " + this.maxCallIdleTime + " seconds. Inactive calls will be evicted.");
+		callIdMap.setIdleTime(1000L*maxCallIdleTime);
 
-		final CallIDAffinityBalancerAlgorithm thisAlgorithm = this;
 		this.cacheEvictionTimer.schedule(new TimerTask() {
 
 			@Override
 			public void run() {
 				try {
-					synchronized (thisAlgorithm) {
-						ArrayList<String> oldCalls = new ArrayList<String>();
-						Iterator<String> keys = callIdTimestamps.keySet().iterator();
-						while(keys.hasNext()) {
-							String key = keys.next();
-							long time = callIdTimestamps.get(key);
-							if(System.currentTimeMillis() - time > 1000*maxCallIdleTime) {
-								oldCalls.add(key);
-							}
-						}
-						for(String key : oldCalls) {
-							callIdMap.remove(key);
-							callIdTimestamps.remove(key);
-						}
-						if(oldCalls.size()>0) {
-							logger.info("Reaping idle calls... Evicted " + oldCalls.size() + " calls.");
-						}}
+					int evicted = callIdMap.expire(System.currentTimeMillis());
+					if(evicted>0 && logger.isDebugEnabled()) {
+						logger.debug("Reaping idle calls... Evicted " + evicted + " calls.");
+					}
 				} catch (Exception e) {
 					logger.warn("Failed to clean up old calls. If you continue to se this message frequestly and the memory is growing, report this problem.", e);
 				}
 
 			}
-		}, 0, 6000);
+		}, 0, callIdMap.getTickDuration());
 
 		if(getConfiguration() != null) {
 			this.groupedFailover = getConfiguration().getSipConfiguration().getAlgorithmConfiguration().isCallIdAffinityGroupFailover();
@@ -385,6 +311,7 @@ public class CallIDAffinityBalancerAlgorithm extends DefaultBalancerAlgorithm {
 		logger.info("Grouped failover is set to " + this.groupedFailover);
 	}
 	public void configurationChanged() {
+		super.configurationChanged();
 		this.cacheEvictionTimer.cancel();
 		this.cacheEvictionTimer = new Timer();
 		init();
@@ -392,7 +319,6 @@ public class CallIDAffinityBalancerAlgorithm extends DefaultBalancerAlgorithm {
 	
 	public void assignToNode(String id, Node node) {
 		callIdMap.put(id, node);
-		callIdTimestamps.put(id, System.currentTimeMillis());
 	}
 
 	@Override
@@ -401,14 +327,7 @@ public class CallIDAffinityBalancerAlgorithm extends DefaultBalancerAlgorithm {
 			Node oldNode = getBalancerContext().jvmRouteToSipNode.get(fromJvmRoute);
 			Node newNode = getBalancerContext().jvmRouteToSipNode.get(toJvmRoute);
 			if(oldNode != null && newNode != null) {
-				int updatedRoutes = 0;
-				for(String key : callIdMap.keySet()) {
-					Node n = callIdMap.get(key);
-					if(n.equals(oldNode)) {
-						callIdMap.replace(key, newNode);
-						updatedRoutes++;
-					}
-				}
+				int updatedRoutes = callIdMap.replaceNode(oldNode, newNode);
 				if(logger.isInfoEnabled()) {
 					logger.info("Switchover occured where fromJvmRoute=" + fromJvmRoute + " and toJvmRoute=" + toJvmRoute + " with " + 
 							updatedRoutes + " updated routes.");
@@ -429,14 +348,7 @@ public class CallIDAffinityBalancerAlgorithm extends DefaultBalancerAlgorithm {
 	synchronized public void groupedFailover(Node oldNode, Node newNode) {
 		try {
 			if(oldNode != null && newNode != null) {
-				int updatedRoutes = 0;
-				for(String key : callIdMap.keySet()) {
-					Node n = callIdMap.get(key);
-					if(n.equals(oldNode)) {
-						callIdMap.replace(key, newNode);
-						updatedRoutes++;
-					}
-				}
+				int updatedRoutes = callIdMap.replaceNode(oldNode, newNode);
 				if(logger.isInfoEnabled()) {
 					logger.info("Switchover occured where oldNode=" + oldNode + " and newNode=" + newNode + " with " + 
 							updatedRoutes + " updated routes.");
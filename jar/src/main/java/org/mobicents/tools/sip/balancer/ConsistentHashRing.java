@@ -0,0 +1,160 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2017, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.tools.sip.balancer;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import org.mobicents.tools.heartbeat.api.Node;
+
+/**
+ * Immutable Ketama style hash ring. Every node is placed on the ring at several points
+ * (virtual nodes) taken from the MD5 of its description, the points are kept in a sorted
+ * array and a key is owned by the first point clockwise from its hash, found by binary search.
+ * The ring is built once per membership change and then shared by all threads without locking.
+ */
+
+public class ConsistentHashRing {
+
+	public static final ConsistentHashRing EMPTY = new ConsistentHashRing(new long[0], new Node[0], new Node[0]);
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final long[] points;
+	private final Node[] owners;
+	private final Node[] nodes;
+
+	private ConsistentHashRing(long[] points, Node[] owners, Node[] nodes) {
+		this.points = points;
+		this.owners = owners;
+		this.nodes = nodes;
+	}
+
+	/**
+	 * Builds the ring for the given nodes. Two load balancers given the same nodes build the same ring,
+	 * whatever the order the nodes were registered in.
+	 */
+	public static ConsistentHashRing build(Collection<Node> members, int virtualNodes) {
+		if(members.isEmpty())
+			return EMPTY;
+		MessageDigest md5;
+		try {
+			md5 = MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException("MD5 is not available", e);
+		}
+		// each digest gives four points
+		int digests = Math.max(1, (virtualNodes + 3) / 4);
+		TreeMap<Long, Node> ring = new TreeMap<Long, Node>();
+		for(Node node : members) {
+			String description = node.toStringWithoutJvmroute();
+			for(int i = 0; i < digests; i++) {
+				byte[] digest = md5.digest((description + "-" + i).getBytes(UTF8));
+				for(int h = 0; h < 4; h++) {
+					long point = ((long) (digest[3 + h * 4] & 0xFF) << 24)
+							| ((long) (digest[2 + h * 4] & 0xFF) << 16)
+							| ((long) (digest[1 + h * 4] & 0xFF) << 8)
+							| (digest[h * 4] & 0xFF);
+					Node current = ring.get(point);
+					// on a collision keep the same owner on every load balancer
+					if(current == null || node.compareTo(current) < 0)
+						ring.put(point, node);
+				}
+			}
+		}
+		long[] points = new long[ring.size()];
+		Node[] owners = new Node[ring.size()];
+		int i = 0;
+		for(Entry<Long, Node> entry : ring.entrySet()) {
+			points[i] = entry.getKey();
+			owners[i] = entry.getValue();
+			i++;
+		}
+		Node[] nodes = members.toArray(new Node[members.size()]);
+		Arrays.sort(nodes);
+		return new ConsistentHashRing(points, owners, nodes);
+	}
+
+	/**
+	 * Allocation free hash of a key into the ring space. It only depends on String.hashCode
+	 * so it is the same on every load balancer
+	 */
+	public static long hash(String key) {
+		int h = key.hashCode();
+		// murmur3 finalizer, spreads the String hash over all 32 bits
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h & 0xFFFFFFFFL;
+	}
+
+	public Node get(String key) {
+		if(points.length == 0)
+			return null;
+		return owners[index(hash(key))];
+	}
+
+	/**
+	 * @return the position of the first point at or after the hash, wrapping around the ring
+	 */
+	public int index(long hash) {
+		int index = Arrays.binarySearch(points, hash);
+		if(index < 0)
+			index = -index - 1;
+		if(index == points.length)
+			index = 0;
+		return index;
+	}
+
+	public boolean isEmpty() {
+		return nodes.length == 0;
+	}
+
+	/**
+	 * @return the number of points on the ring
+	 */
+	public int size() {
+		return points.length;
+	}
+
+	/**
+	 * @return the owner of a point, the positions wrap around the ring
+	 */
+	public Node getOwner(int index) {
+		return owners[index % owners.length];
+	}
+
+	/**
+	 * @return the distinct nodes of the ring in their natural order
+	 */
+	public Node[] getNodes() {
+		return nodes;
+	}
+
+	public int getNumberOfPoints() {
+		return points.length;
+	}
+}
@@ -22,18 +22,12 @@
 
 package org.mobicents.tools.sip.balancer;
 
-import java.net.Inet6Address;
-import java.net.InetAddress;
-import java.net.UnknownHostException;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Set;
-import java.util.concurrent.Semaphore;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
 
 import javax.sip.message.Request;
 import javax.sip.message.Response;
@@ -56,15 +50,9 @@ public abstract class DefaultBalancerAlgorithm implements BalancerAlgorithm {
 	protected InvocationContext invocationContext;
 	protected Iterator<Entry<KeySip, Node>> ipv4It = null;
 	protected Iterator<Entry<KeySip, Node>> ipv6It = null;
-	protected Iterator<Node> httpRequestIterator = null;
 	protected LoadBalancerConfiguration lbConfig; 
-	protected ArrayList <Node> cycleListIpV4 = new ArrayList<Node>();
-	protected ArrayList <Node> cycleListIpV6 = new ArrayList<Node>();
-	protected AtomicInteger currentItemIndexIpV4 = new AtomicInteger(0);
-	protected AtomicInteger currentItemIndexIpV6 = new AtomicInteger(0);
-	protected AtomicLong cycleStartTimeIpV6 = new AtomicLong(0);
-	protected AtomicLong cycleStartTimeIpV4 = new AtomicLong(0);
-	private Semaphore semaphore = new Semaphore(1);
+	// ramp-up of the configuration, null if it is disabled
+	private volatile SlowStart slowStart;
 
 	public LoadBalancerConfiguration getConfiguration() {
 		return lbConfig;
@@ -72,6 +60,7 @@ public abstract class DefaultBalancerAlgorithm implements BalancerAlgorithm {
 
 	public void setConfiguration(LoadBalancerConfiguration lbConfig) {
 		this.lbConfig = lbConfig;
+		this.slowStart = createSlowStart(lbConfig);
 	}
 	
 	public void setInvocationContext(InvocationContext ctx) {
@@ -90,83 +79,27 @@ public abstract class DefaultBalancerAlgorithm implements BalancerAlgorithm {
 		
 	}
 	public void configurationChanged() {
-		
+		slowStart = createSlowStart(lbConfig);
 	}
-	
-	private void cycle(boolean isIpv6)
-	{
-		try {
-			semaphore.acquire();
-		} catch (InterruptedException e) 
-		{
-			logger.error("Semaphore acquire exception : " + e.getMessage());
-		}
-
-		Long currTime;
-		if(isIpv6)
-			currTime=cycleStartTimeIpV6.get();
-		else
-			currTime=cycleStartTimeIpV4.get();
-		
-		if(System.currentTimeMillis() > (lbConfig.getSipConfiguration().getTrafficRampupCyclePeriod() + currTime))
-		{
-			ArrayList<Node> currList= new ArrayList<Node>();
-			for(Entry<KeySip, Node> entry : invocationContext.sipNodeMap(isIpv6).entrySet())
-			{
-				Node currNode = entry.getValue();
-				if(currNode.obtainWeightIndex()<lbConfig.getSipConfiguration().getMaxWeightIndex())
-					currNode.incrementWeightIndex();
 
-				for(int i = 0; i < currNode.obtainWeightIndex(); i++)
-					currList.add(currNode);				
-			}
-
-			if(isIpv6)
-			{
-				if(currentItemIndexIpV6.get()>cycleListIpV6.size())
-					currentItemIndexIpV6.set(0);
-				
-				cycleListIpV6 = currList;
-			}
-			else
-			{
-				if(currentItemIndexIpV4.get()>cycleListIpV4.size())
-					currentItemIndexIpV4.set(0);
-				
-				cycleListIpV4 = currList;
-			}
-			
-			
-			if(isIpv6)
-				cycleStartTimeIpV6.set(System.currentTimeMillis());
-			else
-				cycleStartTimeIpV4.set(System.currentTimeMillis());						
-		}
-		semaphore.release();
-		
+	/**
+	 * @return the ramp-up of the configuration, null without a configuration
+	 */
+	private static SlowStart createSlowStart(LoadBalancerConfiguration lbConfig) {
+		return lbConfig == null ? null : SlowStart.create(lbConfig.getSipConfiguration());
 	}
 	
-	protected synchronized Node getNextRampUpNode(boolean isIpV6)
+	/**
+	 * Picks the next node in weighted round robin, the weight of the nodes which joined recently being
+	 * reduced by the ramp-up of the configuration
+	 * @return the next node which is neither bad nor shutting down, null if there is none
+	 */
+	protected Node getNextRampUpNode(boolean isIpV6)
 	{
-		if(isIpV6)
-		{
-			if(currentItemIndexIpV6.get() < cycleListIpV6.size())
-				cycle(isIpV6);
-
-			return cycleListIpV6.get(currentItemIndexIpV6.getAndIncrement()%cycleListIpV6.size());
-		}
-		else
-		{
-			if(currentItemIndexIpV4.get() < cycleListIpV4.size())
-				cycle(isIpV6);
-
-			
-			return cycleListIpV4.get(currentItemIndexIpV4.getAndIncrement()%cycleListIpV4.size());
-		}
-		
+		return invocationContext.getRoutingTable().nextRampUpNode(isIpV6, slowStart);
 	}
 	
-	public synchronized Node processHttpRequest(HttpRequest request) {
+	public Node processHttpRequest(HttpRequest request) {
 		if(invocationContext.sipNodeMap(false).size()>0) {
 			String instanceId = getInstanceId(request);
 			if(instanceId!=null)
@@ -197,30 +130,7 @@ public abstract class DefaultBalancerAlgorithm implements BalancerAlgorithm {
 			}
 			if(logger.isDebugEnabled())
 				logger.debug("LB will send request to node accordingly RR algorithm");
-			if(httpRequestIterator==null)
-			{
-				httpRequestIterator = invocationContext.sipNodeMap(false).values().iterator();
-			}
-			Node node = null;
-			int count = invocationContext.sipNodeMap(false).size();
-			while(count>0)
-			{
-				while(httpRequestIterator.hasNext() && count > 0)
-				{
-					node = httpRequestIterator.next();
-					if(node!=null&&!node.isGracefulShutdown()&&!node.isBad())
-					{
-						return node;
-					}
-					else
-					{
-						count--;
-					}
-				}
-				if(!httpRequestIterator.hasNext())
-					httpRequestIterator = invocationContext.sipNodeMap(false).values().iterator();
-			}
-			return null;
+			return invocationContext.getRoutingTable().nextAvailableHttpNode();
 		} else {
 			String unavailaleHost = getConfiguration().getHttpConfiguration().getUnavailableHost();
 			if(unavailaleHost != null && unavailaleHost != "") {
@@ -317,49 +227,24 @@ public abstract class DefaultBalancerAlgorithm implements BalancerAlgorithm {
 	{
 		ipv4It = null;
 		ipv6It = null;
-		httpRequestIterator = null;
-		if(lbConfig.getSipConfiguration().getTrafficRampupCyclePeriod()!=null&&lbConfig.getSipConfiguration().getMaxWeightIndex()!=null)
-		{
-			boolean isIpV6 = false;
-			try {
-				isIpV6 = InetAddress.getByName(node.getIp()) instanceof Inet6Address;
-			} catch (UnknownHostException e) {
-
-				logger.error("A Problem happened during the determination isIpV6 for ip : " + node.getIp() +". So it will be default false", e);
-			}
-			
-			if(isIpV6)
-				cycleStartTimeIpV6.set(0);
-			else
-				cycleStartTimeIpV4.set(0);
-			
-			cycle(isIpV6);
-		}
-	
 	}
 
 	public void nodeRemoved(Node node) 
 	{
 		ipv4It = null;
 		ipv6It = null;
-		httpRequestIterator = null;
-		if(lbConfig.getSipConfiguration().getTrafficRampupCyclePeriod()!=null&&lbConfig.getSipConfiguration().getMaxWeightIndex()!=null)
-		{
-			boolean isIpV6 = false;
-			try {
-				isIpV6 = InetAddress.getByName(node.getIp()) instanceof Inet6Address;
-			} catch (UnknownHostException e) {
-
-				logger.error("A Problem happened during the determination isIpV6 for ip : " + node.getIp() +". So it will be default false", e);
-			}
-			
-			if(isIpV6)
-				cycleStartTimeIpV6.set(0);
-			else
-				cycleStartTimeIpV4.set(0);
-			
-			cycle(isIpV6);
-		}
+	}
+	
+	/**
+	 * Notifies the changes one node at a time, algorithms rebuilding a structure on each change
+	 * should override it to rebuild it once
+	 */
+	public void nodesChanged(List<Node> removed, List<Node> added)
+	{
+		for(Node node : removed)
+			nodeRemoved(node);
+		for(Node node : added)
+			nodeAdded(node);
 	}
 	
 	public void jvmRouteSwitchover(String fromJvmRoute, String toJvmRoute) {
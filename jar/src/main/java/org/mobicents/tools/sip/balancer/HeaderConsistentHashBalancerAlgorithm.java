@@ -25,15 +25,14 @@ package org.mobicents.tools.sip.balancer;
 import gov.nist.javax.sip.header.SIPHeader;
 import gov.nist.javax.sip.header.Via;
 
-import java.util.Collections;
 import java.util.HashMap;
-import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 
 import javax.sip.ListeningPoint;
 import javax.sip.address.SipURI;
+import javax.sip.header.CallIdHeader;
 import javax.sip.header.FromHeader;
 import javax.sip.header.ToHeader;
 import javax.sip.message.Message;
@@ -41,40 +40,30 @@ import javax.sip.message.Request;
 import javax.sip.message.Response;
 
 import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.mobicents.tools.configuration.AlgorithmConfiguration;
 import org.mobicents.tools.heartbeat.api.Node;
 
 public class HeaderConsistentHashBalancerAlgorithm extends DefaultBalancerAlgorithm {
 	private static Logger logger = Logger.getLogger(HeaderConsistentHashBalancerAlgorithm.class.getName());
 	protected String sipHeaderAffinityKey;
 	protected String httpAffinityKey;
-	
-	// We will maintain a sorted list of the nodes so all SIP LBs will see them in the same order
-	// no matter at what order the events arrived
-	private SortedSet<Node> nodesV4 = (SortedSet<Node>) Collections.synchronizedSortedSet(new TreeSet<Node>());
-	private SortedSet<Node> nodesV6 = (SortedSet<Node>) Collections.synchronizedSortedSet(new TreeSet<Node>());
-	// And we also keep a copy in the array because it is faster to query by index
-	protected Object[] nodesArrayV4;
-	protected Object[] nodesArrayV6;
-	
-	protected boolean nodesAreDirty = true;
+	// the loads are only bounded, and the transactions tracked, when the factor is positive
+	protected double boundedLoadFactor;
+	protected volatile TransactionTracker transactions;
+	// dialogs sent away from the node of their key because it was overloaded, so their next requests follow them
+	protected final AffinityTable divertedKeys = new AffinityTable(1000L*AlgorithmConfiguration.CALL_ID_AFFINITY_MAX_TIME_IN_CACHE);
+	private final AtomicLong nextDivertedKeysExpiry = new AtomicLong();
 	
 	public HeaderConsistentHashBalancerAlgorithm() {
 	}
 	
-	private SortedSet<Node> nodes(Boolean isIpV6)
-	{
-		if(isIpV6)
-			return nodesV6;
-		else
-			return nodesV4;
-	}
-	
+	/**
+	 * The nodes sorted so all SIP LBs see them in the same order no matter at what order the events arrived,
+	 * taken from the routing table so each lookup should read it once
+	 */
 	protected Object[] nodesArray(Boolean isIpV6)
 	{
-		if(isIpV6)
-			return nodesArrayV6;
-		else
-			return nodesArrayV4;
+		return invocationContext.getRoutingTable().getSortedNodes(isIpV6);
 	}
 	
 	public HeaderConsistentHashBalancerAlgorithm(String headerName) {
@@ -86,21 +75,15 @@ public class HeaderConsistentHashBalancerAlgorithm extends DefaultBalancerAlgori
 	}
 
 	public Node processExternalRequest(Request request,Boolean isIpV6) {
-		if(nodesAreDirty) { // for testing only where nodes are not removed, just start advertising new version while alive
-			synchronized(this) {
-				syncNodes(isIpV6);
-			}
-		}
-		Integer nodeIndex = hashHeader(request,isIpV6);
-		if(nodeIndex<0) {
+		Node node = selectNode(request,isIpV6);
+		if(node == null) {
 			return null;
 		} else {
 			try {
-				Node node = (Node) nodesArray(isIpV6)[nodeIndex];
 //				if(!invocationContext.gracefulShutdownSipNodeMap(isIpV6).containsKey(new KeySip(node)))
 				if(!invocationContext.sipNodeMap(isIpV6).get(new KeySip(node,isIpV6)).isGracefulShutdown()
 						&&!invocationContext.sipNodeMap(isIpV6).get(new KeySip(node,isIpV6)).isBad())
-					return node;
+					return requestSent(request, node);
 				else
 					return null;
 			} catch (Exception e) {
@@ -108,40 +91,149 @@ public class HeaderConsistentHashBalancerAlgorithm extends DefaultBalancerAlgori
 			}
 		}
 	}
-
+	
+	/**
+	 * @return the node owning the key of the request or, when the loads are bounded and it is overloaded,
+	 * the next node below the bound
+	 */
+	protected Node selectNode(Request request,Boolean isIpV6) {
+		TransactionTracker transactions = this.transactions;
+		if(transactions == null) {
+			return hashNode(request,isIpV6);
+		}
+		// retransmissions and CANCELs go where their transaction went
+		Node node = transactions.getNode(request);
+		if(node != null && isAlive(node)) {
+			return node;
+		}
+		String callId = ((CallIdHeader) request.getHeader(CallIdHeader.NAME)).getCallId();
+		expireDivertedKeys();
+		// only the requests starting a dialog or a transaction out of a dialog may move, the others follow them
+		if(Request.ACK.equals(request.getMethod()) || Request.CANCEL.equals(request.getMethod())
+				|| ((ToHeader) request.getHeader(ToHeader.NAME)).getTag() != null) {
+			node = divertedKeys.getAndTouch(callId);
+			if(node != null && isAlive(node)) {
+				return node;
+			}
+			return hashNode(request,isIpV6);
+		}
+		node = hashNode(request,isIpV6);
+		if(node == null) {
+			return null;
+		}
+		int bound = loadBound(transactions, isIpV6);
+		if(isBelowBound(node, bound)) {
+			return node;
+		}
+		String key = extractHeaderValue(request);
+		Node next = nextBelowBound(key, node, isIpV6, bound);
+		if(next != node) {
+			if(logger.isDebugEnabled()) {
+				logger.debug("Node " + node + " is above the bound of " + bound + " transactions, " + callId + " goes to " + next);
+			}
+			divertedKeys.put(callId, next);
+		}
+		return next;
+	}
+	
+	/**
+	 * @return the number of outstanding transactions a node may have, (1+factor) times the average
+	 */
+	protected int loadBound(TransactionTracker transactions, Boolean isIpV6) {
+		int nodes = Math.max(1, invocationContext.getRoutingTable().getNodes(isIpV6).length);
+		return (int) Math.ceil((1 + boundedLoadFactor) * (transactions.getTotal() + 1) / nodes);
+	}
+	
+	protected boolean isBelowBound(Node node, int bound) {
+		return node.getOutstandingTransactions().get() < bound && !node.isBad() && !node.isGracefulShutdown();
+	}
+	
+	/**
+	 * @return the first alive node below the bound after the one owning the key, the owner itself if there is none
+	 */
+	protected Node nextBelowBound(String key, Node owner, Boolean isIpV6, int bound) {
+		Object[] nodes = nodesArray(isIpV6);
+		int nodeIndex = hashAffinityKeyword(key, nodes);
+		for(int q = 1; q < nodes.length; q++) {
+			Node node = (Node) nodes[(nodeIndex + q) % nodes.length];
+			if(node != owner && isBelowBound(node, bound) && isAlive(node)) {
+				return node;
+			}
+		}
+		return owner;
+	}
+	
+	private void expireDivertedKeys() {
+		long now = System.currentTimeMillis();
+		long due = nextDivertedKeysExpiry.get();
+		if(now >= due && nextDivertedKeysExpiry.compareAndSet(due, now + divertedKeys.getTickDuration())) {
+			divertedKeys.expire(now);
+		}
+	}
+	
+	/**
+	 * Tracks the transaction of a request forwarded to the node when the loads are bounded
+	 */
+	protected Node requestSent(Request request, Node node) {
+		TransactionTracker transactions = this.transactions;
+		if(transactions != null) {
+			transactions.requestSent(request, node);
+		}
+		return node;
+	}
+	
 	@Override
-	public synchronized void nodeAdded(Node node) {
-		Boolean isIpV6=LbUtils.isValidInet6Address(node.getIp());
-		nodes(isIpV6).add(node);
-		if(isIpV6)
-			nodesArrayV6 = nodes(true).toArray(new Object[]{});
-		else
-		{
-			nodesArrayV4 = new Object[nodes(false).size()];
-			nodesArrayV4 = nodes(false).toArray(nodesArrayV4);
-
+	public Node processAssignedExternalRequest(Request request, Node assignedNode) {
+		return requestSent(request, super.processAssignedExternalRequest(request, assignedNode));
+	}
+	
+	@Override
+	public void processInternalRequest(Request request) {
+		TransactionTracker transactions = this.transactions;
+		if(transactions != null) {
+			transactions.requestSent(request, TransactionTracker.senderNode(request, invocationContext));
 		}
-		
-		nodesAreDirty = false;
 	}
-
+	
 	@Override
-	public synchronized void nodeRemoved(Node node) {
-		Boolean isIpV6=LbUtils.isValidInet6Address(node.getIp());				
-		nodes(isIpV6).remove(node);
-		
-		if(isIpV6)
-			nodesArrayV6 = nodes(true).toArray(new Object[]{});
-		else
-		{
-			nodesArrayV4 = new Object[nodes(false).size()];
-			nodesArrayV4 = nodes(false).toArray(nodesArrayV4);
+	public void processInternalResponse(Response response,Boolean isIpV6) {
+		TransactionTracker transactions = this.transactions;
+		if(transactions != null) {
+			transactions.responseReceived(response);
 		}
+	}
+
+	protected Integer hashHeader(Message message,Boolean isIpV6) {
+		return hashHeader(extractHeaderValue(message), nodesArray(isIpV6));
+	}
+	
+	private int hashHeader(String headerValue, Object[] nodes) {
+		if(nodes.length == 0) {
+			throw new RuntimeException("No Application Servers registered. All servers are dead.");
+		}
+		
+		int nodeIndex = hashAffinityKeyword(headerValue,nodes);
 		
-		nodesAreDirty = false;
+		if(isAlive((Node)nodes[nodeIndex])) {
+			return nodeIndex;
+		} else {
+			return -1;
+		}
 	}
 	
-	protected Integer hashHeader(Message message,Boolean isIpV6) {
+	/**
+	 * @return the alive node owning the affinity key of the message, null if it is dead
+	 */
+	protected Node hashNode(Message message,Boolean isIpV6) {
+		Object[] nodes = nodesArray(isIpV6);
+		int nodeIndex = hashHeader(extractHeaderValue(message), nodes);
+		if(nodeIndex<0) {
+			return null;
+		}
+		return (Node) nodes[nodeIndex];
+	}
+	
+	protected String extractHeaderValue(Message message) {
 		String headerValue = null;
 		if(sipHeaderAffinityKey.equals("From")) {
 			headerValue = ((SipURI)((FromHeader) message.getHeader(FromHeader.NAME))
@@ -153,17 +245,7 @@ public class HeaderConsistentHashBalancerAlgorithm extends DefaultBalancerAlgori
 			headerValue = ((SIPHeader) message.getHeader(sipHeaderAffinityKey))
 			.getValue();
 		}
-		if(nodesArray(isIpV6).length == 0) {
-			throw new RuntimeException("No Application Servers registered. All servers are dead.");
-		}
-		
-		int nodeIndex = hashAffinityKeyword(headerValue,isIpV6);
-		
-		if(isAlive((Node)nodesArray(isIpV6)[nodeIndex])) {
-			return nodeIndex;
-		} else {
-			return -1;
-		}
+		return headerValue;
 	}
 	
 	protected boolean isAlive(Node node) {
@@ -178,19 +260,24 @@ public class HeaderConsistentHashBalancerAlgorithm extends DefaultBalancerAlgori
 		if(affinityKeyword == null) {
 			return super.processHttpRequest(request);
 		}
-		return (Node) nodesArrayV4[hashAffinityKeyword(affinityKeyword,false)];
+		Object[] nodes = nodesArray(false);
+		return (Node) nodes[hashAffinityKeyword(affinityKeyword,nodes)];
 	}
 	
 	protected int hashAffinityKeyword(String keyword,Boolean isIpV6) {
-		int nodeIndex = Math.abs(keyword.hashCode()) % nodesArray(isIpV6).length;
+		return hashAffinityKeyword(keyword, nodesArray(isIpV6));
+	}
+	
+	private int hashAffinityKeyword(String keyword, Object[] nodes) {
+		int nodeIndex = Math.abs(keyword.hashCode()) % nodes.length;
 
-		Node computedNode = (Node) nodesArray(isIpV6)[nodeIndex];
+		Node computedNode = (Node) nodes[nodeIndex];
 		
 		if(!isAlive(computedNode)) {
 			// If the computed node is dead, find a new one
-			for(int q = 0; q<nodesArray(isIpV6).length; q++) {
-				nodeIndex = (nodeIndex + 1) % nodesArray(isIpV6).length;
-				if(isAlive(((Node)nodesArray(isIpV6)[nodeIndex]))) {
+			for(int q = 0; q<nodes.length; q++) {
+				nodeIndex = (nodeIndex + 1) % nodes.length;
+				if(isAlive(((Node)nodes[nodeIndex]))) {
 					break;
 				}
 			}
@@ -223,23 +310,53 @@ public class HeaderConsistentHashBalancerAlgorithm extends DefaultBalancerAlgori
     	this.httpAffinityKey = getConfiguration().getSipConfiguration().getAlgorithmConfiguration().getHttpAffinityKey();
     	this.sipHeaderAffinityKey = getConfiguration().getSipConfiguration().getAlgorithmConfiguration().getSipHeaderAffinityKey();
     	logger.info("SIP affinity key = " + sipHeaderAffinityKey + " HTTP key = " + httpAffinityKey);
+    	configureBoundedLoads();
     }
     
 	public void configurationChanged() {
 		logger.info("Configuration changed");
 		this.httpAffinityKey = getConfiguration().getSipConfiguration().getAlgorithmConfiguration().getHttpAffinityKey();
 		this.sipHeaderAffinityKey = getConfiguration().getSipConfiguration().getAlgorithmConfiguration().getSipHeaderAffinityKey();
+		configureBoundedLoads();
+	}
+	
+	protected void configureBoundedLoads() {
+		AlgorithmConfiguration algorithmConfiguration = getConfiguration().getSipConfiguration().getAlgorithmConfiguration();
+		Double boundedLoadFactor = algorithmConfiguration.getBoundedLoadFactor();
+		Integer maxTimeInCache = algorithmConfiguration.getCallIdAffinityMaxTimeInCache();
+		if(maxTimeInCache != null && maxTimeInCache > 0) {
+			divertedKeys.setIdleTime(1000L*maxTimeInCache);
+		}
+		if(boundedLoadFactor != null && boundedLoadFactor > 0) {
+			this.boundedLoadFactor = boundedLoadFactor;
+			if(transactions == null) {
+				transactions = new TransactionTracker();
+			}
+			logger.info("Loads bounded to " + (1 + boundedLoadFactor) + " times the average");
+		} else {
+			// the transactions in progress are forgotten, their nodes must not count them anymore
+			TransactionTracker transactions = this.transactions;
+			this.transactions = null;
+			if(transactions != null) {
+				transactions.clear();
+			}
+			divertedKeys.clear();
+		}
 	}
 	
 	@Override
 	public void processExternalResponse(Response response,Boolean isIpV6){
+		TransactionTracker transactions = this.transactions;
+		if(transactions != null) {
+			transactions.responseReceived(response);
+		}
 		this.processExternalResponse(response, this.invocationContext,isIpV6);
 	}
 	
 	public void processExternalResponse(Response response, InvocationContext context,Boolean isIpV6) {
 		Via via = (Via) response.getHeader(Via.NAME);
 		String transport = via.getTransport().toLowerCase();
-		Integer nodeIndex = hashHeader(response,isIpV6);
+		Node hashedNode = hashNode(response,isIpV6);
 		String host = via.getHost();
 		Integer port = via.getPort();		
 		Boolean found = false;
@@ -256,13 +373,8 @@ public class HeaderConsistentHashBalancerAlgorithm extends DefaultBalancerAlgori
 			logger.debug("external response node found ? " + found);
 		}
 		if(!found) {
-			if(nodesAreDirty) {
-				synchronized(this) {
-					syncNodes(isIpV6);
-				}
-			}
 			try {
-				Node node = (Node) nodesArray(isIpV6)[nodeIndex];
+				Node node = hashedNode;
 				//if(node == null || !context.nodes.contains(node)) {
 				if(node == null || !context.sipNodeMap(isIpV6).containsValue(node)) {
 					if(logger.isDebugEnabled()) {
@@ -270,8 +382,7 @@ public class HeaderConsistentHashBalancerAlgorithm extends DefaultBalancerAlgori
 					}
 					
 				} else {
-					String transportProperty = transport + "Port";
-					port = Integer.parseInt(node.getProperties().get(transportProperty));
+					port = node.getPort(transport);
 					if(via.getHost().equalsIgnoreCase(node.getIp()) || via.getPort() != port) {
 						if(logger.isDebugEnabled()) {
 							logger.debug("changing retransmission via " + via + "setting new values " + node.getIp() + ":" + port);
@@ -292,18 +403,6 @@ public class HeaderConsistentHashBalancerAlgorithm extends DefaultBalancerAlgori
 			}
 		}
 	}
-	protected void syncNodes(Boolean isIpV6) {
-		nodes(isIpV6).clear();
-		nodes(isIpV6).addAll(invocationContext.sipNodeMap(isIpV6).values());
-		
-		if(isIpV6)
-			nodesArrayV6 = nodes(true).toArray(new Object[]{});
-		else
-			nodesArrayV4 = nodes(false).toArray(new Object[]{});
-		
-		nodesAreDirty = false;
-	}
-
 	@Override
 	public Integer getNumberOfActiveCalls() {
 
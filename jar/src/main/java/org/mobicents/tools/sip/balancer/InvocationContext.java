@@ -38,6 +38,8 @@ public class InvocationContext {
 	@SuppressWarnings("rawtypes")
 	public InvocationContext(String version, BalancerContext balancerContext) {
 		this.version = version;
+		this.sipNodeMap = new SipNodeMap(balancerContext.addressCache);
+		this.sipNodeMapV6 = new SipNodeMap(balancerContext.addressCache);
 		try {
 			//SIP algorithm init
 			Class clazz = Class.forName(balancerContext.algorithmClassName);
@@ -83,8 +85,9 @@ public class InvocationContext {
 		smppToProviderBalancerAlgorithm.stop();
 	}
 	
-	private ConcurrentHashMap<KeySip, Node> sipNodeMap = new ConcurrentHashMap<KeySip, Node>();
-	private ConcurrentHashMap<KeySip, Node> sipNodeMapV6 = new ConcurrentHashMap<KeySip, Node>();
+	private final SipNodeMap sipNodeMap;
+	private final SipNodeMap sipNodeMapV6;
+	private volatile RoutingTable routingTable = RoutingTable.EMPTY;
 	
 	private ConcurrentHashMap<KeySession, Node> sessionNodeMap = new ConcurrentHashMap<KeySession, Node>();
 	private ConcurrentHashMap<KeySession, Node> sessionNodeMapV6 = new ConcurrentHashMap<KeySession, Node>();
@@ -108,7 +111,7 @@ public class InvocationContext {
 		attribs.remove(name);
 	}
 	
-	public ConcurrentHashMap<KeySip, Node> sipNodeMap(Boolean isIpV6)
+	public SipNodeMap sipNodeMap(Boolean isIpV6)
 	{
 		if(isIpV6)
 			return sipNodeMapV6;
@@ -116,6 +119,22 @@ public class InvocationContext {
 			return sipNodeMap;
 	}
 	
+	/**
+	 * @return the routing table of the nodes, read once for each routing decision
+	 */
+	public RoutingTable getRoutingTable()
+	{
+		return routingTable;
+	}
+	
+	/**
+	 * Builds a new routing table from the node maps and publishes it to the algorithms
+	 */
+	public void publishRoutingTable(long version)
+	{
+		routingTable = new RoutingTable(version, sipNodeMap.values(), sipNodeMapV6.values());
+	}
+	
 	public ConcurrentHashMap<KeySession, Node> sessionNodeMap(Boolean isIpV6)
 	{
 		if(isIpV6)
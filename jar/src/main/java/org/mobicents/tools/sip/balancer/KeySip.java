@@ -1,167 +1,255 @@
 package org.mobicents.tools.sip.balancer;
 
-import java.io.Serializable;
-import java.net.Inet4Address;
-import java.net.Inet6Address;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
-import java.util.ArrayList;
+import java.util.Arrays;
 
+import org.apache.commons.validator.routines.InetAddressValidator;
 import org.mobicents.tools.heartbeat.api.Node;
 
+/**
+ * Immutable key of a SIP node : the address bytes packed in two longs and the node ports in
+ * transport order. The hash is computed once when the key is built and equals only compares
+ * the packed address and the ports, so using the key never resolves or allocates anything.
+ * Only address literals are parsed, building the key of a host name never resolves it.
+ * A key built from a single host and port finds a node listening on several ports through
+ * the endpoint index of {@link SipNodeMap}.
+ */
+
 public class KeySip {
-	
-	private String ip;
-	private boolean isIpv6 = false;
-	private ArrayList <Integer> ports = new ArrayList<Integer>();
-	private String [] transports = {"udp","tcp","tls","ws","wss", "http", "ssl"};
-	
+
+	private static final String [] transports = {"udp","tcp","tls","ws","wss", "http", "ssl"};
+	private static final int[] NO_PORTS = new int[0];
+	// IPv4 addresses are stored as IPv4 mapped IPv6 addresses
+	private static final long IPV4_MAPPED_PREFIX = 0xFFFFL << 32;
+
+	private final String ip;
+	// the host name of a key which is not an address, lower case
+	private final String host;
+	private final boolean isIpv6;
+	private final boolean resolved;
+	private final long high;
+	private final long low;
+	private final int[] ports;
+	private final int hashCode;
+
 	public KeySip (Node node,Boolean isIpv6)
 	{
-		ipToCommonForm(node.getIp());
+		this(node.getIp(), portsOf(node), isIpv6);
+	}
+
+	public KeySip (String ip, Integer port,Boolean isIpv6)
+	{
+		this(ip, new int[] {port}, isIpv6);
+	}
+
+	private KeySip (String ip, int[] ports, boolean isIpv6)
+	{
 		this.isIpv6 = isIpv6;
-		for(String transport:transports)
+		this.ports = ports;
+		long high = 0;
+		long low = 0;
+		String commonIp = null;
+		long ipv4 = ip == null ? -1 : parseIpv4(ip);
+		if(ipv4 != -1)
 		{
-			Serializable currentPort = node.getProperties().get(transport + "Port");
-			if(currentPort!=null)
-				if(currentPort instanceof String)
-					ports.add(Integer.parseInt((String) currentPort));
+			low = IPV4_MAPPED_PREFIX | ipv4;
+			commonIp = ip;
+		}
+		else if(isLiteral(ip))
+		{
+			try
+			{
+				// only literals get here, InetAddress parses them without any lookup
+				InetAddress address = InetAddress.getByName(ip);
+				byte[] bytes = address.getAddress();
+				if(bytes.length == 4)
+					low = IPV4_MAPPED_PREFIX | (toLong(bytes, 0, 4) & 0xFFFFFFFFL);
 				else
-					ports.add((Integer)currentPort);
+				{
+					high = toLong(bytes, 0, 8);
+					low = toLong(bytes, 8, 8);
+				}
+				commonIp = address.getHostAddress();
+			}
+			catch (UnknownHostException e)
+			{
+				commonIp = null;
+			}
 		}
+		this.ip = commonIp;
+		this.resolved = commonIp != null;
+		this.host = resolved || ip == null ? null : ip.toLowerCase();
+		this.high = high;
+		this.low = low;
+		this.hashCode = resolved ? hash(high, low, ports) : 31 * (host == null ? 0 : host.hashCode()) + Arrays.hashCode(ports);
 	}
-	public KeySip (String ip, Integer port,Boolean isIpv6)
+
+	public String getIp()
 	{
-		ipToCommonForm(ip);
-		this.isIpv6 = isIpv6;
-		this.ports.add(port);
+		return ip;
 	}
-	
-	public String getIp() 
+
+	public boolean isIpv6()
 	{
-		return ip;
+		return isIpv6;
 	}
-	public ArrayList<Integer> getPorts() {
-		return ports;
+
+	public int[] getPorts()
+	{
+		return ports.clone();
 	}
 
-	@Override
-    public int hashCode()
-    { 
-		if(!isIpv6)
+	int getNumberOfPorts()
+	{
+		return ports.length;
+	}
+
+	/**
+	 * @return the key of the same address with only the port at the given index
+	 */
+	KeySip endpoint(int index)
+	{
+		if(ports.length == 1)
+			return this;
+		return new KeySip(this, ports[index]);
+	}
+
+	private KeySip (KeySip key, int port)
+	{
+		this.ip = key.ip;
+		this.host = key.host;
+		this.isIpv6 = key.isIpv6;
+		this.resolved = key.resolved;
+		this.high = key.high;
+		this.low = key.low;
+		this.ports = new int[] {port};
+		this.hashCode = resolved ? hash(high, low, ports) : 31 * (host == null ? 0 : host.hashCode()) + Arrays.hashCode(ports);
+	}
+
+	/**
+	 * @return the key of the address the host name resolves to through the cache, this key if it
+	 * already is an address or the name can not be resolved
+	 */
+	KeySip resolve(AddressCache addressCache)
+	{
+		if(resolved || host == null || addressCache == null)
+			return this;
+		try
 		{
-			if(ip==null)
-				return 0;
-		
-			return ip.hashCode();
-    	}
-		else
+			return new KeySip(addressCache.getAddress(host).getHostAddress(), ports, isIpv6);
+		}
+		catch (UnknownHostException e)
 		{
-			int hashCode = 0;
-			try {
-				hashCode = Inet6Address.getByName(ip).hashCode();
-			} catch (UnknownHostException e) {
-				e.printStackTrace();
-			}
-			return hashCode;
+			return this;
 		}
-    }
-	
+	}
+
 	@Override
-	public boolean equals(Object obj) 
+	public int hashCode()
 	{
-		if (obj instanceof KeySip) 
-		{
-			if(!isIpv6)
-			{
-				if(ip==null)
-					return false;
-				
-				if (ip.equals(((KeySip) obj).getIp()))
-				{
-					if(((KeySip) obj).getPorts().equals(ports))
-						return true;
-					for (Integer port : ports) 
-					{
-						if (((KeySip) obj).getPorts().get(0).equals(port))
-						{
-							return true;
-						}
-					}
-					for (Integer objPort : ((KeySip) obj).getPorts()) 
-					{
-						if (ports.get(0).equals(objPort))
-							return true;
-					}
-				} 
-				else 
-				{
-					return false;
-				}
-			}
-			else
-			{
-				try {
-					InetAddress currAddress=Inet6Address.getByName(ip);
-					InetAddress otherAddress=Inet6Address.getByName(((KeySip) obj).getIp());
-					if(currAddress==null)
-						return false;
-					else
-					{
-						if (currAddress.equals(otherAddress))
-						{
-							if(((KeySip) obj).getPorts().equals(ports))
-								return true;
-							for (Integer port : ports) 
-							{
-								if (((KeySip) obj).getPorts().get(0).equals(port))
-									return true;
-							}
-							for (Integer objPort : ((KeySip) obj).getPorts()) 
-							{
-								if (ports.get(0).equals(objPort))
-									return true;
-							}
-
-						} 
-						else 
-						{
-							return false;
-						}
-					}
-				} catch (UnknownHostException e) {
-					e.printStackTrace();
-				}
-			}
+		return hashCode;
+	}
+
+	@Override
+	public boolean equals(Object obj)
+	{
+		if (this == obj)
+			return true;
+		if (!(obj instanceof KeySip))
 			return false;
-		} 
-		else 
-		{
+		KeySip other = (KeySip) obj;
+		if(resolved != other.resolved || hashCode != other.hashCode || !Arrays.equals(ports, other.ports))
 			return false;
+		// a host name which is not resolved only matches the same host name
+		if(!resolved)
+			return host != null && host.equals(other.host);
+		return low == other.low && high == other.high;
+	}
+
+	private static int hash(long high, long low, int[] ports)
+	{
+		int hash = (int) (high ^ (high >>> 32) ^ low ^ (low >>> 32));
+		return 31 * hash + Arrays.hashCode(ports);
+	}
+
+	private static int[] portsOf(Node node)
+	{
+		int[] ports = new int[transports.length];
+		int count = 0;
+		for(String transport:transports)
+		{
+			Integer currentPort = node.getPort(transport);
+			if(currentPort!=null)
+				ports[count++] = currentPort;
 		}
-		
+		if(count == 0)
+			return NO_PORTS;
+		return Arrays.copyOf(ports, count);
+	}
+
+	/**
+	 * A host name is never resolved here, only through the cache of {@link #resolve(AddressCache)}
+	 * @return whether the string is an IPv4 or IPv6 address, with or without brackets
+	 */
+	private static boolean isLiteral(String ip)
+	{
+		if(ip == null)
+			return false;
+		if(ip.startsWith("[") && ip.endsWith("]"))
+			ip = ip.substring(1, ip.length() - 1);
+		return LbUtils.isValidInet6Address(ip) || InetAddressValidator.getInstance().isValidInet4Address(ip);
 	}
-	private void ipToCommonForm(String notCommonIp)
+
+	/**
+	 * @return the address or -1 if the string is not a plain dotted IPv4 address
+	 */
+	private static long parseIpv4(String ip)
 	{
-		try 
+		int length = ip.length();
+		if(length < 7 || length > 15)
+			return -1;
+		long address = 0;
+		int octet = 0;
+		int digits = 0;
+		int dots = 0;
+		for(int i = 0; i < length; i++)
 		{
-			InetAddress address=null;
-			if(!isIpv6)
-				address=Inet4Address.getByName(notCommonIp);
-			else
-				address=Inet6Address.getByName(notCommonIp);
-			
-			if(address==null)
-				this.ip=null;
+			char c = ip.charAt(i);
+			if(c >= '0' && c <= '9')
+			{
+				// leading zeros are left to InetAddress
+				if(digits == 1 && octet == 0)
+					return -1;
+				octet = octet * 10 + (c - '0');
+				if(++digits > 3 || octet > 255)
+					return -1;
+			}
+			else if(c == '.' && digits > 0 && dots < 3)
+			{
+				address = (address << 8) | octet;
+				octet = 0;
+				digits = 0;
+				dots++;
+			}
 			else
-			this.ip = address.getHostAddress();
-		} catch (UnknownHostException e) {
-			this.ip = null;
+				return -1;
 		}
+		if(dots != 3 || digits == 0)
+			return -1;
+		return (address << 8) | octet;
 	}
-	
+
+	private static long toLong(byte[] bytes, int offset, int length)
+	{
+		long value = 0;
+		for(int i = offset; i < offset + length; i++)
+			value = (value << 8) | (bytes[i] & 0xFF);
+		return value;
+	}
+
 	public String toString()
 	{
-		return ip +":" + ports;
+		return (resolved ? ip : host) +":" + Arrays.toString(ports);
 	}
-}
\ No newline at end of file
+}
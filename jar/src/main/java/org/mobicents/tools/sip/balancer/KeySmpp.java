@@ -15,7 +15,7 @@ public class KeySmpp {
 	public KeySmpp(Node node)
 	{
 		this.smppIp = node.getIp();
-		this.smppPort = Integer.parseInt(node.getProperties().get("smppPort"));
+		this.smppPort = node.getPort("smpp");
 	}
 
 	public Integer getSmppPort() {
@@ -0,0 +1,111 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2017, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+package org.mobicents.tools.sip.balancer;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sip.message.Request;
+import javax.sip.message.Response;
+
+import org.apache.log4j.Logger;
+import org.mobicents.tools.heartbeat.api.Node;
+
+/**
+ * Call-ID affinity algorithm sending each new call to the node with the fewest outstanding transactions.
+ * The transactions are counted as they are forwarded and answered by a {@link TransactionTracker}, so
+ * choosing a node only reads one counter per node. Nodes with the same count take turns.
+ */
+public class LeastOutstandingTransactionsAlgorithm extends CallIDAffinityBalancerAlgorithm {
+	private static Logger logger = Logger.getLogger(LeastOutstandingTransactionsAlgorithm.class.getCanonicalName());
+
+	protected final TransactionTracker transactions = new TransactionTracker();
+	private final AtomicInteger nextStart = new AtomicInteger();
+
+	@Override
+	protected Node nextAvailableNode(Boolean isIpV6) {
+		Node[] nodes = invocationContext.getRoutingTable().getNodes(isIpV6);
+		if(nodes.length == 0)
+			return null;
+		int start = (nextStart.getAndIncrement() & Integer.MAX_VALUE) % nodes.length;
+		Node leastBusy = null;
+		int leastOutstanding = Integer.MAX_VALUE;
+		for(int i = 0; i < nodes.length; i++) {
+			Node node = nodes[(start + i) % nodes.length];
+			if(node.isGracefulShutdown() || node.isBad())
+				continue;
+			int outstanding = node.getOutstandingTransactions().get();
+			if(outstanding < leastOutstanding) {
+				leastBusy = node;
+				leastOutstanding = outstanding;
+			}
+		}
+		if(logger.isDebugEnabled()) {
+			logger.debug("Least busy node selected " + leastBusy + " with " + leastOutstanding + " outstanding transactions");
+		}
+		return leastBusy;
+	}
+
+	@Override
+	public Node processExternalRequest(Request request, Boolean isIpV6) {
+		Node node = super.processExternalRequest(request, isIpV6);
+		transactions.requestSent(request, node);
+		return node;
+	}
+
+	@Override
+	public Node processAssignedExternalRequest(Request request, Node assignedNode) {
+		Node node = super.processAssignedExternalRequest(request, assignedNode);
+		transactions.requestSent(request, node);
+		return node;
+	}
+
+	@Override
+	public void processInternalRequest(Request request) {
+		super.processInternalRequest(request);
+		transactions.requestSent(request, TransactionTracker.senderNode(request, invocationContext));
+	}
+
+	@Override
+	public void processInternalResponse(Response response, Boolean isIpV6) {
+		TransactionTracker.Transaction transaction = transactions.responseReceived(response);
+		if(transaction != null)
+			transactionAnswered(transaction, response);
+		super.processInternalResponse(response, isIpV6);
+	}
+
+	/**
+	 * Called when a node sends the final response of a transaction forwarded to it.
+	 * @param transaction the transaction, no longer counted as outstanding
+	 * @param response the final response of the node
+	 */
+	protected void transactionAnswered(TransactionTracker.Transaction transaction, Response response) {
+	}
+
+	@Override
+	public void processExternalResponse(Response response, Boolean isIpV6) {
+		transactions.responseReceived(response);
+		super.processExternalResponse(response, isIpV6);
+	}
+
+	@Override
+	public void stop() {
+		super.stop();
+		transactions.clear();
+	}
+}
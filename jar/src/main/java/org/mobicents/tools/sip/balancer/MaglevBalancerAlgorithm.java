@@ -0,0 +1,185 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2017, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+package org.mobicents.tools.sip.balancer;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.sip.message.Message;
+
+import org.apache.log4j.Logger;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.mobicents.tools.configuration.AlgorithmConfiguration;
+import org.mobicents.tools.heartbeat.api.Node;
+
+/**
+ * Maglev hashing on the same affinity keys as {@link HeaderConsistentHashBalancerAlgorithm}: a key is
+ * resolved with one hash and one read of a {@link MaglevTable}. The tables are rebuilt from the routing
+ * table by a background thread when the nodes change, meanwhile the lookups keep using the previous ones
+ * and the entries of a node that left fail over to the next entries of the table.
+ */
+public class MaglevBalancerAlgorithm extends HeaderConsistentHashBalancerAlgorithm {
+	private static Logger logger = Logger.getLogger(MaglevBalancerAlgorithm.class.getCanonicalName());
+
+	protected int tableSize = AlgorithmConfiguration.MAGLEV_TABLE_SIZE;
+
+	private volatile MaglevTable tableV4 = MaglevTable.EMPTY;
+	private volatile MaglevTable tableV6 = MaglevTable.EMPTY;
+	private final AtomicBoolean rebuildPending = new AtomicBoolean();
+	private final ExecutorService builder = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "MaglevTableBuilder");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	public MaglevBalancerAlgorithm() {
+		this("Call-ID");
+	}
+
+	public MaglevBalancerAlgorithm(String headerName) {
+		this.sipHeaderAffinityKey = headerName;
+	}
+
+	protected MaglevTable table(Boolean isIpV6) {
+		MaglevTable table = isIpV6 ? tableV6 : tableV4;
+		if(table.getSource() == null) {
+			// nothing built yet, the first lookups can't wait for the builder
+			rebuild();
+			table = isIpV6 ? tableV6 : tableV4;
+		}
+		return table;
+	}
+
+	@Override
+	protected Object[] nodesArray(Boolean isIpV6) {
+		return table(isIpV6).getNodes();
+	}
+
+	@Override
+	protected Node hashNode(Message message, Boolean isIpV6) {
+		return select(extractHeaderValue(message), table(isIpV6));
+	}
+
+	@Override
+	public Node processHttpRequest(HttpRequest request) {
+		String affinityKeyword = getUrlParameters(request.getUri()).get(this.httpAffinityKey);
+		if(affinityKeyword == null) {
+			return super.processHttpRequest(request);
+		}
+		return select(affinityKeyword, table(false));
+	}
+
+	/**
+	 * @return the alive node owning the key, or when it is dead the one of the next entries, null if none is alive
+	 */
+	private Node select(String key, MaglevTable table) {
+		if(table.isEmpty()) {
+			throw new RuntimeException("No Application Servers registered. All servers are dead.");
+		}
+		int entry = table.entry(RendezvousHashBalancerAlgorithm.hash64(key));
+		Node node = table.getEntry(entry);
+		if(isAlive(node)) {
+			return node;
+		}
+		Node dead = node;
+		for(int i = 1; i < table.size(); i++) {
+			node = table.getEntry(entry + i);
+			if(node != dead && isAlive(node)) {
+				return node;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public void nodeAdded(Node node) {
+		super.nodeAdded(node);
+		scheduleRebuild();
+	}
+
+	@Override
+	public void nodeRemoved(Node node) {
+		super.nodeRemoved(node);
+		scheduleRebuild();
+	}
+
+	/**
+	 * Several changes arriving before the builder runs are applied by a single rebuild
+	 */
+	private void scheduleRebuild() {
+		if(!rebuildPending.compareAndSet(false, true))
+			return;
+		try {
+			builder.execute(new Runnable() {
+				@Override
+				public void run() {
+					rebuildPending.set(false);
+					rebuild();
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			rebuildPending.set(false);
+		}
+	}
+
+	private synchronized void rebuild() {
+		RoutingTable routingTable = invocationContext.getRoutingTable();
+		if(tableV4.getSource() != routingTable)
+			tableV4 = MaglevTable.build(routingTable, routingTable.getSortedNodes(false), tableSize);
+		if(tableV6.getSource() != routingTable)
+			tableV6 = MaglevTable.build(routingTable, routingTable.getSortedNodes(true), tableSize);
+		if(logger.isDebugEnabled())
+			logger.debug("Maglev tables rebuilt from " + routingTable + " with " + tableV4.size() + " entries");
+	}
+
+	@Override
+	public void init() {
+		super.init();
+		Integer tableSize = getConfiguration().getSipConfiguration().getAlgorithmConfiguration().getMaglevTableSize();
+		if(tableSize != null && tableSize > 0)
+			this.tableSize = tableSize;
+		logger.info("Maglev table size = " + MaglevTable.nextPrime(this.tableSize));
+	}
+
+	@Override
+	public void configurationChanged() {
+		super.configurationChanged();
+		Integer tableSize = getConfiguration().getSipConfiguration().getAlgorithmConfiguration().getMaglevTableSize();
+		if(tableSize != null && tableSize > 0 && tableSize != this.tableSize) {
+			this.tableSize = tableSize;
+			synchronized (this) {
+				tableV4 = MaglevTable.EMPTY;
+				tableV6 = MaglevTable.EMPTY;
+			}
+			scheduleRebuild();
+		}
+	}
+
+	@Override
+	public void stop() {
+		super.stop();
+		builder.shutdownNow();
+	}
+}
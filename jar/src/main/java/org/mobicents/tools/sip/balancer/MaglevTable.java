@@ -0,0 +1,134 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2017, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+package org.mobicents.tools.sip.balancer;
+
+import java.util.Arrays;
+
+import org.mobicents.tools.heartbeat.api.Node;
+
+/**
+ * Immutable Maglev lookup table. Each node fills the entries of a prime sized table following its own
+ * permutation, taken from the hash of its description, the nodes taking turns until the table is full.
+ * A key is then owned by the node of the entry its hash falls in, with no search. Every node owns the
+ * same number of entries give or take one, and when a node leaves most entries of the others stay put.
+ */
+public class MaglevTable {
+
+	public static final MaglevTable EMPTY = new MaglevTable(null, new Node[0], new int[0]);
+
+	private final RoutingTable source;
+	private final Node[] nodes;
+	private final int[] entries;
+
+	private MaglevTable(RoutingTable source, Node[] nodes, int[] entries) {
+		this.source = source;
+		this.nodes = nodes;
+		this.entries = entries;
+	}
+
+	/**
+	 * Builds the table for the given nodes, which must be sorted so all the load balancers build the same one
+	 *
+	 * @param size the number of entries, rounded up to a prime
+	 */
+	public static MaglevTable build(RoutingTable source, Node[] nodes, int size) {
+		if(nodes.length == 0)
+			return new MaglevTable(source, nodes, new int[0]);
+		int prime = nextPrime(size);
+		long[] offsets = new long[nodes.length];
+		long[] skips = new long[nodes.length];
+		for(int i = 0; i < nodes.length; i++) {
+			String description = nodes[i].toStringWithoutJvmroute();
+			offsets[i] = (RendezvousHashBalancerAlgorithm.hash64(description + "-offset") >>> 1) % prime;
+			skips[i] = (RendezvousHashBalancerAlgorithm.hash64(description + "-skip") >>> 1) % (prime - 1) + 1;
+		}
+		int[] entries = new int[prime];
+		Arrays.fill(entries, -1);
+		long[] next = new long[nodes.length];
+		int filled = 0;
+		while(true) {
+			for(int i = 0; i < nodes.length; i++) {
+				int entry = (int) ((offsets[i] + next[i] * skips[i]) % prime);
+				while(entries[entry] >= 0) {
+					next[i]++;
+					entry = (int) ((offsets[i] + next[i] * skips[i]) % prime);
+				}
+				entries[entry] = i;
+				next[i]++;
+				if(++filled == prime)
+					return new MaglevTable(source, nodes, entries);
+			}
+		}
+	}
+
+	static int nextPrime(int size) {
+		int candidate = Math.max(size, 2);
+		while(!isPrime(candidate))
+			candidate++;
+		return candidate;
+	}
+
+	private static boolean isPrime(int value) {
+		if(value % 2 == 0)
+			return value == 2;
+		for(int divisor = 3; (long) divisor * divisor <= value; divisor += 2)
+			if(value % divisor == 0)
+				return false;
+		return true;
+	}
+
+	/**
+	 * @return the entry a 64-bit key hash falls in
+	 */
+	public int entry(long hash) {
+		return (int) ((hash >>> 1) % entries.length);
+	}
+
+	public Node get(long hash) {
+		if(entries.length == 0)
+			return null;
+		return nodes[entries[entry(hash)]];
+	}
+
+	/**
+	 * @return the node of the given entry, the entries wrap around the table
+	 */
+	public Node getEntry(int entry) {
+		return nodes[entries[entry % entries.length]];
+	}
+
+	public int size() {
+		return entries.length;
+	}
+
+	public boolean isEmpty() {
+		return nodes.length == 0;
+	}
+
+	/**
+	 * @return the routing table the nodes were taken from
+	 */
+	public RoutingTable getSource() {
+		return source;
+	}
+
+	public Node[] getNodes() {
+		return nodes;
+	}
+}
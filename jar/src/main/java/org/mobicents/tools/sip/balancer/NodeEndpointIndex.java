@@ -0,0 +1,160 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2017, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.tools.sip.balancer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.mobicents.tools.heartbeat.api.Node;
+
+/**
+ * Index of the nodes by every (address, transport, port) they listen on, where the address is
+ * either the node IP or its host name. The node register keeps it current when nodes are added,
+ * removed or expire. Dead nodes stay known for a while because we still need their addresses to
+ * find the direction of messages where a dead node is involved, otherwise a dead node would be
+ * taken for a client. Only the most recently removed nodes are kept.
+ */
+
+public class NodeEndpointIndex {
+
+	public static final int DEFAULT_MAX_DEAD_NODES = 1000;
+
+	private final ConcurrentHashMap<Endpoint, Node> aliveNodes = new ConcurrentHashMap<Endpoint, Node>();
+	private final ConcurrentHashMap<Endpoint, Node> allNodes = new ConcurrentHashMap<Endpoint, Node>();
+	private final ConcurrentLinkedQueue<Node> deadNodes = new ConcurrentLinkedQueue<Node>();
+	private final AtomicInteger numberOfDeadNodes = new AtomicInteger();
+	private final int maxDeadNodes;
+
+	public NodeEndpointIndex() {
+		this(DEFAULT_MAX_DEAD_NODES);
+	}
+
+	public NodeEndpointIndex(int maxDeadNodes) {
+		this.maxDeadNodes = maxDeadNodes;
+	}
+
+	public void nodeAdded(Node node) {
+		for(Endpoint endpoint : endpointsOf(node)) {
+			aliveNodes.put(endpoint, node);
+			allNodes.put(endpoint, node);
+		}
+	}
+
+	/**
+	 * The node is not alive anymore but stays in the index of all nodes until enough other nodes died
+	 */
+	public void nodeRemoved(Node node) {
+		for(Endpoint endpoint : endpointsOf(node))
+			aliveNodes.remove(endpoint, node);
+		deadNodes.offer(node);
+		if(numberOfDeadNodes.incrementAndGet() > maxDeadNodes) {
+			Node oldest = deadNodes.poll();
+			if(oldest != null) {
+				numberOfDeadNodes.decrementAndGet();
+				for(Endpoint endpoint : endpointsOf(oldest)) {
+					// a node registered again with the same address is alive and keeps its entry
+					if(!aliveNodes.containsKey(endpoint))
+						allNodes.remove(endpoint, oldest);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param transport transport in lower or upper case
+	 * @return the alive node listening on the host and port for this transport or null
+	 */
+	public Node getAliveNode(String host, int port, String transport) {
+		return aliveNodes.get(new Endpoint(host, transport, port));
+	}
+
+	/**
+	 * @param transport transport in lower or upper case
+	 * @return the node alive or recently dead listening on the host and port for this transport or null
+	 */
+	public Node getNodeDeadOrAlive(String host, int port, String transport) {
+		return allNodes.get(new Endpoint(host, transport, port));
+	}
+
+	public int getNumberOfDeadNodes() {
+		return numberOfDeadNodes.get();
+	}
+
+	public void clear() {
+		aliveNodes.clear();
+		allNodes.clear();
+		deadNodes.clear();
+		numberOfDeadNodes.set(0);
+	}
+
+	private static List<Endpoint> endpointsOf(Node node) {
+		List<Endpoint> endpoints = new ArrayList<Endpoint>();
+		for(Entry<String, String> property : node.getProperties().entrySet()) {
+			String key = property.getKey();
+			if(!key.endsWith("Port") || property.getValue() == null)
+				continue;
+			int port;
+			try {
+				port = Integer.parseInt(property.getValue());
+			} catch (NumberFormatException e) {
+				continue;
+			}
+			String transport = key.substring(0, key.length() - 4);
+			if(node.getIp() != null)
+				endpoints.add(new Endpoint(node.getIp(), transport, port));
+			if(node.getHostName() != null && !node.getHostName().equals(node.getIp()))
+				endpoints.add(new Endpoint(node.getHostName(), transport, port));
+		}
+		return endpoints;
+	}
+
+	private static final class Endpoint {
+		private final String host;
+		private final String transport;
+		private final int port;
+		private final int hashCode;
+
+		Endpoint(String host, String transport, int port) {
+			this.host = host;
+			this.transport = transport.toLowerCase();
+			this.port = port;
+			this.hashCode = 31 * (31 * host.hashCode() + this.transport.hashCode()) + port;
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(this == obj)
+				return true;
+			if(!(obj instanceof Endpoint))
+				return false;
+			Endpoint other = (Endpoint) obj;
+			return port == other.port && host.equals(other.host) && transport.equals(other.transport);
+		}
+	}
+}
@@ -29,12 +29,15 @@ import java.nio.charset.Charset;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.validator.routines.InetAddressValidator;
 import org.apache.log4j.Logger;
@@ -45,9 +48,14 @@ import org.jboss.netty.channel.ChannelFutureListener;
 import org.jboss.netty.channel.MessageEvent;
 import org.jboss.netty.handler.codec.http.DefaultHttpResponse;
 import org.jboss.netty.handler.codec.http.HttpHeaders;
+import org.jboss.netty.handler.codec.http.HttpRequest;
 import org.jboss.netty.handler.codec.http.HttpResponse;
 import org.jboss.netty.handler.codec.http.HttpResponseStatus;
 import org.jboss.netty.handler.codec.http.HttpVersion;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.TimerTask;
+import org.mobicents.tools.heartbeat.api.DeltaHeartbeatPacket;
 import org.mobicents.tools.heartbeat.api.HeartbeatConfig;
 import org.mobicents.tools.heartbeat.api.IListener;
 import org.mobicents.tools.heartbeat.api.IServerHeartbeatService;
@@ -78,23 +86,31 @@ public class NodeRegisterImpl  implements NodeRegister, IServerListener {
     private static Logger logger = Logger.getLogger(NodeRegisterImpl.class.getCanonicalName());
 
     public static final int POINTER_START = 0;
+    // precision of the node deadlines in milliseconds
+    private static final long EXPIRY_TICK_DURATION = 10;
     private long nodeInfoExpirationTaskInterval = 5000;
     private long nodeExpiration = 5100;
 
-    private Timer taskTimer = new Timer();
-    private TimerTask nodeExpirationTask = null;
+    private HashedWheelTimer expiryWheel;
+    // pending deadline of each registered node, by identity since a restarted node is equal to the node it replaces
+    private final Map<Node, Timeout> expiries = Collections.synchronizedMap(new IdentityHashMap<Node, Timeout>());
     private InetAddress serverAddress = null;
 
-    private String latestVersion = Integer.MIN_VALUE + "";
+    private volatile String latestVersion = Integer.MIN_VALUE + "";
     
     BalancerRunner balancerRunner;
     private IServerHeartbeatService heartbeatService;
+    // pings of a node are serialized on the shard of its ip, the heartbeat protocol claims sessions atomically in the maps instead
+    private final Object[] shards = new Object[64];
+    private TopologyPublisher topologyPublisher;
     private Gson gson = new Gson();
 
 
     public NodeRegisterImpl(InetAddress serverAddress) {
         super();
         this.serverAddress = serverAddress;
+        for(int i = 0; i < shards.length; i++)
+        	shards[i] = new Object();
     }
     /**
      * {@inheritDoc}
@@ -112,13 +128,13 @@ public class NodeRegisterImpl  implements NodeRegister, IServerListener {
     			throw new RuntimeException("Error loading the node communication protocol: " + balancerRunner.balancerContext.nodeCommunicationProtocolClassName, e);
     		}
             balancerRunner.balancerContext.aliveNodes = new CopyOnWriteArrayList<Node>();
+            topologyPublisher = new TopologyPublisher(balancerRunner.balancerContext.aliveNodes);
             balancerRunner.balancerContext.jvmRouteToSipNode = new ConcurrentHashMap<String, Node>();
             heartbeatService.init(this,serverAddress, heartbeatConfig);
             heartbeatService.startServer();
-            this.nodeExpirationTask = new NodeExpirationTimerTask();
-            this.taskTimer.scheduleAtFixedRate(this.nodeExpirationTask, this.nodeInfoExpirationTaskInterval, this.nodeInfoExpirationTaskInterval);
+            this.expiryWheel = new HashedWheelTimer(EXPIRY_TICK_DURATION, TimeUnit.MILLISECONDS);
             if(logger.isInfoEnabled()) {
-                logger.info("Node expiration task created");							
+                logger.info("Node expiration wheel created");							
                 logger.info("Node registry started");
             }
         } catch (Exception e) {
@@ -151,13 +167,13 @@ public class NodeRegisterImpl  implements NodeRegister, IServerListener {
         }
         heartbeatService.stopServer();
         boolean isDeregistered = true;
-        boolean taskCancelled = nodeExpirationTask.cancel();
+        Set<Timeout> cancelled = expiryWheel.stop();
+        expiries.clear();
         if(logger.isInfoEnabled()) {
-            logger.info("Node Expiration Task cancelled " + taskCancelled);
+            logger.info("Node expiration wheel stopped, " + cancelled.size() + " node deadlines cancelled");
         }
         
-        if(balancerRunner.balancerContext.allNodesEver!=null)
-        	balancerRunner.balancerContext.allNodesEver.clear();
+        balancerRunner.balancerContext.nodeEndpoints.clear();
         if(logger.isInfoEnabled()) {
             logger.info("Node registry stopped.");
         }
@@ -212,25 +228,19 @@ public class NodeRegisterImpl  implements NodeRegister, IServerListener {
      * {@inheritDoc}
      */
     public Node getNode(String host, int port, String transport, String version)  {		
-        for (Node node : balancerRunner.balancerContext.aliveNodes) {
-        	if(logger.isDebugEnabled()) {
-                logger.debug("node to check against " + node);
-            }
-            // https://telestax.atlassian.net/browse/LB-9 Prevent Routing of Requests to Nodes that exposed null IP address
-            if(node != null && node.getIp() != null && node.getIp().equals(host)&&node.getProperties().get(transport.toLowerCase() + "Port")!=null){
-            	Integer nodePort = Integer.parseInt(node.getProperties().get(transport.toLowerCase() + "Port"));
-                if(nodePort != null) {
-                	if(nodePort == port) {
-                        if(version == null) {
-                            return node;
-                        } else {
-                            String nodeVersion = node.getProperties().get("version");
-                            if(nodeVersion == null) nodeVersion = "0";
-                            if(version.equals(nodeVersion)) {
-                                return node;
-                            }
-                        }
-                    }
+        Node node = balancerRunner.balancerContext.nodeEndpoints.getAliveNode(host, port, transport);
+        if(logger.isDebugEnabled()) {
+            logger.debug("node to check against " + node);
+        }
+        // https://telestax.atlassian.net/browse/LB-9 Prevent Routing of Requests to Nodes that exposed null IP address
+        if(node != null && node.getIp() != null && node.getIp().equals(host)) {
+            if(version == null) {
+                return node;
+            } else {
+                String nodeVersion = node.getProperties().get("version");
+                if(nodeVersion == null) nodeVersion = "0";
+                if(version.equals(nodeVersion)) {
+                    return node;
                 }
             }
         }
@@ -240,144 +250,170 @@ public class NodeRegisterImpl  implements NodeRegister, IServerListener {
         return null;
     }
 
-    class NodeExpirationTimerTask extends TimerTask {
+    /**
+     * Fires at the deadline of a registered node. Heartbeats only update the time stamp of the node,
+     * so the deadline is checked again here and the task rescheduled for the remaining time if the
+     * node was heard from meanwhile.
+     */
+    class NodeExpirationTimerTask implements TimerTask {
+        private final Node node;
+
+        NodeExpirationTimerTask(Node node) {
+            this.node = node;
+        }
 
-        public void run() {
-            if(logger.isTraceEnabled()) {
-                logger.trace("NodeExpirationTimerTask Running");
-            }
-            for (Node node : balancerRunner.balancerContext.aliveNodes) {
-                long expirationTime = node.getTimeStamp() + nodeExpiration;
-                String nodeHostname = node.getHostName();
-                if (expirationTime < System.currentTimeMillis() && !nodeHostname.contains("ExtraServerNode")) {
-                    InvocationContext ctx = balancerRunner.getInvocationContext(node.getProperties().get("version"));
-                    balancerRunner.balancerContext.aliveNodes.remove(node);
-                    String instanceId = node.getProperties().get("Restcomm-Instance-Id");
-                    if(instanceId!=null)
-                    	ctx.httpNodeMap.remove(instanceId);
-                    if(node.getProperties().get("smppPort")!=null)
-                    {
-                      	ctx.smppNodeMap.remove(new KeySmpp(node));
-                    }
-                    Boolean isIpV6=LbUtils.isValidInet6Address(node.getIp());        	                    
-                    ctx.sipNodeMap(isIpV6).remove(new KeySip(node,isIpV6));
-                    ctx.sessionNodeMap(isIpV6).remove(new KeySession(node.getProperties().get(Protocol.SESSION_ID)));
-                    ctx.balancerAlgorithm.nodeRemoved(node);
-                        logger.warn("NodeExpirationTimerTask Run NSync["
-                                + node + "] removed. Last timestamp: " + node.getTimeStamp() + 
-                                ", current: " + System.currentTimeMillis()
-                                + " diff=" + ((double)System.currentTimeMillis()-node.getTimeStamp() ) +
-                                "ms and tolerance=" + nodeExpiration + " ms");
-                } else {
-                    if(logger.isTraceEnabled()) {
-                        logger.trace("node time stamp : " + expirationTime + " , current time : "
-                                + System.currentTimeMillis());
-                    }
+        public void run(Timeout timeout) {
+            long remaining;
+            synchronized (expiries) {
+                // the node was removed meanwhile
+                if(expiries.get(node) != timeout)
+                    return;
+                remaining = node.getTimeStamp() + nodeExpiration - System.currentTimeMillis();
+                if(remaining > 0) {
+                    expiries.put(node, expiryWheel.newTimeout(this, remaining, TimeUnit.MILLISECONDS));
+                    return;
                 }
+                expiries.remove(node);
             }
-            if(logger.isTraceEnabled()) {
-                logger.trace("NodeExpirationTimerTask Done");
+            InvocationContext ctx = balancerRunner.getInvocationContext(node.getProperties().get("version"));
+            balancerRunner.balancerContext.nodeEndpoints.nodeRemoved(node);
+            String instanceId = node.getProperties().get("Restcomm-Instance-Id");
+            if(instanceId!=null)
+            	ctx.httpNodeMap.remove(instanceId);
+            if(node.getProperties().get("smppPort")!=null)
+            {
+              	ctx.smppNodeMap.remove(new KeySmpp(node));
             }
+            Boolean isIpV6=LbUtils.isValidInet6Address(node.getIp());        	                    
+            ctx.sipNodeMap(isIpV6).remove(new KeySip(node,isIpV6));
+            // nodes registered by pings have no session
+            String sessionId = node.getProperties().get(Protocol.SESSION_ID);
+            if(sessionId != null)
+                ctx.sessionNodeMap(isIpV6).remove(new KeySession(sessionId));
+            topologyPublisher.nodeRemoved(ctx, node);
+            logger.warn("NodeExpirationTimerTask Run NSync["
+                    + node + "] removed. Last timestamp: " + node.getTimeStamp() + 
+                    ", current: " + System.currentTimeMillis()
+                    + " diff=" + ((double)System.currentTimeMillis()-node.getTimeStamp() ) +
+                    "ms and tolerance=" + nodeExpiration + " ms");
         }
 
     }
 
+    private void nodeAdded(InvocationContext ctx, Node node) {
+        String hostName = node.getHostName();
+        // the deadline is armed before the node is published so a removal always finds it
+        if(hostName == null || !hostName.contains("ExtraServerNode"))
+            expiries.put(node, expiryWheel.newTimeout(new NodeExpirationTimerTask(node), nodeExpiration, TimeUnit.MILLISECONDS));
+        topologyPublisher.nodeAdded(ctx, node);
+    }
+
+    private void nodeRemoved(InvocationContext ctx, Node node) {
+        Timeout expiry = expiries.remove(node);
+        if(expiry != null)
+            expiry.cancel();
+        topologyPublisher.nodeRemoved(ctx, node);
+    }
+
     /**
      * {@inheritDoc}
      */
-    public synchronized void handlePingInRegister(ArrayList<Node> ping) {
-        for (Node pingNode : ping) {        	
-            if(pingNode.getIp() == null) {
-                // https://telestax.atlassian.net/browse/LB-9 Prevent Routing of Requests to Nodes that exposed null IP address 
-                logger.warn("[" + pingNode + "] not added as its IP is null, the node is sending bad information");			   
-            } else {
-            	Boolean isIpV6=LbUtils.isValidInet6Address(pingNode.getIp());
-            	Boolean isIpV4=InetAddressValidator.getInstance().isValidInet4Address(pingNode.getIp());
-            	if(!isIpV4 && !isIpV6)
-            		logger.warn("[" + pingNode + "] not added as its IP is null, the node is sending bad information");
-            	else
-            	{
-            		String version = pingNode.getProperties().get("version");
-	                if(version == null) version = "0";
-	                InvocationContext ctx = balancerRunner.getInvocationContext(version);
+    public void handlePingInRegister(ArrayList<Node> ping) {
+        for (Node receivedNode : ping) {
+            synchronized (shard(receivedNode.getIp())) {
+	            // the maps and the algorithms only get immutable snapshots of the nodes
+	            Node pingNode = receivedNode.snapshot();
+	            if(pingNode.getIp() == null) {
+	                // https://telestax.atlassian.net/browse/LB-9 Prevent Routing of Requests to Nodes that exposed null IP address 
+	                logger.warn("[" + pingNode + "] not added as its IP is null, the node is sending bad information");			   
+	            } else {
+	            	Boolean isIpV6=LbUtils.isValidInet6Address(pingNode.getIp());
+	            	Boolean isIpV4=InetAddressValidator.getInstance().isValidInet4Address(pingNode.getIp());
+	            	if(!isIpV4 && !isIpV6)
+	            		logger.warn("[" + pingNode + "] not added as its IP is null, the node is sending bad information");
+	            	else
+	            	{
+	            		String version = pingNode.getProperties().get("version");
+		                if(version == null) version = "0";
+		                InvocationContext ctx = balancerRunner.getInvocationContext(version);
 	                                
-	                //if bad node changed sessioId it means that the node was restarted so we remove it from map of bad nodes
-	                KeySip keySip = new KeySip(pingNode,isIpV6);	                	                
-	                if(ctx.sipNodeMap(isIpV6).get(keySip)!=null&&ctx.sipNodeMap(isIpV6).get(keySip).isBad())
-	                {
-	                	if(ctx.sipNodeMap(isIpV6).get(keySip).getProperties().get("sessionId").equals(pingNode.getProperties().get("sessionId")))
-	                		continue;
-	                	else
-	                	{
-	                		ctx.sipNodeMap(isIpV6).get(keySip).setBad(false);
-	                		String instanseId = pingNode.getProperties().get(Protocol.RESTCOMM_INSTANCE_ID);
-							if(instanseId!=null)
-	                			ctx.httpNodeMap.get(new KeyHttp(instanseId)).setBad(false);
-	                	}
-	                }
-	                pingNode.updateTimerStamp();
-	                //logger.info("Pingnode updated " + pingNode);
-	                if(pingNode.getProperties().get("jvmRoute") != null) {
-	                    // Let it leak, we will have 10-100 nodes, not a big deal if it leaks.
-	                    // We need info about inactive nodes to do the failover
-	                    balancerRunner.balancerContext.jvmRouteToSipNode.put(
-	                            pingNode.getProperties().get("jvmRoute"), pingNode);				
-	                }
-
-	                Node nodePresent = ctx.sipNodeMap(isIpV6).get(keySip);
+		                //if bad node changed sessioId it means that the node was restarted so we remove it from map of bad nodes
+		                KeySip keySip = new KeySip(pingNode,isIpV6);	                	                
+		                if(ctx.sipNodeMap(isIpV6).get(keySip)!=null&&ctx.sipNodeMap(isIpV6).get(keySip).isBad())
+		                {
+		                	if(ctx.sipNodeMap(isIpV6).get(keySip).getProperties().get("sessionId").equals(pingNode.getProperties().get("sessionId")))
+		                		continue;
+		                	else
+		                	{
+		                		ctx.sipNodeMap(isIpV6).get(keySip).setBad(false);
+		                		// the restarted node ramps up again
+		                		ctx.sipNodeMap(isIpV6).get(keySip).setJoinTime(System.currentTimeMillis());
+		                		String instanseId = pingNode.getProperties().get(Protocol.RESTCOMM_INSTANCE_ID);
+								if(instanseId!=null)
+		                			ctx.httpNodeMap.get(new KeyHttp(instanseId)).setBad(false);
+		                	}
+		                }
+		                pingNode.updateTimerStamp();
+		                //logger.info("Pingnode updated " + pingNode);
+		                if(pingNode.getProperties().get("jvmRoute") != null) {
+		                    // Let it leak, we will have 10-100 nodes, not a big deal if it leaks.
+		                    // We need info about inactive nodes to do the failover
+		                    balancerRunner.balancerContext.jvmRouteToSipNode.put(
+		                            pingNode.getProperties().get("jvmRoute"), pingNode);				
+		                }
+
+		                Node nodePresent = ctx.sipNodeMap(isIpV6).get(keySip);
 	                
-	                // adding done afterwards to avoid ConcurrentModificationException when adding the node while going through the iterator
-	                if(nodePresent != null) 
-	                {
-	                    nodePresent.updateTimerStamp();
-	                    if(logger.isTraceEnabled()) {
-	                        logger.trace("Ping " + nodePresent.getTimeStamp());
-	                    }
-
-	                    if(pingNode.getProperties().get("GRACEFUL_SHUTDOWN")!=null&&
-	                    		pingNode.getProperties().get("GRACEFUL_SHUTDOWN").equals("true"))
-	                    {
-	                    	logger.info("LB will exclude node " + nodePresent + " for new calls because of GRACEFUL_SHUTDOWN");
-	                    	ctx.sipNodeMap(isIpV6).get(keySip).setGracefulShutdown(true);
-	                    	String instanseId = pingNode.getProperties().get(Protocol.RESTCOMM_INSTANCE_ID);
-							if(instanseId!=null)
-	                    		ctx.httpNodeMap.get(new KeyHttp(instanseId)).setGracefulShutdown(true);
-	                    }
-	                } 
-	                else if(pingNode.getProperties().get("GRACEFUL_SHUTDOWN")!=null&&
-	                		pingNode.getProperties().get("GRACEFUL_SHUTDOWN").equals("true"))
-	                {
-	                	if(logger.isDebugEnabled())
-	                        logger.debug("Ping from node which LB exclude because of  GRACEFUL_SHUTDOWN : " + pingNode);
-	                }
-	                else
-	                {
-	                    Integer current = Integer.parseInt(version);
-	                    Integer latest = Integer.parseInt(latestVersion);
-	                    latestVersion = Math.max(current, latest) + "";
-	                    balancerRunner.balancerContext.aliveNodes.add(pingNode);
-	                    ctx.sipNodeMap(isIpV6).put(keySip, pingNode);
-	                    String instanceId = pingNode.getProperties().get("Restcomm-Instance-Id");
-	                    if(instanceId!=null)
-	                    	ctx.httpNodeMap.put(new KeyHttp(instanceId), pingNode);
-	                    Integer smppPort = null;
-	                    if(pingNode.getProperties().get("smppPort")!=null)
-	                    {
-	                    	smppPort = Integer.parseInt(pingNode.getProperties().get("smppPort"));
-	                    	ctx.smppNodeMap.put(new KeySmpp(pingNode), pingNode);
-	                    }
+		                // adding done afterwards to avoid ConcurrentModificationException when adding the node while going through the iterator
+		                if(nodePresent != null) 
+		                {
+		                    nodePresent.updateTimerStamp();
+		                    if(logger.isTraceEnabled()) {
+		                        logger.trace("Ping " + nodePresent.getTimeStamp());
+		                    }
+
+		                    if(pingNode.getProperties().get("GRACEFUL_SHUTDOWN")!=null&&
+		                    		pingNode.getProperties().get("GRACEFUL_SHUTDOWN").equals("true"))
+		                    {
+		                    	logger.info("LB will exclude node " + nodePresent + " for new calls because of GRACEFUL_SHUTDOWN");
+		                    	ctx.sipNodeMap(isIpV6).get(keySip).setGracefulShutdown(true);
+		                    	String instanseId = pingNode.getProperties().get(Protocol.RESTCOMM_INSTANCE_ID);
+								if(instanseId!=null)
+		                    		ctx.httpNodeMap.get(new KeyHttp(instanseId)).setGracefulShutdown(true);
+		                    }
+		                } 
+		                else if(pingNode.getProperties().get("GRACEFUL_SHUTDOWN")!=null&&
+		                		pingNode.getProperties().get("GRACEFUL_SHUTDOWN").equals("true"))
+		                {
+		                	if(logger.isDebugEnabled())
+		                        logger.debug("Ping from node which LB exclude because of  GRACEFUL_SHUTDOWN : " + pingNode);
+		                }
+		                else
+		                {
+		                    updateLatestVersion(version);
+		                    balancerRunner.balancerContext.nodeEndpoints.nodeAdded(pingNode);
+		                    ctx.sipNodeMap(isIpV6).put(keySip, pingNode);
+		                    String instanceId = pingNode.getProperties().get("Restcomm-Instance-Id");
+		                    if(instanceId!=null)
+		                    	ctx.httpNodeMap.put(new KeyHttp(instanceId), pingNode);
+		                    Integer smppPort = null;
+		                    if(pingNode.getProperties().get("smppPort")!=null)
+		                    {
+		                    	smppPort = pingNode.getPort("smpp");
+		                    	ctx.smppNodeMap.put(new KeySmpp(pingNode), pingNode);
+		                    }
 	                    	
 	                    
-	                    ctx.balancerAlgorithm.nodeAdded(pingNode);
-	                    balancerRunner.balancerContext.allNodesEver.add(pingNode);
-	                    pingNode.updateTimerStamp();
-	                    if(logger.isInfoEnabled()) {
-	                        logger.info("NodeExpirationTimerTask Run NSync["
-	                                + pingNode + "] added");
-	                    }
-	                }
-            	}
-            }					
+		                    nodeAdded(ctx, pingNode);
+		                    pingNode.updateTimerStamp();
+		                    if(logger.isInfoEnabled()) {
+		                        logger.info("NodeExpirationTimerTask Run NSync["
+		                                + pingNode + "] added");
+		                    }
+		                }
+	            	}
+	            }					
+            }
         }
     }
 
@@ -385,6 +421,25 @@ public class NodeRegisterImpl  implements NodeRegister, IServerListener {
         return latestVersion;
     }
 
+    private synchronized void updateLatestVersion(String version) {
+        Integer current = Integer.parseInt(version);
+        Integer latest = Integer.parseInt(latestVersion);
+        latestVersion = Math.max(current, latest) + "";
+    }
+
+    /**
+     * @return the number of versions of the set of alive nodes published so far
+     */
+    public long getTopologyVersion() {
+        return topologyPublisher.getVersion();
+    }
+
+    private Object shard(Object key) {
+        if(key == null)
+            return shards[0];
+        return shards[(key.hashCode() & 0x7fffffff) % shards.length];
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -398,25 +453,25 @@ public class NodeRegisterImpl  implements NodeRegister, IServerListener {
             	ctx.httpNodeMap.remove(instanceId);
             Integer smppPort = null;
             if(pingNode.getProperties().get("smppPort") != null)
-            	smppPort = Integer.parseInt(pingNode.getProperties().get("smppPort"));
+            	smppPort = pingNode.getPort("smpp");
             if(smppPort!=null)
             	ctx.smppNodeMap.remove(new KeySmpp(pingNode));
             
             Boolean isIpV6=LbUtils.isValidInet6Address(pingNode.getIp());        	
             ctx.sipNodeMap(isIpV6).remove(new KeySip(pingNode,isIpV6));
-            boolean nodePresent = false;
+            Node nodePresent = null;
             Iterator<Node> nodesIterator = balancerRunner.balancerContext.aliveNodes.iterator();
-            while (nodesIterator.hasNext() && !nodePresent) {
+            while (nodesIterator.hasNext() && nodePresent == null) {
                 Node node = (Node) nodesIterator.next();
                 if (node.equals(pingNode)) {
-                    nodePresent = true;
+                    nodePresent = node;
                 }
             }
             // removal done afterwards to avoid ConcurrentModificationException when removing the node while goign through the iterator
-            if(nodePresent) {
+            if(nodePresent != null) {
             	
-                balancerRunner.balancerContext.aliveNodes.remove(pingNode);
-                ctx.balancerAlgorithm.nodeRemoved(pingNode);
+                balancerRunner.balancerContext.nodeEndpoints.nodeRemoved(pingNode);
+                nodeRemoved(ctx, nodePresent);
                 if(logger.isInfoEnabled()) {
                     logger.info("NodeExpirationTimerTask Run NSync["
                             + pingNode + "] forcibly removed due to a clean shutdown of a node. Numbers of nodes present in the balancer : " 
@@ -492,9 +547,9 @@ public class NodeRegisterImpl  implements NodeRegister, IServerListener {
 
 
 	@Override
-	public synchronized void startRequestReceived(MessageEvent e, JsonObject json) 
+	public void startRequestReceived(MessageEvent e, JsonObject json) 
 	{
-		Node node = new Node(json);
+		Node node = new Node(json).snapshot();
         if(node.getIp() == null) 
         {
             logger.warn("[" + node + "] not added as it's IP is null, the node is sending bad information");			   
@@ -519,7 +574,8 @@ public class NodeRegisterImpl  implements NodeRegister, IServerListener {
 	                balancerRunner.balancerContext.jvmRouteToSipNode.put(node.getProperties().get("jvmRoute"), node);				
 
 	            //Node nodePresent = ctx.sipNodeMap(isIpV6).get(keySip);
-	            Node nodePresent = ctx.sessionNodeMap(isIpV6).get(keySession);
+	            // only the first start request of a session registers the node
+	            Node nodePresent = ctx.sessionNodeMap(isIpV6).putIfAbsent(keySession, node);
 	                
 	            if(nodePresent != null&&!nodePresent.isBad()) 
 	            {
@@ -537,19 +593,15 @@ public class NodeRegisterImpl  implements NodeRegister, IServerListener {
 	            else
 	            {
 	            	logger.debug("LB got start request from node " + node);
-	                Integer current = Integer.parseInt(version);
-	                Integer latest = Integer.parseInt(latestVersion);
-	                latestVersion = Math.max(current, latest) + "";
-	                balancerRunner.balancerContext.aliveNodes.add(node);
-	                ctx.sessionNodeMap(isIpV6).put(keySession, node);
+	                updateLatestVersion(version);
+	                balancerRunner.balancerContext.nodeEndpoints.nodeAdded(node);
 	                ctx.sipNodeMap(isIpV6).put(keySip, node);
 	                String instanceId = node.getProperties().get(Protocol.RESTCOMM_INSTANCE_ID);
 	                if(instanceId!=null)
 	                  	ctx.httpNodeMap.put(new KeyHttp(instanceId), node);
 	                if(node.getProperties().get("smppPort")!=null)
 	                  	ctx.smppNodeMap.put(new KeySmpp(node), node);
-	                 ctx.balancerAlgorithm.nodeAdded(node);
-	                 balancerRunner.balancerContext.allNodesEver.add(node);
+	                 nodeAdded(ctx, node);
 	                 node.updateTimerStamp();
 	                 if(logger.isInfoEnabled())
 	                    logger.info("New node added to map of nodes [" + node + "] ");
@@ -561,7 +613,7 @@ public class NodeRegisterImpl  implements NodeRegister, IServerListener {
 	}
 
 	@Override
-	public synchronized void heartbeatRequestReceived(MessageEvent e, JsonObject json) 
+	public void heartbeatRequestReceived(MessageEvent e, JsonObject json) 
 	{
 		logger.trace("LB got heartbeat from Node : " + json );
 		KeySession keySession = new KeySession(json.get(Protocol.SESSION_ID).toString());
@@ -591,7 +643,108 @@ public class NodeRegisterImpl  implements NodeRegister, IServerListener {
 	}
 
 	@Override
-	public synchronized void shutdownRequestReceived(MessageEvent e, JsonObject json) 
+	public void deltaHeartbeatReceived(MessageEvent e, DeltaHeartbeatPacket packet) 
+	{
+		if(logger.isTraceEnabled())
+			logger.trace("LB got delta heartbeat " + packet.getSequence() + " of session " + packet.getSessionId() + " with changes : " + packet.getChangedProperties());
+		KeySession keySession = new KeySession(Long.toString(packet.getSessionId()));
+		boolean was = false;
+		Node changedNode = null;
+		for(Entry<String, InvocationContext> ctxEntry : balancerRunner.contexts.entrySet())
+		{
+			InvocationContext ctx = ctxEntry.getValue();
+			Node nodePresent = ctx.sessionNodeMap(false).get(keySession);
+			if(nodePresent==null)
+				nodePresent = ctx.sessionNodeMap(true).get(keySession);
+			if(nodePresent!=null)
+			{
+				nodePresent.updateTimerStamp();
+				was = true;
+				if(changedNode==null&&isChanged(nodePresent, packet.getChangedProperties()))
+					changedNode = nodePresent;
+			}
+		}
+		if(!was)
+		{
+			logger.error("LB got delta heartbeat of session " + packet.getSessionId() + " from node which not pesent in maps"); 
+		}
+		else if(changedNode!=null&&!isRegistrationChanged(packet.getChangedProperties()))
+		{
+			// the same node stays in the maps and the algorithms, only the routing tables are built again
+			logger.info("LB got changed properties " + packet.getChangedProperties() + " from node " + changedNode + ", they are applied in place");
+			for(InvocationContext ctx : balancerRunner.contexts.values())
+			{
+				Node node = ctx.sessionNodeMap(LbUtils.isValidInet6Address(changedNode.getIp())).get(keySession);
+				if(node!=null)
+				{
+					node.updateProperties(packet.getChangedProperties());
+					topologyPublisher.nodeChanged(ctx, node);
+				}
+			}
+		}
+		else if(changedNode!=null)
+		{
+			// the node is reached on other ports or is known under other keys, so it is registered again with the same session
+			logger.info("LB got changed properties " + packet.getChangedProperties() + " from node " + changedNode + ", it will be registered again");
+			JsonObject session = new JsonObject();
+			session.addProperty(Protocol.SESSION_ID, packet.getSessionId());
+			stopRequestReceived(null, session);
+			startRequestReceived(null, toJson(changedNode, packet.getChangedProperties()));
+			if(changedNode.isGracefulShutdown())
+			{
+				for(InvocationContext ctx : balancerRunner.contexts.values())
+				{
+					Node node = ctx.sessionNodeMap(LbUtils.isValidInet6Address(changedNode.getIp())).get(keySession);
+					if(node!=null)
+						node.setGracefulShutdown(true);
+				}
+			}
+		}
+		if(e!=null)
+			writeResponse(e, HttpResponseStatus.OK, Protocol.HEARTBEAT, Protocol.OK);
+	}
+
+	private static boolean isChanged(Node node, Map<String, String> changedProperties)
+	{
+		for(Entry<String, String> entry : changedProperties.entrySet())
+		{
+			String value = node.getProperties().get(entry.getKey());
+			if(entry.getValue()==null ? value!=null : !entry.getValue().equals(value))
+				return true;
+		}
+		return false;
+	}
+
+	private static boolean isRegistrationChanged(Map<String, String> changedProperties)
+	{
+		for(String property : changedProperties.keySet())
+		{
+			if(Node.isPortProperty(property)||property.equals(Protocol.SESSION_ID)||property.equals(Protocol.VERSION)
+					||property.equals(Protocol.RESTCOMM_INSTANCE_ID)||property.equals("jvmRoute"))
+				return true;
+		}
+		return false;
+	}
+
+	private static JsonObject toJson(Node node, Map<String, String> changedProperties)
+	{
+		JsonObject json = new JsonObject();
+		json.addProperty(Protocol.HOST_NAME, node.getHostName());
+		json.addProperty(Protocol.IP, node.getIp());
+		for(Entry<String, String> entry : node.getProperties().entrySet())
+			json.addProperty(entry.getKey(), entry.getValue());
+		for(Entry<String, String> entry : changedProperties.entrySet())
+		{
+			if(entry.getValue()==null)
+				json.remove(entry.getKey());
+			else
+				json.addProperty(entry.getKey(), entry.getValue());
+		}
+		return json;
+	}
+
+	@Override
+	public void shutdownRequestReceived(MessageEvent e, JsonObject json) 
 	{
 		boolean was = false; 
 		logger.info("LB got graceful shutdown from Node : " + json);
@@ -626,7 +779,7 @@ public class NodeRegisterImpl  implements NodeRegister, IServerListener {
 	}
 	
 	@Override
-	public synchronized void stopRequestReceived(MessageEvent e, JsonObject json) 
+	public void stopRequestReceived(MessageEvent e, JsonObject json) 
 	{
 		boolean isIpV6 = false;
 		boolean was = false;
@@ -648,11 +801,11 @@ public class NodeRegisterImpl  implements NodeRegister, IServerListener {
 				nodePresent = nodePresentIpv6;
 			}
 		
-			if(nodePresent!=null)
+			// only the request removing the session unregisters the node
+			if(nodePresent!=null&&ctx.sessionNodeMap(isIpV6).remove(keySession, nodePresent))
 			{
 				was = true;
-				Node removedNode = ctx.sessionNodeMap(isIpV6).remove(keySession);
-				KeySip keySip = new KeySip(removedNode,isIpV6);
+				KeySip keySip = new KeySip(nodePresent,isIpV6);
 				ctx.sipNodeMap(isIpV6).remove(keySip);
 				String instanceId = nodePresent.getProperties().get(Protocol.RESTCOMM_INSTANCE_ID);
 				if(instanceId!=null)
@@ -660,9 +813,9 @@ public class NodeRegisterImpl  implements NodeRegister, IServerListener {
 				String smppPort = nodePresent.getProperties().get(Protocol.SMPP_PORT);
 				if(smppPort!=null)
 					ctx.smppNodeMap.remove(new KeySmpp(nodePresent));
-				balancerRunner.balancerContext.aliveNodes.remove(nodePresent);
+				balancerRunner.balancerContext.nodeEndpoints.nodeRemoved(nodePresent);
 			
-				ctx.balancerAlgorithm.nodeRemoved(nodePresent);
+				nodeRemoved(ctx, nodePresent);
 				if(logger.isInfoEnabled())
 					logger.info(" LB got STOP request from node : " + nodePresent + ". So it will be rmoved : "  + balancerRunner.balancerContext.aliveNodes.size());
 			}
@@ -677,7 +830,7 @@ public class NodeRegisterImpl  implements NodeRegister, IServerListener {
 		
 	}
 	
-	private synchronized void writeResponse(MessageEvent e, HttpResponseStatus status, String command, String responceString) 
+	private void writeResponse(MessageEvent e, HttpResponseStatus status, String command, String responceString) 
     {
 		Packet packet = null;
 		switch(command)
@@ -686,7 +839,7 @@ public class NodeRegisterImpl  implements NodeRegister, IServerListener {
 				packet = new HeartbeatResponsePacket(responceString);
 				break;
 			case Protocol.START:
-				packet = new StartResponsePacket(responceString);
+				packet = new StartResponsePacket(responceString, true);
 				break;
 			case Protocol.SHUTDOWN:
 				packet = new ShutdownResponsePacket(responceString);
@@ -701,7 +854,10 @@ public class NodeRegisterImpl  implements NodeRegister, IServerListener {
         response.setHeader(HttpHeaders.Names.CONTENT_LENGTH, buf.readableBytes());
         response.setContent(buf);
         ChannelFuture future = e.getChannel().write(response);
-        future.addListener(ChannelFutureListener.CLOSE);
+        // nodes asking for keep-alive reuse the connection for their next packets, older nodes expect it to be closed
+        HttpRequest request = (HttpRequest) e.getMessage();
+        if(!HttpHeaders.Values.KEEP_ALIVE.equalsIgnoreCase(request.getHeader(HttpHeaders.Names.CONNECTION)))
+        	future.addListener(ChannelFutureListener.CLOSE);
     }
 
 
@@ -0,0 +1,157 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2017, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+package org.mobicents.tools.sip.balancer;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sip.message.Response;
+
+import org.apache.log4j.Logger;
+import org.mobicents.tools.configuration.AlgorithmConfiguration;
+import org.mobicents.tools.heartbeat.api.Node;
+
+/**
+ * Call-ID affinity algorithm sending each new call to the node with the lowest cost, its peak EWMA of the
+ * time to answer the transactions forwarded to it multiplied by its outstanding transactions plus one.
+ * A slower response raises the average at once while faster ones only lower it progressively, and the
+ * average decays over the <code>peakEwmaDecayTime</code> so that a node which was slow gets calls again.
+ * A node which didn't answer yet costs nothing while it has no outstanding transaction and more than any
+ * answering node otherwise, so a new node receives one call at a time until its latency is known.
+ */
+public class PeakEwmaBalancerAlgorithm extends LeastOutstandingTransactionsAlgorithm {
+	private static Logger logger = Logger.getLogger(PeakEwmaBalancerAlgorithm.class.getCanonicalName());
+
+	private static final double PENALTY = Long.MAX_VALUE >> 16;
+
+	private final ConcurrentHashMap<Node, Latency> latencies = new ConcurrentHashMap<Node, Latency>();
+	private final AtomicInteger nextStart = new AtomicInteger();
+	private volatile long decayTime = TimeUnit.MILLISECONDS.toNanos(AlgorithmConfiguration.PEAK_EWMA_DECAY_TIME);
+
+	@Override
+	protected Node nextAvailableNode(Boolean isIpV6) {
+		Node[] nodes = invocationContext.getRoutingTable().getNodes(isIpV6);
+		if(nodes.length == 0)
+			return null;
+		long now = System.nanoTime();
+		int start = (nextStart.getAndIncrement() & Integer.MAX_VALUE) % nodes.length;
+		Node cheapest = null;
+		double lowestCost = Double.MAX_VALUE;
+		for(int i = 0; i < nodes.length; i++) {
+			Node node = nodes[(start + i) % nodes.length];
+			if(node.isGracefulShutdown() || node.isBad())
+				continue;
+			double cost = cost(node, now);
+			if(cheapest == null || cost < lowestCost) {
+				cheapest = node;
+				lowestCost = cost;
+			}
+		}
+		if(logger.isDebugEnabled()) {
+			logger.debug("Cheapest node selected " + cheapest + " with a cost of " + lowestCost);
+		}
+		return cheapest;
+	}
+
+	/**
+	 * @param node a node of the routing table
+	 * @param now the current {@link System#nanoTime()}
+	 * @return the latency of the node in nanoseconds multiplied by its outstanding transactions plus one
+	 */
+	double cost(Node node, long now) {
+		int outstanding = node.getOutstandingTransactions().get();
+		Latency latency = latencies.get(node);
+		if(latency == null)
+			return outstanding == 0 ? 0 : PENALTY + outstanding;
+		return latency.get(now, decayTime) * (outstanding + 1);
+	}
+
+	@Override
+	protected void transactionAnswered(TransactionTracker.Transaction transaction, Response response) {
+		Node node = transaction.getNode();
+		long now = System.nanoTime();
+		long elapsed = now - transaction.getStartTime();
+		Latency latency = latencies.get(node);
+		if(latency == null)
+			latency = latencies.putIfAbsent(node, new Latency(elapsed, now));
+		if(latency != null)
+			latency.observe(elapsed, now, decayTime);
+	}
+
+	@Override
+	public void nodeRemoved(Node node) {
+		super.nodeRemoved(node);
+		latencies.remove(node);
+	}
+
+	@Override
+	public void init() {
+		super.init();
+		if(getConfiguration() != null) {
+			Integer decayTime = getConfiguration().getSipConfiguration().getAlgorithmConfiguration().getPeakEwmaDecayTime();
+			if(decayTime != null && decayTime > 0)
+				this.decayTime = TimeUnit.MILLISECONDS.toNanos(decayTime);
+		}
+		logger.info("Peak EWMA decay time is " + TimeUnit.NANOSECONDS.toMillis(decayTime) + " ms");
+	}
+
+	@Override
+	public void stop() {
+		super.stop();
+		latencies.clear();
+	}
+
+	/**
+	 * Peak exponentially weighted moving average of the latency of one node, in nanoseconds.
+	 */
+	static final class Latency {
+		private long stamp;
+		private double value;
+
+		Latency(long latency, long now) {
+			this.stamp = now;
+			this.value = latency;
+		}
+
+		/**
+		 * Takes a response time into account, at once if it is above the average.
+		 * @param latency the time to answer a transaction in nanoseconds
+		 * @param now the current {@link System#nanoTime()}
+		 * @param decayTime the time constant of the average in nanoseconds
+		 */
+		synchronized void observe(long latency, long now, long decayTime) {
+			double weight = Math.exp(-(double) Math.max(now - stamp, 0) / decayTime);
+			stamp = now;
+			if(latency > value)
+				value = latency;
+			else
+				value = value * weight + latency * (1 - weight);
+		}
+
+		/**
+		 * @param now the current {@link System#nanoTime()}
+		 * @param decayTime the time constant of the average in nanoseconds
+		 * @return the average decayed for the time elapsed since the last response
+		 */
+		synchronized double get(long now, long decayTime) {
+			return value * Math.exp(-(double) Math.max(now - stamp, 0) / decayTime);
+		}
+	}
+}
@@ -0,0 +1,69 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2017, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+package org.mobicents.tools.sip.balancer;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.log4j.Logger;
+import org.mobicents.tools.heartbeat.api.Node;
+
+/**
+ * Call-ID affinity algorithm sending each new call to the less busy of two nodes picked at random
+ * in the routing table, the busy one being the node with more calls in the affinity map. The calls
+ * are counted per node by the {@link AffinityTable} as they are assigned and evicted, so choosing
+ * a node reads two counters and takes no lock.
+ */
+public class PowerOfTwoChoicesBalancerAlgorithm extends CallIDAffinityBalancerAlgorithm {
+	private static Logger logger = Logger.getLogger(PowerOfTwoChoicesBalancerAlgorithm.class.getCanonicalName());
+
+	@Override
+	protected Node nextAvailableNode(Boolean isIpV6) {
+		Node[] nodes = invocationContext.getRoutingTable().getNodes(isIpV6);
+		if(nodes.length == 0)
+			return null;
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int first = random.nextInt(nodes.length);
+		Node node = available(nodes, first);
+		if(node == null)
+			return null;
+		if(nodes.length > 1) {
+			// the second pick is another node, or the first one again if it was not available
+			int second = (first + 1 + random.nextInt(nodes.length - 1)) % nodes.length;
+			Node other = available(nodes, second);
+			if(callIdMap.count(other) < callIdMap.count(node))
+				node = other;
+		}
+		if(logger.isDebugEnabled()) {
+			logger.debug("Node selected " + node + " with " + callIdMap.count(node) + " calls");
+		}
+		return node;
+	}
+
+	/**
+	 * @return the node at the index if it can take new calls, otherwise the next one that can
+	 */
+	private static Node available(Node[] nodes, int index) {
+		for(int i = 0; i < nodes.length; i++) {
+			Node node = nodes[(index + i) % nodes.length];
+			if(!node.isGracefulShutdown() && !node.isBad())
+				return node;
+		}
+		return null;
+	}
+}
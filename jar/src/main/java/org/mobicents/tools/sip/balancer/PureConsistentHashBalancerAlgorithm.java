@@ -22,36 +22,50 @@
 
 package org.mobicents.tools.sip.balancer;
 
+import java.nio.charset.Charset;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashMap;
-import java.util.Set;
+import java.util.List;
 import java.util.TreeSet;
 
 import org.apache.log4j.Logger;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.mobicents.tools.configuration.AlgorithmConfiguration;
 import org.mobicents.tools.heartbeat.api.Node;
 
+import javax.sip.message.Message;
 import javax.sip.message.Request;
 
 /**
  * Pure Consistent Hash algorithm - see http://docs.google.com/present/view?id=dc5jp5vx_89cxdvtxcm Example algorithms section
+ * The nodes are placed on a {@link ConsistentHashRing} with a configurable number of virtual nodes,
+ * so only the keys of a leaving node are remapped and they spread evenly over the remaining ones.
  * @author vralev
  *
  */
 
 public class PureConsistentHashBalancerAlgorithm extends HeaderConsistentHashBalancerAlgorithm {
 	private static Logger logger = Logger.getLogger(PureConsistentHashBalancerAlgorithm.class.getCanonicalName());
+	private static final Charset UTF8 = Charset.forName("UTF-8");
 	
-	MessageDigest md5;
-	
-	HashMap<Integer, Node> hashToNode = new HashMap<Integer, Node>();
-	HashMap<Node, Integer> nodeToHash = new HashMap<Node, Integer>();
+	private static final ThreadLocal<MessageDigest> md5 = new ThreadLocal<MessageDigest>() {
+		@Override
+		protected MessageDigest initialValue() {
+			try {
+				return MessageDigest.getInstance("MD5");
+			} catch (NoSuchAlgorithmException e) {
+				throw new RuntimeException("MD5 is not available", e);
+			}
+		}
+	};
 	
+	protected int virtualNodes = AlgorithmConfiguration.VIRTUAL_NODES;
 	
-	private TreeSet<Node> tmpNodes = new TreeSet<Node>();
+	// membership is only changed by the node register, lookups only read the published ring
+	private TreeSet<Node> membersV4 = new TreeSet<Node>();
+	private TreeSet<Node> membersV6 = new TreeSet<Node>();
+	private volatile ConsistentHashRing ringV4 = ConsistentHashRing.EMPTY;
+	private volatile ConsistentHashRing ringV6 = ConsistentHashRing.EMPTY;
 	
 	public PureConsistentHashBalancerAlgorithm() {
 		this("Call-ID");
@@ -59,29 +73,102 @@ public class PureConsistentHashBalancerAlgorithm extends HeaderConsistentHashBal
 	
 	public PureConsistentHashBalancerAlgorithm(String headerName) {
 		this.sipHeaderAffinityKey = headerName;
-		try {
-			md5 = MessageDigest.getInstance("MD5");
-		} catch (NoSuchAlgorithmException e) {
-			e.printStackTrace();
-		}
+	}
+	
+	private TreeSet<Node> members(Boolean isIpV6)
+	{
+		if(isIpV6)
+			return membersV6;
+		else
+			return membersV4;
+	}
+	
+	protected ConsistentHashRing ring(Boolean isIpV6)
+	{
+		if(isIpV6)
+			return ringV6;
+		else
+			return ringV4;
+	}
+	
+	@Override
+	protected Object[] nodesArray(Boolean isIpV6)
+	{
+		return ring(isIpV6).getNodes();
 	}
 
 	public Node processExternalRequest(Request request,Boolean isIpV6) {
-		Integer nodeIndex = hashHeader(request,isIpV6);
-		if(nodeIndex<0) {
+		try {
+			Node node = selectNode(request,isIpV6);
+			if(node == null)
+				return null;
+			Node registeredNode = invocationContext.sipNodeMap(isIpV6).get(new KeySip(node,isIpV6));
+			if(!registeredNode.isGracefulShutdown()&&!registeredNode.isBad())
+				return requestSent(request, node);
+			else
+				return null;
+		} catch (Exception e) {
 			return null;
+		}
+	}
+	
+	@Override
+	protected Node hashNode(Message message,Boolean isIpV6) {
+		ConsistentHashRing ring = ring(isIpV6);
+		if(ring.isEmpty()) {
+			throw new RuntimeException("No Application Servers registered. All servers are dead.");
+		}
+		Node node = ring.get(extractHeaderValue(message));
+		if(isAlive(node)) {
+			return node;
 		} else {
-			try {
-				Node node = (Node) nodesArray(isIpV6)[nodeIndex];
-				if(!invocationContext.sipNodeMap(isIpV6).get(new KeySip(node,isIpV6)).isGracefulShutdown()
-						&&!invocationContext.sipNodeMap(isIpV6).get(new KeySip(node,isIpV6)).isBad())
-					return node;
-				else
-					return null;
-			} catch (Exception e) {
-				return null;
+			return null;
+		}
+	}
+	
+	/**
+	 * Walks the ring clockwise from the point owning the key
+	 */
+	@Override
+	protected Node nextBelowBound(String key, Node owner, Boolean isIpV6, int bound) {
+		ConsistentHashRing ring = ring(isIpV6);
+		int index = ring.index(ConsistentHashRing.hash(key));
+		for(int q = 1; q < ring.size(); q++) {
+			Node node = ring.getOwner(index + q);
+			if(node != owner && isBelowBound(node, bound) && isAlive(node)) {
+				return node;
+			}
+		}
+		return owner;
+	}
+	
+	@Override
+	public Node processHttpRequest(HttpRequest request) {
+		String affinityKeyword = getUrlParameters(request.getUri()).get(this.httpAffinityKey);
+		if(affinityKeyword == null) {
+			return super.processHttpRequest(request);
+		}
+		return select(affinityKeyword, false);
+	}
+
+	/**
+	 * The node owning the key gets the same checks as for a SIP request : registered, neither bad
+	 * nor shutting down. When it fails them the key goes to the next node clockwise which passes them.
+	 * @return the node for the key, null if there is none
+	 */
+	private Node select(String key, Boolean isIpV6) {
+		ConsistentHashRing ring = ring(isIpV6);
+		if(ring.isEmpty()) {
+			return null;
+		}
+		int index = ring.index(ConsistentHashRing.hash(key));
+		for(int q = 0; q < ring.size(); q++) {
+			Node node = ring.getOwner(index + q);
+			if(isAlive(node) && !node.isGracefulShutdown() && !node.isBad()) {
+				return node;
 			}
 		}
+		return null;
 	}
 
 	@Override
@@ -91,28 +178,43 @@ public class PureConsistentHashBalancerAlgorithm extends HeaderConsistentHashBal
 	
 	public synchronized void nodeAdded(Node node, InvocationContext context) {
 		Boolean isIpV6=LbUtils.isValidInet6Address(node.getIp());        	            			
-		addNode(node);
+		members(isIpV6).add(node);
 		syncNodes(isIpV6);
 	}
-	
-	private synchronized void addNode(Node node) {
-		Boolean isIpV6=LbUtils.isValidInet6Address(node.getIp());        	            			
-		tmpNodes.add(node);
-		syncNodes(isIpV6);
-		dumpNodes();
-	}
 
 	public synchronized void nodeRemoved(Node node) {
 		Boolean isIpV6=LbUtils.isValidInet6Address(node.getIp());        	            			
-		tmpNodes.remove(node);
+		members(isIpV6).remove(node);
 		syncNodes(isIpV6);
-		dumpNodes();
-
+	}
+	
+	/**
+	 * Rebuilds the ring of each address family once for all the changes
+	 */
+	@Override
+	public synchronized void nodesChanged(List<Node> removed, List<Node> added) {
+		boolean ipV4Changed = false;
+		boolean ipV6Changed = false;
+		for(Node node : removed) {
+			Boolean isIpV6=LbUtils.isValidInet6Address(node.getIp());
+			members(isIpV6).remove(node);
+			ipV6Changed |= isIpV6;
+			ipV4Changed |= !isIpV6;
+		}
+		for(Node node : added) {
+			Boolean isIpV6=LbUtils.isValidInet6Address(node.getIp());
+			members(isIpV6).add(node);
+			ipV6Changed |= isIpV6;
+			ipV4Changed |= !isIpV6;
+		}
+		if(ipV4Changed)
+			syncNodes(false);
+		if(ipV6Changed)
+			syncNodes(true);
 	}
 	
 	public int digest(String string) {
-		md5.update(string.getBytes());
-		byte[] digest = md5.digest();
+		byte[] digest = md5.get().digest(string.getBytes(UTF8));
 		int result = 0;
 		for(int q=0; q< digest.length; q++) {
 			result = result ^ digest[q]<<((3-(q%4))<<3);
@@ -126,77 +228,46 @@ public class PureConsistentHashBalancerAlgorithm extends HeaderConsistentHashBal
 	
 	
 	private void dumpNodes() {
-		String nodes = null;
-		if(nodesArrayV6!=null)
-			nodes = "I am " + getBalancerContext().externalHost + ". I see the following nodes are right now (" + (nodesArrayV4.length + nodesArrayV6.length) + "):\n";
-		else
-			nodes = "I am " + getBalancerContext().externalHost + ". I see the following nodes are right now (" + (nodesArrayV4.length) + "):\n";
-		
-		for(Object object : nodesArrayV4) {
-			Node node = (Node) object;
-			nodes += node.toString() + " [ALIVE:" + isAlive(node) + "]" + " [HASH:" + absDigest(node.toStringWithoutJvmroute()) + "]"+ "\n";
-		}
-		if(nodesArrayV6!=null)
-		for(Object object : nodesArrayV6) {
-			Node node = (Node) object;
-			nodes += node.toString() + " [ALIVE:" + isAlive(node) + "]" + " [HASH:" + absDigest(node.toStringWithoutJvmroute()) + "]"+ "\n";
-		}
+		StringBuilder nodes = new StringBuilder("I am " + getBalancerContext().externalHost + ". I see the following nodes are right now (" 
+				+ (ringV4.getNodes().length + ringV6.getNodes().length) + ") on " + virtualNodes + " virtual nodes each:\n");
+		for(Node node : ringV4.getNodes())
+			nodes.append(node.toString() + " [ALIVE:" + isAlive(node) + "]\n");
+		for(Node node : ringV6.getNodes())
+			nodes.append(node.toString() + " [ALIVE:" + isAlive(node) + "]\n");
 		logger.info(nodes);
 	}
 	
-	@Override
-	protected int hashAffinityKeyword(String keyword,Boolean isIpV6) {
-		int hashCode = Math.abs(keyword.hashCode());
-		Object[] nodes = nodesArray(isIpV6); // take a copy to avoid inconsistent reads
-		int lastNodeWithLowerHash = 0;
-		for(int q=0;q<nodes.length;q++) {
-			Node node = (Node) nodes[q];
-			Integer nodeHash = nodeToHash.get(node);
-			if(nodeHash == null) nodeHash = 0;
-			
-			if(hashCode>nodeHash) {
-				lastNodeWithLowerHash = q;
-			} else {
-				return q;
-			}
-		}
-		return lastNodeWithLowerHash; // the request hash exceeds all node hashes
-	}
-	
 	public void init() {
 
 		this.httpAffinityKey = getConfiguration().getSipConfiguration().getAlgorithmConfiguration().getHttpAffinityKey();
 		this.sipHeaderAffinityKey = getConfiguration().getSipConfiguration().getAlgorithmConfiguration().getSipHeaderAffinityKey();
+		Integer virtualNodes = getConfiguration().getSipConfiguration().getAlgorithmConfiguration().getVirtualNodes();
+		if(virtualNodes != null && virtualNodes > 0)
+			this.virtualNodes = virtualNodes;
+		logger.info("SIP affinity key = " + sipHeaderAffinityKey + " HTTP key = " + httpAffinityKey + " virtual nodes = " + this.virtualNodes);
+		configureBoundedLoads();
 	}
 	
 	@Override
+	public synchronized void configurationChanged() {
+		super.configurationChanged();
+		Integer virtualNodes = getConfiguration().getSipConfiguration().getAlgorithmConfiguration().getVirtualNodes();
+		if(virtualNodes != null && virtualNodes > 0 && virtualNodes != this.virtualNodes) {
+			this.virtualNodes = virtualNodes;
+			syncNodes(false);
+			syncNodes(true);
+		}
+	}
+	
+	/**
+	 * Rebuilds the ring from the current members and publishes it, lookups in progress keep using the old one
+	 */
 	public synchronized void syncNodes(Boolean isIpV6) {
-		Set<Node> nodes = tmpNodes;
-		if(nodes != null) {
-			ArrayList<Node> nodeList = new ArrayList<Node>();
-			nodeList.addAll(nodes);
-			Collections.sort(nodeList, new Comparator<Node>() {
-
-				public int compare(Node o1, Node o2) {
-					int a = absDigest(o1.toStringWithoutJvmroute());
-					int b = absDigest(o2.toStringWithoutJvmroute());
-					if(a==b) return 0;
-					if(a<b) return -1;
-					return 1;
-				}
-				
-			});
-			HashMap<Integer, Node> tmpHashToNode = new HashMap<Integer, Node>();
-			for(Node node:nodeList) tmpHashToNode.put(absDigest(node.toStringWithoutJvmroute()), node);
-			this.hashToNode = tmpHashToNode;
-			HashMap<Node, Integer> tmpNodeToHash = new HashMap<Node, Integer>();
-			for(Node node:nodeList) tmpNodeToHash.put(node, absDigest(node.toStringWithoutJvmroute()));
-			this.nodeToHash = tmpNodeToHash;
-			
-			if(isIpV6)
-				this.nodesArrayV6 = nodeList.toArray();
-			else
-				this.nodesArrayV4 = nodeList.toArray();
+		ConsistentHashRing ring = ConsistentHashRing.build(members(isIpV6), virtualNodes);
+		if(isIpV6) {
+			this.ringV6 = ring;
+		} else {
+			this.ringV4 = ring;
 		}
 		
 		dumpNodes();
@@ -0,0 +1,122 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2017, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.tools.sip.balancer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * The routes added through /lbnoderegex, compiled once per update : every regex is compiled when the
+ * routes are built and all of them are merged in one pattern which tells at once whether a key
+ * matches any route. The routes matched by a key are kept in a bounded cache so a user seen again
+ * doesn't go through the regular expressions. Instances are immutable, an update builds new routes
+ * which replace the previous ones in the balancer context, together with their cache.
+ */
+
+public class RegexRoutes {
+
+	public static final RegexRoutes EMPTY = new RegexRoutes(Collections.<String, KeySip>emptyMap());
+	public static final int DEFAULT_MAX_CACHED_KEYS = 10000;
+
+	private static final int[] NO_ROUTE = new int[0];
+
+	private final String[] regexes;
+	private final Pattern[] patterns;
+	private final KeySip[] keys;
+	private final Pattern[] anyRoute;
+	private final ConcurrentHashMap<String, int[]> matches = new ConcurrentHashMap<String, int[]>(256, 0.75f, 64);
+	private final int maxCachedKeys;
+
+	/**
+	 * @param routes the regexes and the node they route to, tried in the iteration order of the map
+	 */
+	public RegexRoutes(Map<String, KeySip> routes) {
+		this(routes, DEFAULT_MAX_CACHED_KEYS);
+	}
+
+	public RegexRoutes(Map<String, KeySip> routes, int maxCachedKeys) {
+		List<String> regexes = new ArrayList<String>();
+		List<Pattern> patterns = new ArrayList<Pattern>();
+		List<KeySip> keys = new ArrayList<KeySip>();
+		for(Entry<String, KeySip> route : routes.entrySet()) {
+			regexes.add(route.getKey());
+			patterns.add(Pattern.compile(route.getKey()));
+			keys.add(route.getValue());
+		}
+		this.regexes = regexes.toArray(new String[regexes.size()]);
+		this.patterns = patterns.toArray(new Pattern[patterns.size()]);
+		this.keys = keys.toArray(new KeySip[keys.size()]);
+		this.anyRoute = RoutingRuleSet.combine(regexes);
+		this.maxCachedKeys = maxCachedKeys;
+	}
+
+	public boolean isEmpty() {
+		return regexes.length == 0;
+	}
+
+	public int size() {
+		return regexes.length;
+	}
+
+	/**
+	 * @return the indexes of the routes whose regex is found in the key, in the order of the routes
+	 */
+	public int[] match(String key) {
+		int[] routes = matches.get(key);
+		if(routes == null) {
+			routes = NO_ROUTE;
+			if(matchesAny(key)) {
+				List<Integer> found = new ArrayList<Integer>();
+				for(int i = 0; i < patterns.length; i++) {
+					if(patterns[i].matcher(key).find())
+						found.add(i);
+				}
+				routes = new int[found.size()];
+				for(int i = 0; i < routes.length; i++)
+					routes[i] = found.get(i);
+			}
+			if(matches.size() >= maxCachedKeys)
+				RoutingRuleSet.trim(matches, maxCachedKeys);
+			matches.put(key, routes);
+		}
+		return routes;
+	}
+
+	public String getRegex(int route) {
+		return regexes[route];
+	}
+
+	public KeySip getKey(int route) {
+		return keys[route];
+	}
+
+	private boolean matchesAny(String key) {
+		for(Pattern pattern : anyRoute) {
+			if(pattern.matcher(key).find())
+				return true;
+		}
+		return false;
+	}
+}
@@ -0,0 +1,201 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2017, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+package org.mobicents.tools.sip.balancer;
+
+import javax.sip.message.Message;
+
+import org.apache.log4j.Logger;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.mobicents.tools.heartbeat.api.Node;
+import org.mobicents.tools.heartbeat.api.Protocol;
+
+/**
+ * Highest random weight (rendezvous) hashing on the same affinity keys as {@link HeaderConsistentHashBalancerAlgorithm}.
+ * Each node scores every key with a 64-bit hash of the key and of the node, the key goes to the alive node
+ * with the highest score. When a node leaves only its keys move, spread over the remaining nodes, and nothing
+ * is kept in memory but the hash of each node. A node may advertise a weight in its heartbeat properties
+ * (see {@link Protocol#WEIGHT}), it then gets a share of the keys proportional to its weight.
+ */
+public class RendezvousHashBalancerAlgorithm extends HeaderConsistentHashBalancerAlgorithm {
+	private static Logger logger = Logger.getLogger(RendezvousHashBalancerAlgorithm.class.getCanonicalName());
+
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	// rebuilt lazily from the routing table they were taken from
+	private volatile Candidates candidatesV4 = Candidates.EMPTY;
+	private volatile Candidates candidatesV6 = Candidates.EMPTY;
+
+	public RendezvousHashBalancerAlgorithm() {
+		this("Call-ID");
+	}
+
+	public RendezvousHashBalancerAlgorithm(String headerName) {
+		this.sipHeaderAffinityKey = headerName;
+	}
+
+	protected Candidates candidates(Boolean isIpV6) {
+		RoutingTable table = invocationContext.getRoutingTable();
+		Candidates candidates = isIpV6 ? candidatesV6 : candidatesV4;
+		if(candidates.table != table) {
+			candidates = new Candidates(table, table.getSortedNodes(isIpV6));
+			if(isIpV6)
+				candidatesV6 = candidates;
+			else
+				candidatesV4 = candidates;
+			if(logger.isDebugEnabled())
+				logger.debug("Rendezvous candidates rebuilt from " + table + " : " + candidates);
+		}
+		return candidates;
+	}
+
+	@Override
+	protected Object[] nodesArray(Boolean isIpV6) {
+		return candidates(isIpV6).nodes;
+	}
+
+	@Override
+	protected Node hashNode(Message message, Boolean isIpV6) {
+		return select(extractHeaderValue(message), candidates(isIpV6));
+	}
+
+	@Override
+	public Node processHttpRequest(HttpRequest request) {
+		String affinityKeyword = getUrlParameters(request.getUri()).get(this.httpAffinityKey);
+		if(affinityKeyword == null) {
+			return super.processHttpRequest(request);
+		}
+		return select(affinityKeyword, candidates(false));
+	}
+
+	/**
+	 * @return the alive node with the highest score for the key, null if none of them is alive
+	 */
+	private Node select(String key, Candidates candidates) {
+		if(candidates.nodes.length == 0) {
+			throw new RuntimeException("No Application Servers registered. All servers are dead.");
+		}
+		long keyHash = hash64(key);
+		int best = candidates.best(keyHash, null);
+		if(isAlive(candidates.nodes[best])) {
+			return candidates.nodes[best];
+		}
+		// as the other hash algorithms the keys of a dead node go to the next alive one, its runner-up here
+		boolean[] dead = new boolean[candidates.nodes.length];
+		dead[best] = true;
+		for(int i = 1; i < candidates.nodes.length; i++) {
+			best = candidates.best(keyHash, dead);
+			if(isAlive(candidates.nodes[best])) {
+				return candidates.nodes[best];
+			}
+			dead[best] = true;
+		}
+		return null;
+	}
+
+	/**
+	 * FNV-1a over the chars of the string, finished with the 64-bit mixer of MurmurHash3
+	 */
+	static long hash64(String value) {
+		long hash = FNV_OFFSET_BASIS;
+		for(int i = 0; i < value.length(); i++) {
+			hash ^= value.charAt(i);
+			hash *= FNV_PRIME;
+		}
+		return mix(hash);
+	}
+
+	static long mix(long hash) {
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+	/**
+	 * The nodes of one address family in a routing table with their hash and weight
+	 */
+	static final class Candidates {
+
+		static final Candidates EMPTY = new Candidates(null, new Node[0]);
+
+		final RoutingTable table;
+		final Node[] nodes;
+		private final long[] seeds;
+		// null when all the nodes have the same weight, the scores are then compared as unsigned hashes
+		private final double[] weights;
+
+		Candidates(RoutingTable table, Node[] nodes) {
+			this.table = table;
+			this.nodes = nodes;
+			this.seeds = new long[nodes.length];
+			double[] weights = new double[nodes.length];
+			boolean weighted = false;
+			for(int i = 0; i < nodes.length; i++) {
+				seeds[i] = hash64(nodes[i].toStringWithoutJvmroute());
+				weights[i] = SmoothWeightedRoundRobin.weight(nodes[i]);
+				weighted |= weights[i] != 1;
+			}
+			this.weights = weighted ? weights : null;
+		}
+
+		/**
+		 * @return the index of the node with the highest score for the key among the ones not excluded
+		 */
+		int best(long keyHash, boolean[] excluded) {
+			int best = -1;
+			long bestHash = 0;
+			double bestScore = 0;
+			for(int i = 0; i < nodes.length; i++) {
+				if(excluded != null && excluded[i])
+					continue;
+				long hash = mix(keyHash ^ seeds[i]);
+				if(weights == null) {
+					if(best < 0 || (hash ^ Long.MIN_VALUE) > (bestHash ^ Long.MIN_VALUE)) {
+						best = i;
+						bestHash = hash;
+					}
+				} else {
+					// weighted rendezvous, -w/ln(u) with u uniform in (0,1) taken from the 53 high bits of the hash
+					double score = -weights[i] / Math.log(((hash >>> 11) + 0.5) * 0x1.0p-53);
+					if(best < 0 || score > bestScore) {
+						best = i;
+						bestScore = score;
+					}
+				}
+			}
+			return best;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder result = new StringBuilder("[");
+			for(int i = 0; i < nodes.length; i++) {
+				if(i > 0)
+					result.append(", ");
+				result.append(nodes[i].toStringWithoutJvmroute());
+				if(weights != null)
+					result.append(" weight ").append(weights[i]);
+			}
+			return result.append("]").toString();
+		}
+	}
+}
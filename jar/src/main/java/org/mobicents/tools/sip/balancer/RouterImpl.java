@@ -93,7 +93,7 @@ public class RouterImpl implements Router {
 					}
 				}
 		}
-		Integer port = Integer.parseInt(node.getProperties().get(transport + "Port"));
+		Integer port = node.getPort(transport);
 		if(port == null) {
 			throw new RuntimeException("No port available for transport " + transport + " for node " + node);
 		}
@@ -118,7 +118,7 @@ public class RouterImpl implements Router {
 		} else {
 			String transport = ((ViaHeader)request.getHeader(ViaHeader.NAME)).getTransport().toLowerCase();
 			LinkedList<HopImpl> retval = new LinkedList<HopImpl>();
-			Integer port = Integer.parseInt(node.getProperties().get(transport + "Port"));
+			Integer port = node.getPort(transport);
 			if(port == null) {
 				throw new RuntimeException("No port available for transport " + transport + " for node " + node);
 			}
@@ -5,10 +5,29 @@ import java.util.regex.Pattern;
 public class RoutingRule {
 	boolean isPatch;
 	Pattern ipPattern;
+	// set when the pattern is a network in CIDR notation like 10.0.0.0/8
+	byte[] network;
+	int prefixLength;
 	public RoutingRule(String ipPattern, boolean isPatch)
 	{
 		this.isPatch = isPatch;
 		this.ipPattern = Pattern.compile(ipPattern);
+		int slash = ipPattern.indexOf('/');
+		if(slash > 0)
+		{
+			byte[] network = RoutingRuleSet.parseAddress(ipPattern.substring(0, slash));
+			int prefixLength = -1;
+			try {
+				prefixLength = Integer.parseInt(ipPattern.substring(slash + 1).trim());
+			} catch (NumberFormatException e) {
+				// not a network, only a regex
+			}
+			if(network != null && prefixLength >= 0 && prefixLength <= network.length * 8)
+			{
+				this.network = network;
+				this.prefixLength = prefixLength;
+			}
+		}
 	}
 	public boolean isPatch() {
 		return isPatch;
@@ -16,5 +35,8 @@ public class RoutingRule {
 	public Pattern getIpPattern() {
 		return ipPattern;
 	}
+	public boolean isNetwork() {
+		return network != null;
+	}
 	
 }
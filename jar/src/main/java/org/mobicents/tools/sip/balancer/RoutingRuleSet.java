@@ -0,0 +1,217 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2017, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.tools.sip.balancer;
+
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Routing rules of one address family compiled once when they are loaded : the rules given as a
+ * network in CIDR notation go in a prefix trie looked up with the bits of the address, the other
+ * rules are regular expressions merged in one alternation so a host is checked against all of them
+ * in a single match. Only the rules which are not patch rules take part in the match. The result
+ * for a host is kept in a bounded cache. Instances are replaced as a whole when the rules change,
+ * which also drops the results computed with the previous rules.
+ */
+
+public class RoutingRuleSet {
+
+	public static final RoutingRuleSet EMPTY = new RoutingRuleSet(new ArrayList<RoutingRule>());
+	public static final int DEFAULT_MAX_CACHED_HOSTS = 10000;
+
+	private final TrieNode ipv4Networks = new TrieNode();
+	private final TrieNode ipv6Networks = new TrieNode();
+	private final boolean hasNetworks;
+	private final Pattern[] patterns;
+	private final ConcurrentHashMap<String, Boolean> matches = new ConcurrentHashMap<String, Boolean>(256, 0.75f, 64);
+	private final int maxCachedHosts;
+
+	public RoutingRuleSet(List<RoutingRule> rules) {
+		this(rules, DEFAULT_MAX_CACHED_HOSTS);
+	}
+
+	public RoutingRuleSet(List<RoutingRule> rules, int maxCachedHosts) {
+		List<String> regexes = new ArrayList<String>();
+		boolean hasNetworks = false;
+		if(rules != null) {
+			for(RoutingRule rule : rules) {
+				if(rule.isPatch())
+					continue;
+				if(rule.isNetwork()) {
+					add(rule.network.length == 4 ? ipv4Networks : ipv6Networks, rule.network, rule.prefixLength);
+					hasNetworks = true;
+				} else {
+					regexes.add(rule.getIpPattern().pattern());
+				}
+			}
+		}
+		this.hasNetworks = hasNetworks;
+		this.patterns = combine(regexes);
+		this.maxCachedHosts = maxCachedHosts;
+	}
+
+	/**
+	 * @return whether the host is in one of the networks or matches one of the patterns of the rules
+	 */
+	public boolean matches(String host) {
+		Boolean match = matches.get(host);
+		if(match == null) {
+			match = match(host);
+			if(matches.size() >= maxCachedHosts)
+				trim(matches, maxCachedHosts);
+			matches.put(host, match);
+		}
+		return match;
+	}
+
+	private boolean match(String host) {
+		for(Pattern pattern : patterns) {
+			if(pattern.matcher(host).matches())
+				return true;
+		}
+		if(hasNetworks) {
+			byte[] address = parseAddress(host);
+			if(address != null)
+				return contains(address.length == 4 ? ipv4Networks : ipv6Networks, address);
+		}
+		return false;
+	}
+
+	/**
+	 * Merges the regular expressions in as few patterns as possible, a single one unless some of them
+	 * use numbered back references which would not refer to the same group anymore once merged
+	 */
+	static Pattern[] combine(List<String> regexes) {
+		List<Pattern> patterns = new ArrayList<Pattern>();
+		StringBuilder combined = new StringBuilder();
+		for(String regex : regexes) {
+			if(hasBackReference(regex)) {
+				patterns.add(Pattern.compile(regex));
+			} else {
+				if(combined.length() > 0)
+					combined.append('|');
+				combined.append("(?:").append(regex).append(')');
+			}
+		}
+		if(combined.length() > 0)
+			patterns.add(0, Pattern.compile(combined.toString()));
+		return patterns.toArray(new Pattern[patterns.size()]);
+	}
+
+	/**
+	 * Drops about a quarter of the entries of a full cache
+	 */
+	static <V> void trim(ConcurrentHashMap<String, V> cache, int maxEntries) {
+		int toRemove = cache.size() - maxEntries * 3 / 4;
+		for(Iterator<V> it = cache.values().iterator(); it.hasNext() && toRemove > 0; toRemove--) {
+			it.next();
+			it.remove();
+		}
+	}
+
+	private static boolean hasBackReference(String regex) {
+		for(int i = 0; i < regex.length() - 1; i++) {
+			if(regex.charAt(i) == '\\') {
+				char next = regex.charAt(i + 1);
+				if(next >= '1' && next <= '9')
+					return true;
+				i++;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Parses an IPv4 or IPv6 literal without any name lookup, brackets around an IPv6 literal are ignored
+	 * @return the bytes of the address or null if the host is not a literal address
+	 */
+	static byte[] parseAddress(String host) {
+		host = host.trim();
+		if(host.startsWith("[") && host.endsWith("]"))
+			host = host.substring(1, host.length() - 1);
+		if(host.indexOf(':') >= 0) {
+			// an IPv6 literal is never looked up, an invalid one fails right away
+			try {
+				InetAddress address = InetAddress.getByName(host);
+				return address instanceof Inet6Address ? address.getAddress() : null;
+			} catch (UnknownHostException e) {
+				return null;
+			}
+		}
+		byte[] address = new byte[4];
+		int part = 0;
+		int value = -1;
+		for(int i = 0; i < host.length(); i++) {
+			char c = host.charAt(i);
+			if(c >= '0' && c <= '9') {
+				value = (value < 0 ? 0 : value * 10) + (c - '0');
+				if(value > 255)
+					return null;
+			} else if(c == '.' && value >= 0 && part < 3) {
+				address[part++] = (byte) value;
+				value = -1;
+			} else {
+				return null;
+			}
+		}
+		if(part != 3 || value < 0)
+			return null;
+		address[3] = (byte) value;
+		return address;
+	}
+
+	private static void add(TrieNode root, byte[] network, int prefixLength) {
+		TrieNode node = root;
+		for(int i = 0; i < prefixLength && !node.terminal; i++) {
+			int bit = bit(network, i);
+			if(node.children[bit] == null)
+				node.children[bit] = new TrieNode();
+			node = node.children[bit];
+		}
+		node.terminal = true;
+	}
+
+	private static boolean contains(TrieNode root, byte[] address) {
+		TrieNode node = root;
+		for(int i = 0; node != null; i++) {
+			if(node.terminal)
+				return true;
+			if(i == address.length * 8)
+				return false;
+			node = node.children[bit(address, i)];
+		}
+		return false;
+	}
+
+	private static int bit(byte[] address, int index) {
+		return (address[index >> 3] >> (7 - (index & 7))) & 1;
+	}
+
+	private static final class TrieNode {
+		private final TrieNode[] children = new TrieNode[2];
+		private boolean terminal;
+	}
+}
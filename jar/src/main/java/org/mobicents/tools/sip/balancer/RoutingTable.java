@@ -0,0 +1,111 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2017, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+package org.mobicents.tools.sip.balancer;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.mobicents.tools.heartbeat.api.Node;
+
+/**
+ * Immutable view of the SIP nodes of an invocation context, built by the {@link TopologyPublisher} when
+ * the nodes change and read by the algorithms with a single volatile read, without locking. The nodes
+ * of a table never change, only its round robin positions move, so a new table starts the rounds again
+ * as the iterators over the node maps did. The rounds are weighted by a {@link SmoothWeightedRoundRobin}
+ * computed when the table is built, a plain round robin when the nodes have the same weight.
+ * The arrays returned must not be modified.
+ */
+public final class RoutingTable {
+
+	public static final RoutingTable EMPTY = new RoutingTable(0, Collections.<Node>emptyList(), Collections.<Node>emptyList());
+
+	private final long version;
+	// in the order of the node maps
+	private final Node[] nodesV4;
+	private final Node[] nodesV6;
+	// sorted so all the load balancers see the nodes in the same order
+	private final Node[] sortedNodesV4;
+	private final Node[] sortedNodesV6;
+	private final AtomicInteger nextV4 = new AtomicInteger();
+	private final AtomicInteger nextV6 = new AtomicInteger();
+	private final AtomicInteger nextHttp = new AtomicInteger();
+	private final SmoothWeightedRoundRobin weightedV4;
+	private final SmoothWeightedRoundRobin weightedV6;
+
+	public RoutingTable(long version, Collection<Node> nodesV4, Collection<Node> nodesV6) {
+		this.version = version;
+		this.nodesV4 = nodesV4.toArray(new Node[0]);
+		this.nodesV6 = nodesV6.toArray(new Node[0]);
+		this.sortedNodesV4 = new TreeSet<Node>(nodesV4).toArray(new Node[0]);
+		this.sortedNodesV6 = new TreeSet<Node>(nodesV6).toArray(new Node[0]);
+		this.weightedV4 = new SmoothWeightedRoundRobin(this.nodesV4);
+		this.weightedV6 = new SmoothWeightedRoundRobin(this.nodesV6);
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	public Node[] getNodes(Boolean isIpV6) {
+		return isIpV6 ? nodesV6 : nodesV4;
+	}
+
+	public Node[] getSortedNodes(Boolean isIpV6) {
+		return isIpV6 ? sortedNodesV6 : sortedNodesV4;
+	}
+
+	public boolean isEmpty(Boolean isIpV6) {
+		return getNodes(isIpV6).length == 0;
+	}
+
+	/**
+	 * @return the next node in round robin which is neither bad nor shutting down, null if there is none
+	 */
+	public Node nextAvailableNode(Boolean isIpV6) {
+		if(isIpV6)
+			return weightedV6.next(nextV6);
+		return weightedV4.next(nextV4);
+	}
+
+	/**
+	 * Same as {@link #nextAvailableNode(Boolean)} with the weights of the nodes reduced while they ramp up
+	 * @param slowStart the ramp-up, null if there is none
+	 */
+	Node nextRampUpNode(Boolean isIpV6, SlowStart slowStart) {
+		if(slowStart == null)
+			return nextAvailableNode(isIpV6);
+		if(isIpV6)
+			return weightedV6.next(nextV6, slowStart, System.currentTimeMillis());
+		return weightedV4.next(nextV4, slowStart, System.currentTimeMillis());
+	}
+
+	/**
+	 * Same as {@link #nextAvailableNode(Boolean)} for the IPv4 nodes, with a round of its own for HTTP requests
+	 */
+	public Node nextAvailableHttpNode() {
+		return weightedV4.next(nextHttp);
+	}
+
+	@Override
+	public String toString() {
+		return "RoutingTable version[" + version + "] ipv4[" + nodesV4.length + "] ipv6[" + nodesV6.length + "]";
+	}
+}
@@ -40,7 +40,6 @@ import java.net.UnknownHostException;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -405,24 +404,11 @@ public class SIPBalancerForwarder implements SipListener {
     }
 
     private Node getAliveNodeAnyVersion(String host, int port, String otherTransport) {
-        return getNodeFromCollection(host, port, otherTransport, balancerRunner.balancerContext.aliveNodes);
-    }
-
-    private Node getNodeFromCollection(String host, int port, String otherTransport, Collection<Node> ctx) {
-    	
-        otherTransport = otherTransport.toLowerCase();
-        for(Node node : ctx) {
-            if(host.equals(node.getHostName()) || host.equals(node.getIp())) {
-            	if(Integer.parseInt(node.getProperties().get(otherTransport + "Port")) == port) {
-                    return node;
-                }
-            }
-        }
-        return null;
+        return balancerRunner.balancerContext.nodeEndpoints.getAliveNode(host, port, otherTransport);
     }
 
     private Node getNodeDeadOrAlive(String host, int port, String otherTransport) {
-        return getNodeFromCollection(host, port, otherTransport, balancerRunner.balancerContext.allNodesEver);
+        return balancerRunner.balancerContext.nodeEndpoints.getNodeDeadOrAlive(host, port, otherTransport);
     }
 
     private boolean isViaHeaderFromServer(Request request) {
@@ -536,13 +522,13 @@ public class SIPBalancerForwarder implements SipListener {
                 uri = (SipURI) request.getRequestURI();
             }
         }
-        if(uri.getHost().matches(".*[a-zA-Z]+.*"))
+        if(AddressCache.hasLetters(uri.getHost()))
         {
         	if(logger.isDebugEnabled())
         		logger.debug("We are going to patch URI because it has domain name instead of IP : " + uri);
 			try 
         	{
-				uri.setHost(InetAddress.getByName(uri.getHost()).getHostAddress());
+				uri.setHost(balancerRunner.balancerContext.addressCache.getAddress(uri.getHost()).getHostAddress());
 			} catch (UnknownHostException | ParseException e) {
 				e.printStackTrace();
 			}
@@ -630,11 +616,11 @@ public class SIPBalancerForwarder implements SipListener {
         {
         	ViaHeader viaHeader = (ViaHeader)request.getHeader(ViaHeader.NAME);
         	String host = viaHeader.getHost();
-        	if(host.matches(".*[a-zA-Z]+.*"))
+        	if(AddressCache.hasLetters(host))
             {
     			try 
             	{
-    				host = InetAddress.getByName(host).getHostAddress();
+    				host = balancerRunner.balancerContext.addressCache.getAddress(host).getHostAddress();
     			} catch (UnknownHostException e) {
     				e.printStackTrace();
     			}
@@ -795,7 +781,7 @@ public class SIPBalancerForwarder implements SipListener {
         		SipURI loopbackUri = getLoopbackUri(request, isIpv6);
         		if(loopbackUri != null) {
         			loopbackUri.setHost(hints.serverAssignedNode.getIp());
-        			loopbackUri.setPort(Integer.parseInt(hints.serverAssignedNode.getProperties().get(transport + "Port")));
+        			loopbackUri.setPort(hints.serverAssignedNode.getPort(transport));
             }
         	}
             // Request is NOT from app server, first check if we have hints in Route headers
@@ -882,7 +868,7 @@ public class SIPBalancerForwarder implements SipListener {
                             routeSipUri = assignedUri;
                         }
                         routeSipUri.setHost(nextNode.getIp());
-                        Integer port = Integer.parseInt(nextNode.getProperties().get(transport + "Port"));
+                        Integer port = nextNode.getPort(transport);
                         if(port == null) {
                             throw new RuntimeException("Port is null in the node properties for transport="
                                     + transport);
@@ -934,7 +920,7 @@ public class SIPBalancerForwarder implements SipListener {
                 	{
                         SipURI sipUri =(SipURI) request.getRequestURI();                                             
                         SipURI routeSipUri = balancerRunner.balancerContext.addressFactory.createSipURI(null, nextNode.getIp());
-                        Integer port = Integer.parseInt(nextNode.getProperties().get(transport + "Port"));
+                        Integer port = nextNode.getPort(transport);
                 	 
                         //port should not be null since it subsequent request
                         if(port != null) 
@@ -1065,18 +1051,12 @@ public class SIPBalancerForwarder implements SipListener {
 		{
 			if(balancerRunner.balancerContext.routingRulesIpv4!=null&&meantHost!=null)
 			{
-				boolean found = false;
-				for(RoutingRule rule : balancerRunner.balancerContext.routingRulesIpv4)
+				if(balancerRunner.balancerContext.addressCache.matchesRoutingRule(meantHost, false))
 				{
-					if(rule.getIpPattern().matcher(meantHost).matches()&&!rule.isPatch)
-					{
-						found = true;
-						externalViaHost = balancerRunner.balancerContext.externalHost;
-						internalViaHost = balancerRunner.balancerContext.internalHost;
-						break;
-					}
+					externalViaHost = balancerRunner.balancerContext.externalHost;
+					internalViaHost = balancerRunner.balancerContext.internalHost;
 				}
-				if(!found)
+				else
 				{
 					externalViaHost = balancerRunner.balancerContext.externalViaHost;
 					internalViaHost = balancerRunner.balancerContext.internalViaHost;
@@ -1092,18 +1072,12 @@ public class SIPBalancerForwarder implements SipListener {
 		{
 			if(balancerRunner.balancerContext.routingRulesIpv6!=null&&meantHost!=null)
 			{
-				boolean found = false;
-				for(RoutingRule rule : balancerRunner.balancerContext.routingRulesIpv6)
+				if(balancerRunner.balancerContext.addressCache.matchesRoutingRule(meantHost, true))
 				{
-					if(rule.getIpPattern().matcher(meantHost).matches()&&!rule.isPatch)
-					{
-						found = true;
-						externalViaHost = balancerRunner.balancerContext.externalIpv6Host;
-						internalViaHost = balancerRunner.balancerContext.internalIpv6Host;
-						break;
-					}
+					externalViaHost = balancerRunner.balancerContext.externalIpv6Host;
+					internalViaHost = balancerRunner.balancerContext.internalIpv6Host;
 				}
-				if(!found)
+				else
 				{
 					externalViaHost = balancerRunner.balancerContext.externalIpv6ViaHost;
 					internalViaHost = balancerRunner.balancerContext.internalIpv6ViaHost;
@@ -1491,18 +1465,12 @@ public class SIPBalancerForwarder implements SipListener {
 			{
 				if(balancerRunner.balancerContext.routingRulesIpv4!=null&&received!=null)
 				{
-					boolean found = false;
-					for(RoutingRule rule : balancerRunner.balancerContext.routingRulesIpv4)
+					if(balancerRunner.balancerContext.addressCache.matchesRoutingRule(received, false))
 					{
-						if(rule.getIpPattern().matcher(received).matches()&&!rule.isPatch)
-						{
-							found = true;
-							currExternalRR = balancerRunner.balancerContext.activePrivateExternalHeader[transportIndex];
-							currInternalRR = balancerRunner.balancerContext.activePrivateInternalHeader[internalTransportIndex];
-							break;
-						}
+						currExternalRR = balancerRunner.balancerContext.activePrivateExternalHeader[transportIndex];
+						currInternalRR = balancerRunner.balancerContext.activePrivateInternalHeader[internalTransportIndex];
 					}
-					if(!found)
+					else
 					{
 						currExternalRR = balancerRunner.balancerContext.activeExternalHeader[transportIndex];
 						currInternalRR = balancerRunner.balancerContext.activeInternalHeader[internalTransportIndex];
@@ -1518,18 +1486,12 @@ public class SIPBalancerForwarder implements SipListener {
 			{
 				if(balancerRunner.balancerContext.routingRulesIpv6!=null&&received!=null)
 				{
-					boolean found = false;
-					for(RoutingRule rule : balancerRunner.balancerContext.routingRulesIpv6)
+					if(balancerRunner.balancerContext.addressCache.matchesRoutingRule(received, true))
 					{
-						if(rule.getIpPattern().matcher(received).matches()&&!rule.isPatch)
-						{
-							found = true;
-							currExternalRR = balancerRunner.balancerContext.activePrivateExternalIpv6Header[transportIndex];
-							currInternalRR = balancerRunner.balancerContext.activePrivateInternalIpv6Header[internalTransportIndex];
-							break;
-						}
+						currExternalRR = balancerRunner.balancerContext.activePrivateExternalIpv6Header[transportIndex];
+						currInternalRR = balancerRunner.balancerContext.activePrivateInternalIpv6Header[internalTransportIndex];
 					}
-					if(!found)
+					else
 					{
 						currExternalRR = balancerRunner.balancerContext.activeExternalIpv6Header[transportIndex];
 						currInternalRR = balancerRunner.balancerContext.activeInternalIpv6Header[internalTransportIndex];
@@ -1582,18 +1544,12 @@ public class SIPBalancerForwarder implements SipListener {
 			{
 				if(balancerRunner.balancerContext.routingRulesIpv4!=null&&routeHost!=null)
 				{
-					boolean found = false;
-					for(RoutingRule rule : balancerRunner.balancerContext.routingRulesIpv4)
+					if(balancerRunner.balancerContext.addressCache.matchesRoutingRule(routeHost, false))
 					{
-						if(rule.getIpPattern().matcher(routeHost).matches()&&!rule.isPatch)
-						{
-							found = true;
-							currExternalRR = balancerRunner.balancerContext.activePrivateExternalHeader[externalTransportIndex];
-							currInternalRR = balancerRunner.balancerContext.activePrivateInternalHeader[transportIndex];
-							break;
-						}
+						currExternalRR = balancerRunner.balancerContext.activePrivateExternalHeader[externalTransportIndex];
+						currInternalRR = balancerRunner.balancerContext.activePrivateInternalHeader[transportIndex];
 					}
-					if(!found)
+					else
 					{
 						currExternalRR = balancerRunner.balancerContext.activeExternalHeader[externalTransportIndex];
 						currInternalRR = balancerRunner.balancerContext.activeInternalHeader[transportIndex];
@@ -1609,18 +1565,12 @@ public class SIPBalancerForwarder implements SipListener {
 			{
 				if(balancerRunner.balancerContext.routingRulesIpv6!=null&&routeHost!=null)
 				{
-					boolean found = false;
-					for(RoutingRule rule : balancerRunner.balancerContext.routingRulesIpv6)
+					if(balancerRunner.balancerContext.addressCache.matchesRoutingRule(routeHost, true))
 					{
-						if(rule.getIpPattern().matcher(routeHost).matches()&&!rule.isPatch)
-						{
-							found = true;
-							currExternalRR = balancerRunner.balancerContext.activePrivateExternalIpv6Header[externalTransportIndex];
-							currInternalRR = balancerRunner.balancerContext.activePrivateInternalIpv6Header[transportIndex];
-							break;
-						}
+						currExternalRR = balancerRunner.balancerContext.activePrivateExternalIpv6Header[externalTransportIndex];
+						currInternalRR = balancerRunner.balancerContext.activePrivateInternalIpv6Header[transportIndex];
 					}
-					if(!found)
+					else
 					{
 						currExternalRR = balancerRunner.balancerContext.activeExternalIpv6Header[externalTransportIndex];
 						currInternalRR = balancerRunner.balancerContext.activeInternalIpv6Header[transportIndex];
@@ -1907,27 +1857,14 @@ public class SIPBalancerForwarder implements SipListener {
     	}
     	else
     	{
-    		String cleanHost=host;
-    		if(cleanHost.startsWith("["))
-    			cleanHost=cleanHost.substring(1);
-    		
-    		if(cleanHost.endsWith("]"))
-    			cleanHost=cleanHost.substring(0,cleanHost.length()-1);
-    		
-    		InetAddress address=null;
-    		try
-    		{
-    			address=InetAddress.getByName(cleanHost);
-    		}
-    		catch(UnknownHostException ex)
-    		{
-    			
-    		}
-    		
-    		if(address==null)
+    		AddressCache.ResolvedAddress address=balancerRunner.balancerContext.addressCache.resolve(host);
+    		if(address.getAddress()==null)
     			return false;
     		
-    		if (address.equals(balancerRunner.balancerContext.externalIpv6HostAddress))
+    		if(!address.isIpv6())
+    			return true;
+    		
+    		if (address.is(AddressCache.EXTERNAL_HOST))
     		{    			
     			if(balancerRunner.balancerContext.getExternalPortByTransport(transport,true)==port)
     				return false;
@@ -1937,7 +1874,7 @@ public class SIPBalancerForwarder implements SipListener {
     		}
     			
 
-    		if(address.equals(balancerRunner.balancerContext.internalIpv6HostAddress))
+    		if(address.is(AddressCache.INTERNAL_HOST))
     		{
     			if(balancerRunner.balancerContext.getInternalPortByTransport(transport,true)==port)
     				return false;
@@ -1946,7 +1883,7 @@ public class SIPBalancerForwarder implements SipListener {
     				return false;
     		}
     		
-    		if(balancerRunner.balancerContext.externalIpv6LoadBalancerAddressHosts.contains(address))
+    		if(address.is(AddressCache.EXTERNAL_LOAD_BALANCER_ADDRESS))
     		{
     			if(balancerRunner.balancerContext.getExternalPortByTransport(transport,true)==port)
     				return false;
@@ -1955,7 +1892,7 @@ public class SIPBalancerForwarder implements SipListener {
     				return false;
     		}
     		
-    		if(balancerRunner.balancerContext.internalIpv6LoadBalancerAddressHosts.contains(address))
+    		if(address.is(AddressCache.INTERNAL_LOAD_BALANCER_ADDRESS))
     		{
     			if(balancerRunner.balancerContext.getInternalPortByTransport(transport,true)==port)
     				return false;
@@ -1964,7 +1901,7 @@ public class SIPBalancerForwarder implements SipListener {
     				return false;
     		}
     		
-    		if(address.equals(balancerRunner.balancerContext.publicIPv6Host))
+    		if(address.is(AddressCache.PUBLIC_IP))
     		{
     			if(balancerRunner.balancerContext.getExternalPortByTransport(transport,true)==port)
     				return false;
@@ -2809,6 +2746,10 @@ public class SIPBalancerForwarder implements SipListener {
     	balancerRunner.balancerContext.maxResponseTime = balancerRunner.balancerContext.lbConfig.getSipConfiguration().getMaxResponseTime();
     	balancerRunner.balancerContext.routingRulesIpv4 = balancerRunner.balancerContext.lbConfig.getSipConfiguration().getRoutingRulesIpv4();
     	balancerRunner.balancerContext.routingRulesIpv6 = balancerRunner.balancerContext.lbConfig.getSipConfiguration().getRoutingRulesIpv6();
+    	balancerRunner.balancerContext.routingRuleSetIpv4 = new RoutingRuleSet(balancerRunner.balancerContext.routingRulesIpv4);
+    	balancerRunner.balancerContext.routingRuleSetIpv6 = new RoutingRuleSet(balancerRunner.balancerContext.routingRulesIpv6);
+    	// addresses seen before the configuration was read may have been classified against empty hosts
+    	balancerRunner.balancerContext.addressCache.clear();
     	
 	}
     
@@ -48,7 +48,7 @@ public class SIPBalancerValveProcessor implements SIPMessageValve {
 		try {
 			SipProvider p = null;
 			Boolean isIpv6=false;
-			InetAddress address = InetAddress.getByName(messageChannel.getHost());
+			InetAddress address = balancerRunner.balancerContext.addressCache.getAddress(messageChannel.getHost());
 			if (address instanceof Inet6Address) 
 			{
 				isIpv6=true;
@@ -85,7 +85,7 @@ public class SIPBalancerValveProcessor implements SIPMessageValve {
 		try {
 			SipProvider p = null;
 			Boolean isIpv6=false;
-			InetAddress address = InetAddress.getByName(messageChannel.getHost());
+			InetAddress address = balancerRunner.balancerContext.addressCache.getAddress(messageChannel.getHost());
 			if (address instanceof Inet6Address) 
 			{
 				isIpv6=true;
@@ -0,0 +1,126 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2017, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.tools.sip.balancer;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.mobicents.tools.heartbeat.api.Node;
+
+/**
+ * Map of the SIP nodes by their {@link KeySip}, with a secondary index from every single
+ * address and port of a node to the key of the node. A key built from the host and port of
+ * a message finds the node through this index, whichever of its ports the message used.
+ * Keys of host names are resolved through the address cache, if the map has one.
+ * Updates are serialized since they only come from the node registration, lookups are not locked.
+ */
+
+public class SipNodeMap extends ConcurrentHashMap<KeySip, Node> {
+
+	private static final long serialVersionUID = 1L;
+
+	private final ConcurrentHashMap<KeySip, KeySip> endpoints = new ConcurrentHashMap<KeySip, KeySip>();
+	private final AddressCache addressCache;
+
+	public SipNodeMap() {
+		this(null);
+	}
+
+	public SipNodeMap(AddressCache addressCache) {
+		this.addressCache = addressCache;
+	}
+
+	@Override
+	public synchronized Node put(KeySip key, Node node) {
+		key = key.resolve(addressCache);
+		Node previous = super.put(key, node);
+		for(int i = 0; i < key.getNumberOfPorts(); i++)
+			endpoints.put(key.endpoint(i), key);
+		return previous;
+	}
+
+	@Override
+	public Node get(Object key) {
+		key = resolve(key);
+		Node node = super.get(key);
+		if(node == null) {
+			KeySip nodeKey = getNodeKey(key);
+			if(nodeKey != null)
+				node = super.get(nodeKey);
+		}
+		return node;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return get(key) != null;
+	}
+
+	/**
+	 * Nodes are only looked up by their own key, the values are never scanned: a node
+	 * is not found when no node is registered with the same address and ports
+	 */
+	@Override
+	public boolean containsValue(Object value) {
+		if(!(value instanceof Node))
+			return false;
+		Node node = (Node) value;
+		Node registered = super.get(new KeySip(node, false).resolve(addressCache));
+		return registered != null && (registered == node || node.equals(registered));
+	}
+
+	@Override
+	public synchronized Node remove(Object key) {
+		if(!(key instanceof KeySip))
+			return null;
+		KeySip nodeKey = ((KeySip) key).resolve(addressCache);
+		key = nodeKey;
+		Node node = super.remove(nodeKey);
+		if(node == null) {
+			nodeKey = getNodeKey(key);
+			if(nodeKey == null)
+				return null;
+			node = super.remove(nodeKey);
+		}
+		for(int i = 0; i < nodeKey.getNumberOfPorts(); i++)
+			endpoints.remove(nodeKey.endpoint(i), nodeKey);
+		return node;
+	}
+
+	@Override
+	public synchronized void clear() {
+		super.clear();
+		endpoints.clear();
+	}
+
+	private Object resolve(Object key) {
+		if(key instanceof KeySip)
+			return ((KeySip) key).resolve(addressCache);
+		return key;
+	}
+
+	/**
+	 * @return the key of the node listening on the first address and port of the given key
+	 */
+	private KeySip getNodeKey(Object key) {
+		if(!(key instanceof KeySip) || ((KeySip) key).getNumberOfPorts() == 0)
+			return null;
+		return endpoints.get(((KeySip) key).endpoint(0));
+	}
+}
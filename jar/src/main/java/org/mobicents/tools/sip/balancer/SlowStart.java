@@ -0,0 +1,72 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2017, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+package org.mobicents.tools.sip.balancer;
+
+import org.mobicents.tools.configuration.SipConfiguration;
+import org.mobicents.tools.heartbeat.api.Node;
+
+/**
+ * Ramp-up of the nodes which joined recently: the weight of a node is multiplied by a factor growing
+ * with the time since it joined, from the <code>trafficPercentageIncrease</code> share up to its full
+ * weight after one <code>trafficRampupCyclePeriod</code> per increase. The factor grows linearly, or
+ * exponentially when <code>trafficRampupCurve</code> is <code>exponential</code>.
+ */
+final class SlowStart {
+
+	static final String LINEAR = "linear";
+	static final String EXPONENTIAL = "exponential";
+
+	private final long window;
+	private final double initialShare;
+	private final boolean exponential;
+
+	SlowStart(long window, double initialShare, boolean exponential) {
+		this.window = window;
+		this.initialShare = initialShare;
+		this.exponential = exponential;
+	}
+
+	/**
+	 * @return the ramp-up of the configuration, null if it is disabled
+	 */
+	static SlowStart create(SipConfiguration configuration) {
+		Integer period = configuration.getTrafficRampupCyclePeriod();
+		Integer maxWeightIndex = configuration.getMaxWeightIndex();
+		if(period == null || maxWeightIndex == null || period <= 0 || maxWeightIndex <= 1)
+			return null;
+		return new SlowStart((long) period * maxWeightIndex, 1.0 / maxWeightIndex,
+				EXPONENTIAL.equalsIgnoreCase(configuration.getTrafficRampupCurve()));
+	}
+
+	/**
+	 * @param now the current time in milliseconds
+	 * @return the share of its weight the node gets, between the initial share and 1
+	 */
+	double factor(Node node, long now) {
+		long elapsed = now - node.getJoinTime();
+		if(elapsed >= window)
+			return 1;
+		if(elapsed <= 0)
+			return initialShare;
+		double progress = (double) elapsed / window;
+		if(exponential)
+			return Math.pow(initialShare, 1 - progress);
+		return Math.max(initialShare, progress);
+	}
+}
@@ -0,0 +1,179 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2017, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+package org.mobicents.tools.sip.balancer;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.mobicents.tools.heartbeat.api.Node;
+import org.mobicents.tools.heartbeat.api.Protocol;
+
+/**
+ * Weighted round robin of nginx over a fixed array of nodes and weights: at each pick every node gains
+ * its weight, the node with the most is picked and gives back the total of the weights. A node gets a
+ * share of the picks proportional to its weight and its picks are spread over the round instead of coming
+ * in bursts. The weight of a node is its {@link Protocol#WEIGHT} heartbeat property. The picks of one
+ * round are computed once, so a pick only reads the next position of the round, skipping the nodes which
+ * are bad or shutting down. A node ramping up with a {@link SlowStart} only keeps the positions it gets
+ * for the share of its weight given by the ramp-up.
+ */
+final class SmoothWeightedRoundRobin {
+	private static Logger logger = Logger.getLogger(SmoothWeightedRoundRobin.class.getCanonicalName());
+
+	// longest round computed, a round with more picks is cut short
+	static final int MAX_ROUND = 4096;
+	// positions a ramping up pick may go through before taking the first available node
+	private static final int RAMP_UP_PASSES = 16;
+	// decimals kept from the weights
+	private static final double MAX_SCALE = 1e6;
+	// largest weight once scaled to an integer, so the total of the weights fits in a long
+	private static final double MAX_INTEGER_WEIGHT = 1e12;
+
+	private final Node[] nodes;
+	// the index in the nodes of each pick of the round
+	private final int[] round;
+
+	SmoothWeightedRoundRobin(Node[] nodes) {
+		this.nodes = nodes;
+		this.round = round(nodes);
+	}
+
+	/**
+	 * @return the picks of one round, one per node in the order of the nodes if they all have the same weight
+	 */
+	static int[] round(Node[] nodes) {
+		long[] weights = integerWeights(nodes);
+		long total = 0;
+		long gcd = 0;
+		for(int i = 0; i < nodes.length; i++) {
+			total += weights[i];
+			gcd = gcd(gcd, weights[i]);
+		}
+		// the picks repeat themselves after total / gcd picks
+		int length = nodes.length == 0 ? 0 : (int) Math.max(nodes.length, Math.min(MAX_ROUND, total / gcd));
+		int[] round = new int[length];
+		long[] current = new long[nodes.length];
+		for(int pick = 0; pick < length; pick++) {
+			int best = 0;
+			for(int i = 0; i < nodes.length; i++) {
+				current[i] += weights[i];
+				if(current[i] > current[best])
+					best = i;
+			}
+			current[best] -= total;
+			round[pick] = best;
+		}
+		return round;
+	}
+
+	/**
+	 * Weights with decimals are scaled by the smallest power of ten making them integers, up to
+	 * {@link #MAX_SCALE}, and rounded. The largest weight is kept below {@link #MAX_INTEGER_WEIGHT}.
+	 * @return the weights of the nodes as integers with the same ratios
+	 */
+	static long[] integerWeights(Node[] nodes) {
+		double[] weights = new double[nodes.length];
+		double max = 0;
+		for(int i = 0; i < nodes.length; i++) {
+			weights[i] = weight(nodes[i]);
+			max = Math.max(max, weights[i]);
+		}
+		double scale = max > MAX_INTEGER_WEIGHT ? MAX_INTEGER_WEIGHT / max : 1;
+		while(scale < MAX_SCALE && max * scale * 10 <= MAX_INTEGER_WEIGHT && !isInteger(weights, scale))
+			scale *= 10;
+		long[] integers = new long[nodes.length];
+		for(int i = 0; i < nodes.length; i++)
+			integers[i] = Math.max(1, Math.round(weights[i] * scale));
+		return integers;
+	}
+
+	private static boolean isInteger(double[] weights, double scale) {
+		for(double weight : weights) {
+			double scaled = weight * scale;
+			if(Math.abs(scaled - Math.rint(scaled)) > 1e-9 * scaled)
+				return false;
+		}
+		return true;
+	}
+
+	private static long gcd(long a, long b) {
+		while(b != 0) {
+			long remainder = a % b;
+			a = b;
+			b = remainder;
+		}
+		return a;
+	}
+
+	/**
+	 * @return the weight advertised by the node, 1 if it has none or an invalid one
+	 */
+	static double weight(Node node) {
+		String weight = node.getProperties().get(Protocol.WEIGHT);
+		if(weight == null)
+			return 1;
+		try {
+			double value = Double.parseDouble(weight);
+			if(value > 0 && !Double.isInfinite(value))
+				return value;
+		} catch (NumberFormatException e) {
+		}
+		logger.warn("Ignoring the invalid weight " + weight + " of " + node);
+		return 1;
+	}
+
+	/**
+	 * @param position the position in the round, moved past the pick
+	 * @return the next node which is neither bad nor shutting down, null if there is none
+	 */
+	Node next(AtomicInteger position) {
+		for(int i = 0; i < round.length; i++) {
+			Node node = nodes[round[(position.getAndIncrement() & Integer.MAX_VALUE) % round.length]];
+			if(!node.isGracefulShutdown() && !node.isBad())
+				return node;
+		}
+		return null;
+	}
+
+	/**
+	 * A ramping up node keeps a position with the probability of its ramp-up factor, drawn from a
+	 * Weyl sequence over the positions so the shares are met without any state of its own.
+	 * @param position the position in the round, moved past the pick
+	 * @param slowStart the ramp-up of the nodes
+	 * @param now the current time in milliseconds
+	 * @return the next node which is neither bad nor shutting down, null if there is none
+	 */
+	Node next(AtomicInteger position, SlowStart slowStart, long now) {
+		Node available = null;
+		for(int i = 0; i < round.length * RAMP_UP_PASSES; i++) {
+			int index = position.getAndIncrement();
+			Node node = nodes[round[(index & Integer.MAX_VALUE) % round.length]];
+			if(node.isGracefulShutdown() || node.isBad()) {
+				if(available == null && i >= round.length)
+					return null;
+				continue;
+			}
+			if(((index * 0x9e3779b9) >>> 8) * 0x1.0p-24 < slowStart.factor(node, now))
+				return node;
+			if(available == null)
+				available = node;
+		}
+		return available;
+	}
+}
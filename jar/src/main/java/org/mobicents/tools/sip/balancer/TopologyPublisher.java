@@ -0,0 +1,160 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2017, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.tools.sip.balancer;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.log4j.Logger;
+import org.mobicents.tools.heartbeat.api.Node;
+
+/**
+ * Applies the membership changes of the node register in batches : the changes queued while a batch
+ * is applied form the next one, so the list of alive nodes is copied once per batch and the algorithm
+ * of each invocation context is notified once per batch with {@link BalancerAlgorithm#nodesChanged(List, List)}.
+ * Each applied batch is a new topology version, published to each changed context as a new {@link RoutingTable}
+ * built from its node maps, so the maps must be updated before the change is queued. A node whose properties changed in place
+ * only gets its context a new routing table, the algorithms aren't notified. The thread queuing a change applies it before returning
+ * unless another thread is already applying a batch, which then also applies this change.
+ */
+public class TopologyPublisher {
+	private static Logger logger = Logger.getLogger(TopologyPublisher.class.getCanonicalName());
+
+	private final CopyOnWriteArrayList<Node> aliveNodes;
+	private final ConcurrentLinkedQueue<Change> pending = new ConcurrentLinkedQueue<Change>();
+	private final ReentrantLock publishLock = new ReentrantLock();
+	private final AtomicLong version = new AtomicLong();
+
+	public TopologyPublisher(CopyOnWriteArrayList<Node> aliveNodes) {
+		this.aliveNodes = aliveNodes;
+	}
+
+	public void nodeAdded(InvocationContext ctx, Node node) {
+		pending.add(new Change(ctx, node, Kind.ADDED));
+		publish();
+	}
+
+	public void nodeRemoved(InvocationContext ctx, Node node) {
+		pending.add(new Change(ctx, node, Kind.REMOVED));
+		publish();
+	}
+
+	public void nodeChanged(InvocationContext ctx, Node node) {
+		pending.add(new Change(ctx, node, Kind.CHANGED));
+		publish();
+	}
+
+	/**
+	 * @return the number of topology versions published so far
+	 */
+	public long getVersion() {
+		return version.get();
+	}
+
+	private void publish() {
+		// the thread holding the lock checks the queue again after releasing it, so no change is left behind
+		while(!pending.isEmpty() && publishLock.tryLock()) {
+			try {
+				List<Change> batch = new ArrayList<Change>();
+				Change change;
+				while((change = pending.poll()) != null)
+					batch.add(change);
+				if(!batch.isEmpty())
+					apply(batch);
+			} finally {
+				publishLock.unlock();
+			}
+		}
+	}
+
+	private void apply(List<Change> batch) {
+		Map<InvocationContext, List<Node>> removedByContext = new LinkedHashMap<InvocationContext, List<Node>>();
+		Map<InvocationContext, List<Node>> addedByContext = new LinkedHashMap<InvocationContext, List<Node>>();
+		for(Change change : batch) {
+			List<Node> added = get(addedByContext, change.ctx);
+			if(change.kind == Kind.ADDED)
+				added.add(change.node);
+			else if(change.kind == Kind.REMOVED && !removeSame(added, change.node))
+				get(removedByContext, change.ctx).add(change.node);
+		}
+		List<Node> removed = new ArrayList<Node>();
+		List<Node> added = new ArrayList<Node>();
+		for(List<Node> nodes : removedByContext.values())
+			removed.addAll(nodes);
+		for(List<Node> nodes : addedByContext.values())
+			added.addAll(nodes);
+		if(!removed.isEmpty())
+			aliveNodes.removeAll(removed);
+		if(!added.isEmpty())
+			aliveNodes.addAll(added);
+		long published = version.incrementAndGet();
+		for(Map.Entry<InvocationContext, List<Node>> entry : addedByContext.entrySet()) {
+			entry.getKey().publishRoutingTable(published);
+			List<Node> removedFromContext = get(removedByContext, entry.getKey());
+			if(!removedFromContext.isEmpty() || !entry.getValue().isEmpty())
+				entry.getKey().balancerAlgorithm.nodesChanged(removedFromContext, entry.getValue());
+		}
+		if(logger.isDebugEnabled())
+			logger.debug("Topology version " + published + " published, " + removed.size() + " nodes removed, "
+					+ added.size() + " nodes added, " + aliveNodes.size() + " nodes alive");
+	}
+
+	// a node added then removed in the same batch is never published
+	private static boolean removeSame(List<Node> nodes, Node node) {
+		for(int i = 0; i < nodes.size(); i++) {
+			if(nodes.get(i) == node) {
+				nodes.remove(i);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static List<Node> get(Map<InvocationContext, List<Node>> nodesByContext, InvocationContext ctx) {
+		List<Node> nodes = nodesByContext.get(ctx);
+		if(nodes == null) {
+			nodes = new ArrayList<Node>();
+			nodesByContext.put(ctx, nodes);
+		}
+		return nodes;
+	}
+
+	private enum Kind {
+		ADDED, REMOVED, CHANGED
+	}
+
+	private static final class Change {
+		private final InvocationContext ctx;
+		private final Node node;
+		private final Kind kind;
+
+		private Change(InvocationContext ctx, Node node, Kind kind) {
+			this.ctx = ctx;
+			this.node = node;
+			this.kind = kind;
+		}
+	}
+}
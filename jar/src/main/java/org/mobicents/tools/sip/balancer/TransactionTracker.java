@@ -0,0 +1,255 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2017, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+package org.mobicents.tools.sip.balancer;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sip.header.CSeqHeader;
+import javax.sip.header.ViaHeader;
+import javax.sip.message.Request;
+import javax.sip.message.Response;
+
+import org.mobicents.tools.heartbeat.api.Node;
+
+/**
+ * Keeps the transactions forwarded to or from the nodes until their final response, keyed by the
+ * branch of their topmost Via and their method, which the load balancer finds again on the responses
+ * once it removed its own Via. Each node counts its outstanding transactions in
+ * {@link Node#getOutstandingTransactions()} so the algorithms read the load of a node without scanning
+ * anything. Transactions never answered are dropped after the SIP transaction timeout : each one sits in
+ * the bucket of its deadline on a timing wheel, as in {@link AffinityTable}, and the thread forwarding a
+ * request advances the wheel at most once per second, visiting only the buckets which came due.
+ */
+public class TransactionTracker {
+
+	// 64*T1, the timeout of the client transactions
+	public static final long DEFAULT_TIMEOUT = 32000;
+	private static final long TICK_DURATION = TimeUnit.SECONDS.toNanos(1);
+	private static final int CONCURRENCY_LEVEL = 64;
+
+	private final ConcurrentHashMap<String, Transaction> transactions = new ConcurrentHashMap<String, Transaction>(1024, 0.75f, CONCURRENCY_LEVEL);
+	private final AtomicInteger total = new AtomicInteger();
+	private final AtomicLong nextSweep = new AtomicLong();
+	private final long timeout;
+	// answered transactions stay in their bucket until it comes due
+	private final ConcurrentLinkedQueue<Transaction>[] wheel;
+	private final int mask;
+	// the ticks are counted from the creation of the tracker since System.nanoTime() may be negative
+	private final long origin = System.nanoTime();
+	private long lastTick = Long.MIN_VALUE;
+
+	public TransactionTracker() {
+		this(DEFAULT_TIMEOUT);
+	}
+
+	/**
+	 * @param timeout the time in milliseconds after which an unanswered transaction is dropped
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public TransactionTracker(long timeout) {
+		this.timeout = TimeUnit.MILLISECONDS.toNanos(timeout);
+		// one turn of the wheel is longer than the timeout, so a bucket only holds deadlines of the same turn
+		int wheelSize = Integer.highestOneBit((int) (this.timeout / TICK_DURATION) + 1) << 1;
+		this.mask = wheelSize - 1;
+		this.wheel = new ConcurrentLinkedQueue[wheelSize];
+		for(int i = 0; i < wheelSize; i++)
+			wheel[i] = new ConcurrentLinkedQueue<Transaction>();
+	}
+
+	/**
+	 * Starts a transaction with the node, retransmissions and ACKs are ignored
+	 *
+	 * @return the new transaction, null if it wasn't tracked
+	 */
+	public Transaction requestSent(Request request, Node node) {
+		if(node == null || Request.ACK.equals(request.getMethod()))
+			return null;
+		String key = key(request);
+		if(key == null)
+			return null;
+		long now = System.nanoTime();
+		expireIfDue(now);
+		Transaction transaction = new Transaction(key, node, now);
+		if(transactions.putIfAbsent(key, transaction) != null)
+			return null;
+		node.getOutstandingTransactions().incrementAndGet();
+		total.incrementAndGet();
+		schedule(transaction);
+		return transaction;
+	}
+
+	/**
+	 * Ends the transaction of a final response
+	 *
+	 * @return the transaction ended, null for provisional responses and unknown transactions
+	 */
+	public Transaction responseReceived(Response response) {
+		if(response.getStatusCode() < 200)
+			return null;
+		String key = key(response);
+		if(key == null)
+			return null;
+		Transaction transaction = transactions.remove(key);
+		if(transaction != null)
+			end(transaction);
+		return transaction;
+	}
+
+	/**
+	 * @return the node of the transaction a request is retransmitted in, or of the INVITE a CANCEL follows,
+	 * null if the transaction is already answered or unknown
+	 */
+	public Node getNode(Request request) {
+		ViaHeader via = (ViaHeader) request.getHeader(ViaHeader.NAME);
+		if(via == null || via.getBranch() == null)
+			return null;
+		String method = Request.CANCEL.equals(request.getMethod()) ? Request.INVITE : request.getMethod();
+		Transaction transaction = transactions.get(via.getBranch() + ":" + method);
+		return transaction == null ? null : transaction.node;
+	}
+
+	/**
+	 * @return the number of outstanding transactions over all the nodes
+	 */
+	public int getTotal() {
+		return total.get();
+	}
+
+	public int size() {
+		return transactions.size();
+	}
+
+	private void expireIfDue(long now) {
+		long due = nextSweep.get();
+		if(now - due >= 0 && nextSweep.compareAndSet(due, now + TICK_DURATION))
+			expire(now);
+	}
+
+	/**
+	 * Advances the wheel up to the given time and drops the transactions started before the timeout
+	 *
+	 * @param now the current {@link System#nanoTime()}
+	 * @return the number of transactions dropped
+	 */
+	public synchronized int expire(long now) {
+		long currentTick = tick(now);
+		if(lastTick == Long.MIN_VALUE || currentTick - lastTick > mask + 1)
+			lastTick = currentTick - mask - 1;
+
+		int expired = 0;
+		ArrayList<Transaction> rescheduled = new ArrayList<Transaction>();
+		// a tick is processed once it is fully in the past, so every deadline in its bucket has passed
+		while(lastTick < currentTick) {
+			ConcurrentLinkedQueue<Transaction> bucket = wheel[(int) (lastTick & mask)];
+			Transaction transaction;
+			while((transaction = bucket.poll()) != null) {
+				if(now - transaction.startTime < timeout)
+					rescheduled.add(transaction);
+				else if(transactions.remove(transaction.key, transaction)) {
+					end(transaction);
+					expired++;
+				}
+			}
+			for(Transaction pending : rescheduled)
+				schedule(pending);
+			rescheduled.clear();
+			lastTick++;
+		}
+		return expired;
+	}
+
+	/**
+	 * Drops all the transactions, their nodes stop counting them
+	 */
+	public void clear() {
+		for(Transaction transaction : transactions.values()) {
+			if(transactions.remove(transaction.key, transaction))
+				end(transaction);
+		}
+		for(ConcurrentLinkedQueue<Transaction> bucket : wheel)
+			bucket.clear();
+	}
+
+	private void schedule(Transaction transaction) {
+		wheel[(int) (tick(transaction.startTime + timeout) & mask)].offer(transaction);
+	}
+
+	private long tick(long time) {
+		return (time - origin) / TICK_DURATION;
+	}
+
+	private void end(Transaction transaction) {
+		transaction.node.getOutstandingTransactions().decrementAndGet();
+		total.decrementAndGet();
+	}
+
+	private static String key(Request request) {
+		ViaHeader via = (ViaHeader) request.getHeader(ViaHeader.NAME);
+		if(via == null || via.getBranch() == null)
+			return null;
+		return via.getBranch() + ":" + request.getMethod();
+	}
+
+	private static String key(Response response) {
+		ViaHeader via = (ViaHeader) response.getHeader(ViaHeader.NAME);
+		CSeqHeader cseq = (CSeqHeader) response.getHeader(CSeqHeader.NAME);
+		if(via == null || via.getBranch() == null || cseq == null)
+			return null;
+		return via.getBranch() + ":" + cseq.getMethod();
+	}
+
+	/**
+	 * @return the node which sent a request, found from its topmost Via, null if it isn't a node
+	 */
+	public static Node senderNode(Request request, InvocationContext context) {
+		ViaHeader via = (ViaHeader) request.getHeader(ViaHeader.NAME);
+		if(via == null)
+			return null;
+		Boolean isIpV6 = LbUtils.isValidInet6Address(via.getHost());
+		return context.sipNodeMap(isIpV6).get(new KeySip(via.getHost(), via.getPort(), isIpV6));
+	}
+
+	public static final class Transaction {
+		private final String key;
+		private final Node node;
+		private final long startTime;
+
+		Transaction(String key, Node node, long startTime) {
+			this.key = key;
+			this.node = node;
+			this.startTime = startTime;
+		}
+
+		public Node getNode() {
+			return node;
+		}
+
+		/**
+		 * @return the {@link System#nanoTime()} the request was forwarded at
+		 */
+		public long getStartTime() {
+			return startTime;
+		}
+	}
+}
@@ -26,14 +26,11 @@ import gov.nist.javax.sip.message.ResponseExt;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.Map.Entry;
 import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import javax.sip.ListeningPoint;
 import javax.sip.address.SipURI;
@@ -99,9 +96,8 @@ public class UserBasedAlgorithm extends DefaultBalancerAlgorithm {
 			//if(node == null || !invocationContext.nodes.contains(node)) {
 			if(node == null || !invocationContext.sipNodeMap(isIpV6).containsValue(node)) {
 				node = selectNewNode(node, headerKey, isIpV6);
-				String transportProperty = transport + "Port";
-				port = Integer.parseInt(node.getProperties().get(transportProperty));
-				if(port == null) throw new RuntimeException("No transport found for node " + node + " " + transportProperty);
+				port = node.getPort(transport);
+				if(port == null) throw new RuntimeException("No transport found for node " + node + " " + transport + "Port");
 				if(logger.isDebugEnabled()) {
 					logger.debug("changing via " + via + "setting new values " + node.getIp() + ":" + port);
 				}
@@ -169,9 +165,8 @@ public class UserBasedAlgorithm extends DefaultBalancerAlgorithm {
 			//if(node == null || !invocationContext.nodes.contains(node)) {
 			if(node == null || !invocationContext.sipNodeMap(isIpV6).containsValue(node)) {
 				node = selectNewNode(node, headerKey, isIpV6);
-				String transportProperty = transport + "Port";
-				port = Integer.parseInt(node.getProperties().get(transportProperty));
-				if(port == null) throw new RuntimeException("No transport found for node " + node + " " + transportProperty);
+				port = node.getPort(transport);
+				if(port == null) throw new RuntimeException("No transport found for node " + node + " " + transport + "Port");
 				if(logger.isDebugEnabled()) {
 					logger.debug("changing via " + via + "setting new values " + node.getIp() + ":" + port);
 				}
@@ -187,8 +182,7 @@ public class UserBasedAlgorithm extends DefaultBalancerAlgorithm {
 				}
 				
 			} else {
-				String transportProperty = transport + "Port";
-				port = Integer.parseInt(node.getProperties().get(transportProperty));
+				port = node.getPort(transport);
 				if(via.getHost().equalsIgnoreCase(node.getIp()) || via.getPort() != port) {
 					if(logger.isDebugEnabled()) {
 						logger.debug("changing retransmission via " + via + "setting new values " + node.getIp() + ":" + port);
@@ -214,23 +208,20 @@ public class UserBasedAlgorithm extends DefaultBalancerAlgorithm {
 	public Node processExternalRequest(Request request, Boolean isIpV6) {
 		String headerKey = extractHeaderKey(request);
 		Node node = null;
-		if (balancerContext.regexMap != null && balancerContext.regexMap.size() != 0) {
+		RegexRoutes regexRoutes = balancerContext.regexRoutes;
+		if (!regexRoutes.isEmpty()) {
 			if (logger.isDebugEnabled())
 				logger.debug("regexMap is not empty : " + balancerContext.regexMap);
 
-			for (Entry<String, KeySip> entry : balancerContext.regexMap.entrySet()) {
-				Pattern r = Pattern.compile(entry.getKey());
-				Matcher m = r.matcher(headerKey);
-				if (m.find()) {
-					node = invocationContext.sipNodeMap(isIpV6).get(entry.getValue());
-					if (node != null) {
-						if (logger.isDebugEnabled())
-							logger.debug("Found node for pattern : " + entry.getKey() + " and key :" + entry.getValue());
-						return node;
-					} else {
-						if (logger.isDebugEnabled())
-							logger.debug("Node not found in the map of nodes. It is null. For pattern: " + entry.getKey() + " and key :" + entry.getValue());
-					}
+			for (int route : regexRoutes.match(headerKey)) {
+				node = invocationContext.sipNodeMap(isIpV6).get(regexRoutes.getKey(route));
+				if (node != null) {
+					if (logger.isDebugEnabled())
+						logger.debug("Found node for pattern : " + regexRoutes.getRegex(route) + " and key :" + regexRoutes.getKey(route));
+					return node;
+				} else {
+					if (logger.isDebugEnabled())
+						logger.debug("Node not found in the map of nodes. It is null. For pattern: " + regexRoutes.getRegex(route) + " and key :" + regexRoutes.getKey(route));
 				}
 			}
 		} else {
@@ -296,49 +287,8 @@ public class UserBasedAlgorithm extends DefaultBalancerAlgorithm {
 		return node;
 	}
 	
-	protected synchronized Node nextAvailableNode(Boolean isIpV6) {
-		if(invocationContext.sipNodeMap(isIpV6).size() == 0) return null;
-		Iterator<Entry<KeySip, Node>> currIt = null; 
-		if(isIpV6)
-			currIt = ipv6It;
-		else
-			currIt = ipv4It;
-		if(currIt==null)
-		{
-			currIt = invocationContext.sipNodeMap(isIpV6).entrySet().iterator();
-			if(isIpV6)
-				 ipv6It = currIt;
-			else
-				 ipv4It = currIt;
-		}
-		Entry<KeySip, Node> pair = null;
-		int count = invocationContext.sipNodeMap(isIpV6).size();
-		while(count>0)
-		{
-			while(currIt.hasNext() && count > 0)
-			{
-				pair = currIt.next();
-				if(invocationContext.sipNodeMap(isIpV6).containsKey(pair.getKey())
-						&&!invocationContext.sipNodeMap(isIpV6).get(pair.getKey()).isGracefulShutdown()
-						&&!invocationContext.sipNodeMap(isIpV6).get(pair.getKey()).isBad())
-				{
-					return pair.getValue();
-				}
-				else
-				{
-					count--;
-				}
-			}
-			
-			if(!currIt.hasNext())
-				currIt = invocationContext.sipNodeMap(isIpV6).entrySet().iterator();
-			
-			if(isIpV6)
-				 ipv6It = currIt;
-			else
-				 ipv4It = currIt;
-		}
-		return null;
+	protected Node nextAvailableNode(Boolean isIpV6) {
+		return invocationContext.getRoutingTable().nextAvailableNode(isIpV6);
 	}
 	
 	protected synchronized Node leastBusyTargetNode(Node deadNode) {
@@ -420,6 +370,7 @@ public class UserBasedAlgorithm extends DefaultBalancerAlgorithm {
 	
 	@Override
 	public void configurationChanged() {
+		super.configurationChanged();
 		this.cacheEvictionTimer.cancel();
 		this.cacheEvictionTimer = new Timer();
 		init();
@@ -115,7 +115,7 @@ public class WorstCaseUdpTestAffinityAlgorithm extends DefaultBalancerAlgorithm
                     else if (transport.equalsIgnoreCase(ListeningPointExt.WSS))
                         transport=ListeningPointExt.WS.toLowerCase();
                         
-			Integer port = Integer.parseInt(node.getProperties().get(transport + "Port"));
+			Integer port = node.getPort(transport);
 			uri.setPort(port);
 
 
@@ -182,9 +182,8 @@ public class WorstCaseUdpTestAffinityAlgorithm extends DefaultBalancerAlgorithm
 				node = selectNewNode(node, callId);
 				try {
 					via.setHost(node.getIp());
-					String transportProperty = transport.toLowerCase() + "Port";
-					Integer port = Integer.parseInt(node.getProperties().get(transportProperty));
-					if(port == null) throw new RuntimeException("No transport found for node " + node + " " + transportProperty);
+					Integer port = node.getPort(transport);
+					if(port == null) throw new RuntimeException("No transport found for node " + node + " " + transport + "Port");
 					via.setPort(port);
 				} catch (Exception e) {
 					throw new RuntimeException("Error", e);
@@ -206,9 +205,8 @@ public class WorstCaseUdpTestAffinityAlgorithm extends DefaultBalancerAlgorithm
 				}
 				try {
 					via.setHost(node.getIp());
-					String transportProperty = transport.toLowerCase() + "Port";
-					Integer port = Integer.parseInt(node.getProperties().get(transportProperty));
-					if(port == null) throw new RuntimeException("No transport found for node " + node + " " + transportProperty);
+					Integer port = node.getPort(transport);
+					if(port == null) throw new RuntimeException("No transport found for node " + node + " " + transport + "Port");
 					via.setPort(port);
 				} catch (Exception e) {
 					throw new RuntimeException("Error", e);
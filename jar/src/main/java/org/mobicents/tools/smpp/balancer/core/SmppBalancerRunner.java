@@ -27,6 +27,7 @@ import java.util.concurrent.atomic.AtomicLong;
 import org.apache.log4j.Logger;
 import org.mobicents.tools.sip.balancer.BalancerRunner;
 import org.mobicents.tools.smpp.balancer.api.Dispatcher;
+import org.mobicents.tools.smpp.balancer.timers.HashedWheelScheduler;
 import org.mobicents.tools.smpp.multiplexer.MBalancerDispatcher;
 import org.mobicents.tools.smpp.multiplexer.MServer;
 import org.mobicents.tools.smpp.multiplexer.UserSpace;
@@ -44,7 +45,8 @@ public class SmppBalancerRunner {
 	
 	private Dispatcher dispatcher;
 	private ThreadPoolExecutor executor = (ThreadPoolExecutor)Executors.newCachedThreadPool();
-	private ScheduledExecutorService monitorExecutor  = Executors.newScheduledThreadPool(4);
+	// every SMPP timer runs on the wheel, the 4 threads only execute the expired ones
+	private ScheduledExecutorService monitorExecutor  = new HashedWheelScheduler(4);
 	private MServer mSmppLbServer;
 	private BalancerServer smppLbServer;
 	private BalancerRunner balancerRunner;
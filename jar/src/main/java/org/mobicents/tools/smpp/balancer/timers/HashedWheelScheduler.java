@@ -0,0 +1,238 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2017, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.tools.smpp.balancer.timers;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.TimerTask;
+
+/**
+ * Scheduler of the SMPP timers (response, enquire link, bind and connection check timeouts) on a
+ * hashed wheel : scheduling and cancelling a timer are constant time whatever the number of pending
+ * timers, where a scheduled thread pool keeps them in a heap. The wheel thread only hands the expired
+ * timers to a small pool of worker threads, so the timers still run concurrently. The precision of
+ * the timers is the tick duration.
+ */
+
+public class HashedWheelScheduler extends AbstractExecutorService implements ScheduledExecutorService {
+
+	private static final Logger logger = Logger.getLogger(HashedWheelScheduler.class);
+
+	public static final long DEFAULT_TICK_DURATION = 10;
+	public static final int DEFAULT_TICKS_PER_WHEEL = 512;
+
+	private final HashedWheelTimer wheel;
+	private final ExecutorService workers;
+	private volatile boolean shutdown;
+
+	public HashedWheelScheduler(int workerThreads) {
+		this(workerThreads, DEFAULT_TICK_DURATION, DEFAULT_TICKS_PER_WHEEL);
+	}
+
+	/**
+	 * @param tickDuration duration of a tick of the wheel in milliseconds
+	 */
+	public HashedWheelScheduler(int workerThreads, long tickDuration, int ticksPerWheel) {
+		this.wheel = new HashedWheelTimer(new NamedThreadFactory("SmppTimerWheel"), tickDuration, TimeUnit.MILLISECONDS, ticksPerWheel);
+		this.workers = Executors.newFixedThreadPool(workerThreads, new NamedThreadFactory("SmppTimer"));
+	}
+
+	@Override
+	public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+		WheelTask<Object> task = new WheelTask<Object>(command, null, 0);
+		task.arm(unit.toNanos(delay));
+		return task;
+	}
+
+	@Override
+	public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+		WheelTask<V> task = new WheelTask<V>(callable);
+		task.arm(unit.toNanos(delay));
+		return task;
+	}
+
+	@Override
+	public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+		if(period <= 0)
+			throw new IllegalArgumentException("period must be positive");
+		WheelTask<Object> task = new WheelTask<Object>(command, null, unit.toNanos(period));
+		task.arm(unit.toNanos(initialDelay));
+		return task;
+	}
+
+	@Override
+	public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+		if(delay <= 0)
+			throw new IllegalArgumentException("delay must be positive");
+		WheelTask<Object> task = new WheelTask<Object>(command, null, -unit.toNanos(delay));
+		task.arm(unit.toNanos(initialDelay));
+		return task;
+	}
+
+	@Override
+	public void execute(Runnable command) {
+		workers.execute(command);
+	}
+
+	/**
+	 * Pending timers are dropped, the timers already expired still run
+	 */
+	@Override
+	public void shutdown() {
+		shutdown = true;
+		wheel.stop();
+		workers.shutdown();
+	}
+
+	@Override
+	public List<Runnable> shutdownNow() {
+		shutdown = true;
+		wheel.stop();
+		return workers.shutdownNow();
+	}
+
+	@Override
+	public boolean isShutdown() {
+		return shutdown;
+	}
+
+	@Override
+	public boolean isTerminated() {
+		return shutdown && workers.isTerminated();
+	}
+
+	@Override
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return workers.awaitTermination(timeout, unit);
+	}
+
+	/**
+	 * A timer of the wheel. The period is positive for a fixed rate, negative for a fixed delay
+	 * and 0 for a single execution
+	 */
+	private final class WheelTask<V> extends FutureTask<V> implements ScheduledFuture<V>, TimerTask {
+
+		private final long period;
+		private volatile long deadline;
+		private volatile Timeout timeout;
+
+		WheelTask(Runnable runnable, V result, long period) {
+			super(runnable, result);
+			this.period = period;
+		}
+
+		WheelTask(Callable<V> callable) {
+			super(callable);
+			this.period = 0;
+		}
+
+		void arm(long delay) {
+			if(shutdown)
+				throw new RejectedExecutionException("SMPP timer scheduler is shut down");
+			delay = Math.max(delay, 0);
+			deadline = System.nanoTime() + delay;
+			timeout = wheel.newTimeout(this, delay, TimeUnit.NANOSECONDS);
+		}
+
+		@Override
+		public void run(Timeout timeout) {
+			if(isCancelled() || shutdown)
+				return;
+			try {
+				workers.execute(this);
+			} catch (RejectedExecutionException e) {
+				if(logger.isDebugEnabled())
+					logger.debug("SMPP timer dropped, scheduler is shut down");
+			}
+		}
+
+		@Override
+		public void run() {
+			if(period == 0) {
+				super.run();
+				return;
+			}
+			if(!runAndReset() || isCancelled() || shutdown)
+				return;
+			long now = System.nanoTime();
+			long next = period > 0 ? deadline + period : now - period;
+			try {
+				deadline = next;
+				timeout = wheel.newTimeout(this, Math.max(next - now, 0), TimeUnit.NANOSECONDS);
+			} catch (IllegalStateException e) {
+				// the wheel was stopped meanwhile
+			}
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			boolean cancelled = super.cancel(mayInterruptIfRunning);
+			Timeout current = timeout;
+			if(current != null)
+				current.cancel();
+			return cancelled;
+		}
+
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+		}
+
+		@Override
+		public int compareTo(Delayed other) {
+			if(other == this)
+				return 0;
+			long diff = getDelay(TimeUnit.NANOSECONDS) - other.getDelay(TimeUnit.NANOSECONDS);
+			return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+		}
+	}
+
+	private static final class NamedThreadFactory implements ThreadFactory {
+
+		private final String name;
+		private final AtomicInteger count = new AtomicInteger();
+
+		NamedThreadFactory(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,119 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2017, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.tools.http.balancer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+
+import org.jboss.netty.bootstrap.ClientBootstrap;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HttpBackendPoolTest {
+
+	private ServerSocket server;
+	private List<Socket> accepted = new ArrayList<Socket>();
+	private ClientBootstrap bootstrap;
+	private InetSocketAddress address;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new ServerSocket(0);
+		address = new InetSocketAddress("127.0.0.1", server.getLocalPort());
+		Thread acceptor = new Thread() {
+			public void run() {
+				try {
+					while(true)
+						accepted.add(server.accept());
+				} catch (Exception e) {
+					// server closed
+				}
+			}
+		};
+		acceptor.setDaemon(true);
+		acceptor.start();
+		bootstrap = new ClientBootstrap(new NioClientSocketChannelFactory(Executors.newCachedThreadPool(), Executors.newCachedThreadPool()));
+		bootstrap.setPipelineFactory(new ChannelPipelineFactory() {
+			public ChannelPipeline getPipeline() throws Exception {
+				return Channels.pipeline(new SimpleChannelUpstreamHandler());
+			}
+		});
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		server.close();
+		for(Socket socket : accepted)
+			socket.close();
+		bootstrap.releaseExternalResources();
+	}
+
+	@Test
+	public void testReuseAndOverflow() throws Exception {
+		HttpBackendPool pool = new HttpBackendPool(bootstrap, null, 0, 1, 60000);
+		Channel first = pool.acquire(address, false).awaitUninterruptibly().getChannel();
+		Channel second = pool.acquire(address, false).awaitUninterruptibly().getChannel();
+		assertNotSame(first, second);
+		assertEquals(1, pool.getNumberOfChannels(address, false));
+
+		pool.release(first);
+		pool.release(second);
+		second.getCloseFuture().awaitUninterruptibly();
+		assertEquals(1, pool.getNumberOfIdleChannels(address, false));
+		assertSame(first, pool.acquire(address, false).awaitUninterruptibly().getChannel());
+
+		first.close().awaitUninterruptibly();
+		assertEquals(0, pool.getNumberOfChannels(address, false));
+		pool.close();
+	}
+
+	@Test
+	public void testIdleEviction() throws Exception {
+		HttpBackendPool pool = new HttpBackendPool(bootstrap, null, 1, 5, 100);
+		Channel first = pool.acquire(address, false).awaitUninterruptibly().getChannel();
+		Channel second = pool.acquire(address, false).awaitUninterruptibly().getChannel();
+		pool.release(first);
+		pool.release(second);
+		assertEquals(2, pool.getNumberOfIdleChannels(address, false));
+
+		Thread.sleep(200);
+		pool.maintain();
+		first.getCloseFuture().awaitUninterruptibly();
+		assertEquals(1, pool.getNumberOfChannels(address, false));
+		assertTrue(second.isConnected());
+		pool.close();
+	}
+}
@@ -0,0 +1,142 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2017, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+package org.mobicents.tools.http.balancer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mobicents.tools.configuration.LoadBalancerConfiguration;
+import org.mobicents.tools.sip.balancer.BalancerRunner;
+import org.mobicents.tools.sip.balancer.operation.Helper;
+
+public class HttpPipeliningTest
+{
+	private BalancerRunner balancerRunner;
+	private HttpServer server;
+
+	@Before
+	public void setUp()
+	{
+		balancerRunner = new BalancerRunner();
+		LoadBalancerConfiguration lbConfig = new LoadBalancerConfiguration();
+		lbConfig.getSipConfiguration().getInternalLegConfiguration().setTcpPort(5065);
+		lbConfig.getSipConfiguration().getExternalLegConfiguration().setTcpPort(5060);
+		balancerRunner.start(lbConfig);
+		server = new HttpServer(7080, 4444, 2222);
+		server.start();
+		Helper.sleep(5000);
+	}
+
+	@After
+	public void tearDown()
+	{
+		server.stop();
+		balancerRunner.stop();
+	}
+
+	//both pipelined requests go over the same pooled node connection and their responses come back in order
+	@Test
+	public void testPipelinedRequests() throws Exception
+	{
+		Socket socket = new Socket("127.0.0.1", 2080);
+		try
+		{
+			socket.setSoTimeout(15000);
+			OutputStream out = socket.getOutputStream();
+			out.write((request("first") + request("second")).getBytes("US-ASCII"));
+			out.flush();
+
+			InputStream in = socket.getInputStream();
+			assertEquals("Hello, first Nosach", readResponse(in));
+			assertEquals("Hello, second Nosach", readResponse(in));
+		}
+		finally
+		{
+			socket.close();
+		}
+		assertEquals(2, server.getRequstCount().get());
+
+		//the pooled connection is given back once the second response is complete
+		socket = new Socket("127.0.0.1", 2080);
+		try
+		{
+			socket.setSoTimeout(15000);
+			socket.getOutputStream().write(request("third").getBytes("US-ASCII"));
+			assertEquals("Hello, third Nosach", readResponse(socket.getInputStream()));
+		}
+		finally
+		{
+			socket.close();
+		}
+		assertEquals(3, server.getRequstCount().get());
+	}
+
+	private static String request(String fName)
+	{
+		return "GET /app?fName=" + fName + "&lName=Nosach HTTP/1.1\r\nHost: 127.0.0.1:2080\r\nConnection: keep-alive\r\n\r\n";
+	}
+
+	private static String readResponse(InputStream in) throws IOException
+	{
+		String statusLine = readLine(in);
+		assertTrue(statusLine, statusLine.startsWith("HTTP/1.1 200"));
+		int contentLength = -1;
+		String line;
+		while(!(line = readLine(in)).isEmpty())
+		{
+			int colon = line.indexOf(':');
+			if(line.substring(0, colon).trim().equalsIgnoreCase("Content-Length"))
+				contentLength = Integer.parseInt(line.substring(colon + 1).trim());
+		}
+		assertTrue(contentLength >= 0);
+		byte[] body = new byte[contentLength];
+		int read = 0;
+		while(read < contentLength)
+		{
+			int count = in.read(body, read, contentLength - read);
+			if(count < 0)
+				throw new IOException("Connection closed after " + read + " bytes of the body");
+			read += count;
+		}
+		return new String(body, "UTF-8");
+	}
+
+	private static String readLine(InputStream in) throws IOException
+	{
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		int c;
+		while((c = in.read()) != '\n')
+		{
+			if(c < 0)
+				throw new IOException("Connection closed");
+			if(c != '\r')
+				line.write(c);
+		}
+		return line.toString("US-ASCII");
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2017, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.tools.sip.balancer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+public class AddressCacheTest {
+
+	@Test
+	public void testLiteralsAndClassification() throws Exception {
+		BalancerContext ctx = new BalancerContext();
+		ctx.externalHost = "127.0.0.1";
+		ctx.externalIpv6HostAddress = InetAddress.getByName("::1");
+		AddressCache cache = new AddressCache(ctx);
+
+		AddressCache.ResolvedAddress v4 = cache.resolve("127.0.0.1");
+		assertFalse(v4.isIpv6());
+		assertTrue(v4.is(AddressCache.EXTERNAL_HOST));
+		assertFalse(v4.is(AddressCache.INTERNAL_HOST));
+		assertSame(v4, cache.resolve("127.0.0.1"));
+
+		AddressCache.ResolvedAddress v6 = cache.resolve("[0:0:0:0:0:0:0:1]");
+		assertTrue(v6.isIpv6());
+		assertTrue(v6.is(AddressCache.EXTERNAL_HOST));
+		assertTrue(cache.isIpv6("::1"));
+		assertFalse(cache.resolve("::2").is(AddressCache.EXTERNAL_HOST));
+		assertEquals(4, cache.size());
+
+		assertTrue(AddressCache.hasLetters("sip.example.com"));
+		assertTrue(AddressCache.hasLetters("fe80::1"));
+		assertFalse(AddressCache.hasLetters("10.0.0.1"));
+	}
+
+	@Test
+	public void testNegativeEntryAndBound() {
+		AddressCache cache = new AddressCache(new BalancerContext(), 100, 30000, 30000);
+		AddressCache.ResolvedAddress unknown = cache.resolve("unknown.invalid");
+		assertNull(unknown.getAddress());
+		assertSame(unknown, cache.resolve("unknown.invalid"));
+		for(int i = 0; i < 1000; i++)
+			cache.resolve("10.0." + (i / 256) + "." + (i % 256));
+		assertTrue(cache.size() <= 100);
+	}
+
+	@Test
+	public void testRoutingRules() {
+		BalancerContext ctx = new BalancerContext();
+		ctx.routingRulesIpv4 = new ArrayList<RoutingRule>();
+		ctx.routingRulesIpv4.add(new RoutingRule("10\\.1\\..*", true));
+		ctx.routingRulesIpv4.add(new RoutingRule("10\\..*", false));
+		ctx.routingRuleSetIpv4 = new RoutingRuleSet(ctx.routingRulesIpv4);
+		AddressCache cache = new AddressCache(ctx);
+		assertTrue(cache.matchesRoutingRule("10.1.2.3", false));
+		assertFalse(cache.matchesRoutingRule("192.168.0.1", false));
+		assertFalse(cache.matchesRoutingRule("10.1.2.3", true));
+	}
+}
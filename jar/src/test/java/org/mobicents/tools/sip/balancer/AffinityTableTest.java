@@ -0,0 +1,101 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2017, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.tools.sip.balancer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.junit.Test;
+import org.mobicents.tools.heartbeat.api.Node;
+
+public class AffinityTableTest {
+
+	@Test
+	public void testIdleEntriesExpire() {
+		AffinityTable table = new AffinityTable(2000, 100, 8);
+		Node node = new Node("node", "127.0.0.1");
+		for(int i = 0; i < 100; i++)
+			table.put("call" + i, node);
+		long now = System.currentTimeMillis();
+		assertEquals(0, table.expire(now));
+		assertEquals(100, table.size());
+		assertEquals(100, table.expire(now + 2500));
+		assertEquals(0, table.size());
+		assertNull(table.get("call0"));
+	}
+
+	@Test
+	public void testTouchedEntriesSurvive() throws Exception {
+		AffinityTable table = new AffinityTable(1000, 100, 4);
+		Node node = new Node("node", "127.0.0.1");
+		table.put("touched", node);
+		table.put("idle", node);
+		Thread.sleep(500);
+		assertEquals(node, table.getAndTouch("touched"));
+		long now = System.currentTimeMillis();
+		assertEquals(1, table.expire(now + 700));
+		assertEquals(node, table.get("touched"));
+		assertNull(table.get("idle"));
+		assertEquals(1, table.expire(now + 1200));
+		assertEquals(0, table.size());
+	}
+
+	@Test
+	public void testReplaceNode() {
+		AffinityTable table = new AffinityTable(1000);
+		Node oldNode = new Node("old", "127.0.0.1");
+		Node newNode = new Node("new", "127.0.0.2");
+		table.put("a", oldNode);
+		table.put("b", oldNode);
+		table.put("c", newNode);
+		assertEquals(2, table.replaceNode(oldNode, newNode));
+		assertEquals(newNode, table.get("a"));
+		assertEquals(newNode, table.get("b"));
+	}
+
+	@Test
+	public void testNodeCounts() {
+		AffinityTable table = new AffinityTable(1000, 100, 8);
+		Node first = new Node("first", "127.0.0.1");
+		Node second = new Node("second", "127.0.0.2");
+		for(int i = 0; i < 10; i++)
+			table.put("call" + i, i < 6 ? first : second);
+		assertEquals(6, table.count(first));
+		assertEquals(4, table.count(second));
+		table.put("call0", second);
+		table.put("call1", first);
+		table.remove("call9");
+		assertEquals(5, table.count(first));
+		assertEquals(4, table.count(second));
+		assertEquals(new HashSet<String>(Arrays.asList("call1", "call2", "call3", "call4", "call5")), new HashSet<String>(table.keys(first)));
+		assertEquals(5, table.replaceNode(first, second));
+		assertEquals(0, table.count(first));
+		assertEquals(9, table.count(second));
+		assertTrue(table.keys(first).isEmpty());
+		assertEquals(Arrays.asList(second), new ArrayList<Node>(table.nodes()));
+		assertEquals(9, table.expire(System.currentTimeMillis() + 1500));
+		assertEquals(0, table.count(second));
+	}
+}
@@ -0,0 +1,98 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2017, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+package org.mobicents.tools.sip.balancer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import javax.sip.SipFactory;
+import javax.sip.message.MessageFactory;
+import javax.sip.message.Request;
+import javax.sip.message.Response;
+
+import org.junit.Test;
+import org.mobicents.tools.configuration.LoadBalancerConfiguration;
+import org.mobicents.tools.heartbeat.api.Node;
+
+public class BoundedLoadTest {
+
+	private static final int CALLS = 60;
+
+	@Test
+	public void testLoadsAreBounded() throws Exception {
+		MessageFactory messageFactory = SipFactory.getInstance().createMessageFactory();
+		Node[] nodes = InvocationContexts.newNodes(3);
+		HeaderConsistentHashBalancerAlgorithm algorithm = createAlgorithm(nodes, 0.25);
+
+		Request[] invites = new Request[CALLS];
+		Node[] targets = new Node[CALLS];
+		for(int i = 0; i < CALLS; i++) {
+			// all the calls have the same key, without a bound they would all go to the same node
+			invites[i] = messageFactory.createRequest(request("INVITE", "z9hG4bK-" + i, "call-" + i, null));
+			targets[i] = algorithm.processExternalRequest(invites[i], false);
+			assertNotNull(targets[i]);
+		}
+		int bound = (int) Math.ceil(1.25 * CALLS / nodes.length);
+		for(Node node : nodes)
+			assertTrue(node + " has " + node.getOutstandingTransactions() + " transactions",
+					node.getOutstandingTransactions().get() <= bound);
+		assertEquals(CALLS, algorithm.transactions.getTotal());
+
+		// a retransmission and a CANCEL follow their INVITE, an ACK of the same dialog follows its key
+		assertSame(targets[CALLS - 1], algorithm.processExternalRequest(invites[CALLS - 1], false));
+		assertSame(targets[CALLS - 1], algorithm.processExternalRequest(
+				messageFactory.createRequest(request("CANCEL", "z9hG4bK-" + (CALLS - 1), "call-" + (CALLS - 1), null)), false));
+		assertSame(targets[CALLS - 1], algorithm.processExternalRequest(
+				messageFactory.createRequest(request("ACK", "z9hG4bK-ack", "call-" + (CALLS - 1), "5432")), false));
+		assertEquals(CALLS + 1, algorithm.transactions.getTotal());
+
+		for(int i = 0; i < CALLS; i++) {
+			Response response = messageFactory.createResponse(Response.OK, invites[i]);
+			algorithm.processInternalResponse(response, false);
+		}
+		assertEquals(1, algorithm.transactions.getTotal());
+		algorithm.getConfiguration().getSipConfiguration().getAlgorithmConfiguration().setBoundedLoadFactor(0.0);
+		algorithm.configurationChanged();
+		assertNull(algorithm.transactions);
+		for(Node node : nodes)
+			assertEquals(0, node.getOutstandingTransactions().get());
+	}
+
+	private static HeaderConsistentHashBalancerAlgorithm createAlgorithm(Node[] nodes, Double boundedLoadFactor) {
+		LoadBalancerConfiguration lbConfig = new LoadBalancerConfiguration();
+		lbConfig.getSipConfiguration().getAlgorithmConfiguration().setSipHeaderAffinityKey("From");
+		lbConfig.getSipConfiguration().getAlgorithmConfiguration().setBoundedLoadFactor(boundedLoadFactor);
+		InvocationContext ctx = InvocationContexts.newContext(HeaderConsistentHashBalancerAlgorithm.class, lbConfig, nodes);
+		return (HeaderConsistentHashBalancerAlgorithm) ctx.balancerAlgorithm;
+	}
+
+	private static String request(String method, String branch, String callId, String toTag) {
+		return method + " sip:service@127.0.0.1:5060 SIP/2.0\r\n"
+				+ "Via: SIP/2.0/UDP 127.0.0.1:5033;branch=" + branch + "\r\n"
+				+ "To: <sip:service@127.0.0.1>" + (toTag == null ? "" : ";tag=" + toTag) + "\r\n"
+				+ "From: <sip:same-user@127.0.0.1>;tag=12345\r\n"
+				+ "Call-ID: " + callId + "@127.0.0.1\r\n"
+				+ "CSeq: 1 " + method + "\r\n"
+				+ "Max-Forwards: 70\r\n"
+				+ "Content-Length: 0\r\n\r\n";
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2017, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.tools.sip.balancer;
+
+import java.util.ArrayList;
+
+import org.mobicents.tools.configuration.LoadBalancerConfiguration;
+import org.mobicents.tools.heartbeat.api.Node;
+import org.mobicents.tools.smpp.multiplexer.SmppToNodeRoundRobinAlgorithm;
+import org.mobicents.tools.smpp.multiplexer.SmppToProviderRoundRobinAlgorithm;
+
+/**
+ * Invocation contexts for the unit tests of the balancer algorithms, without any SIP stack
+ */
+
+final class InvocationContexts {
+
+	private InvocationContexts() {
+	}
+
+	/**
+	 * @return a context running the algorithm with the default configuration, with the nodes in its
+	 * IPv4 node map and routing table. The caller stops the context.
+	 */
+	static InvocationContext newContext(Class<?> algorithm, Node... nodes) {
+		return newContext(algorithm, new LoadBalancerConfiguration(), nodes);
+	}
+
+	static InvocationContext newContext(Class<?> algorithm, LoadBalancerConfiguration lbConfig, Node... nodes) {
+		BalancerContext balancerContext = new BalancerContext();
+		balancerContext.algorithmClassName = algorithm.getName();
+		balancerContext.smppToNodeAlgorithmClassName = SmppToNodeRoundRobinAlgorithm.class.getName();
+		balancerContext.smppToProviderAlgorithmClassName = SmppToProviderRoundRobinAlgorithm.class.getName();
+		balancerContext.lbConfig = lbConfig;
+		balancerContext.responsesStatusCodeNodeRemoval = new ArrayList<Integer>();
+		InvocationContext ctx = new InvocationContext("0", balancerContext);
+		for(Node node : nodes)
+			ctx.sipNodeMap(false).put(new KeySip(node, false), node);
+		ctx.publishRoutingTable(1);
+		return ctx;
+	}
+
+	/**
+	 * @return a node listening on UDP port 5060 of the address
+	 */
+	static Node newNode(String ip) {
+		Node node = new Node(ip, ip);
+		node.getProperties().put("udpPort", "5060");
+		return node;
+	}
+
+	/**
+	 * @return nodes listening on UDP port 5060 of 10.0.0.1, 10.0.0.2...
+	 */
+	static Node[] newNodes(int count) {
+		Node[] nodes = new Node[count];
+		for(int i = 0; i < count; i++)
+			nodes[i] = newNode("10.0.0." + (i + 1));
+		return nodes;
+	}
+}
@@ -0,0 +1,112 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2017, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+package org.mobicents.tools.sip.balancer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.sip.SipFactory;
+import javax.sip.message.MessageFactory;
+import javax.sip.message.Request;
+import javax.sip.message.Response;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mobicents.tools.heartbeat.api.Node;
+
+public class LeastOutstandingTransactionsTest {
+
+	private MessageFactory messageFactory;
+	private Node[] nodes = InvocationContexts.newNodes(3);
+	private InvocationContext ctx;
+	private LeastOutstandingTransactionsAlgorithm algorithm;
+
+	@Before
+	public void setUp() throws Exception {
+		messageFactory = SipFactory.getInstance().createMessageFactory();
+		ctx = InvocationContexts.newContext(LeastOutstandingTransactionsAlgorithm.class, nodes);
+		algorithm = (LeastOutstandingTransactionsAlgorithm) ctx.balancerAlgorithm;
+	}
+
+	@After
+	public void tearDown() {
+		ctx.stop();
+	}
+
+	@Test
+	public void testNewCallsGoToLeastBusyNode() throws Exception {
+		Request[] invites = new Request[nodes.length];
+		Node[] targets = new Node[nodes.length];
+		for(int i = 0; i < nodes.length; i++) {
+			invites[i] = messageFactory.createRequest(request("INVITE", "z9hG4bK-" + i, "call-" + i, null));
+			targets[i] = algorithm.processExternalRequest(invites[i], false);
+		}
+		for(Node node : nodes)
+			assertEquals(1, node.getOutstandingTransactions().get());
+
+		// only the node answering its INVITE is free for the next call
+		algorithm.processInternalResponse(messageFactory.createResponse(Response.OK, invites[1]), false);
+		assertEquals(0, targets[1].getOutstandingTransactions().get());
+		Node target = algorithm.processExternalRequest(
+				messageFactory.createRequest(request("INVITE", "z9hG4bK-new", "call-new", null)), false);
+		assertSame(targets[1], target);
+
+		// the requests of a call stay on its node whatever its load
+		Request bye = messageFactory.createRequest(request("BYE", "z9hG4bK-bye", "call-0", "5432"));
+		assertSame(targets[0], algorithm.processExternalRequest(bye, false));
+		assertEquals(2, targets[0].getOutstandingTransactions().get());
+		assertNotSame(targets[0], algorithm.processExternalRequest(
+				messageFactory.createRequest(request("INVITE", "z9hG4bK-other", "call-other", null)), false));
+		algorithm.processInternalResponse(messageFactory.createResponse(Response.OK, bye), false);
+		assertEquals(1, targets[0].getOutstandingTransactions().get());
+		assertEquals(4, algorithm.transactions.getTotal());
+	}
+
+	@Test
+	public void testUnansweredTransactionsExpire() throws Exception {
+		Request answered = messageFactory.createRequest(request("INVITE", "z9hG4bK-answered", "call-answered", null));
+		algorithm.processExternalRequest(answered, false);
+		algorithm.processExternalRequest(messageFactory.createRequest(request("INVITE", "z9hG4bK-lost", "call-lost", null)), false);
+		algorithm.processInternalResponse(messageFactory.createResponse(Response.OK, answered), false);
+		assertEquals(1, algorithm.transactions.getTotal());
+
+		long now = System.nanoTime();
+		assertEquals(0, algorithm.transactions.expire(now + TimeUnit.SECONDS.toNanos(10)));
+		assertEquals(1, algorithm.transactions.expire(now + TimeUnit.MILLISECONDS.toNanos(TransactionTracker.DEFAULT_TIMEOUT + 2000)));
+		assertEquals(0, algorithm.transactions.getTotal());
+		assertEquals(0, algorithm.transactions.size());
+		for(Node node : nodes)
+			assertEquals(0, node.getOutstandingTransactions().get());
+	}
+
+	private static String request(String method, String branch, String callId, String toTag) {
+		return method + " sip:service@127.0.0.1:5060 SIP/2.0\r\n"
+				+ "Via: SIP/2.0/UDP 127.0.0.1:5033;branch=" + branch + "\r\n"
+				+ "To: <sip:service@127.0.0.1>" + (toTag == null ? "" : ";tag=" + toTag) + "\r\n"
+				+ "From: <sip:caller@127.0.0.1>;tag=12345\r\n"
+				+ "Call-ID: " + callId + "@127.0.0.1\r\n"
+				+ "CSeq: 1 " + method + "\r\n"
+				+ "Max-Forwards: 70\r\n"
+				+ "Content-Length: 0\r\n\r\n";
+	}
+}
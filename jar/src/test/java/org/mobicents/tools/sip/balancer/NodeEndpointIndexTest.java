@@ -0,0 +1,71 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2017, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.tools.sip.balancer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+import org.mobicents.tools.heartbeat.api.Node;
+
+public class NodeEndpointIndexTest {
+
+	private static Node node(int i) {
+		Node node = new Node("node" + i, "10.0.0." + i);
+		node.getProperties().put("udpPort", "5060");
+		node.getProperties().put("tcpPort", "5065");
+		return node;
+	}
+
+	@Test
+	public void testLookup() {
+		NodeEndpointIndex index = new NodeEndpointIndex();
+		Node node = node(1);
+		index.nodeAdded(node);
+		assertSame(node, index.getAliveNode("10.0.0.1", 5060, "UDP"));
+		assertSame(node, index.getAliveNode("node1", 5065, "tcp"));
+		assertNull(index.getAliveNode("10.0.0.1", 5065, "udp"));
+
+		index.nodeRemoved(node);
+		assertNull(index.getAliveNode("10.0.0.1", 5060, "udp"));
+		assertSame(node, index.getNodeDeadOrAlive("10.0.0.1", 5060, "udp"));
+	}
+
+	@Test
+	public void testDeadNodesAreBounded() {
+		NodeEndpointIndex index = new NodeEndpointIndex(10);
+		for(int i = 0; i < 30; i++) {
+			Node node = node(i);
+			index.nodeAdded(node);
+			index.nodeRemoved(node);
+		}
+		assertEquals(10, index.getNumberOfDeadNodes());
+		assertNull(index.getNodeDeadOrAlive("10.0.0.19", 5060, "udp"));
+		assertEquals("node20", index.getNodeDeadOrAlive("10.0.0.20", 5060, "udp").getHostName());
+
+		// a node back with the same address is not forgotten when its old instance leaves the dead nodes
+		Node restarted = node(25);
+		index.nodeAdded(restarted);
+		for(int i = 30; i < 45; i++)
+			index.nodeRemoved(node(i));
+		assertSame(restarted, index.getNodeDeadOrAlive("10.0.0.25", 5060, "udp"));
+	}
+}
@@ -39,14 +39,23 @@
 package org.mobicents.tools.sip.balancer;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Collections;
 
 import javax.sip.ListeningPoint;
 
 import org.junit.Test;
 import org.mobicents.ext.javax.sip.congestion.CongestionControlMessageValve;
+import org.mobicents.tools.heartbeat.api.DeltaHeartbeatPacket;
+import org.mobicents.tools.heartbeat.api.Node;
+import org.mobicents.tools.heartbeat.api.Protocol;
 import org.mobicents.tools.configuration.LoadBalancerConfiguration;
 import org.mobicents.tools.sip.balancer.operation.Helper;
 
+import com.google.gson.JsonObject;
+
 /**
  * @author <A HREF="mailto:jean.deruelle@gmail.com">Jean Deruelle</A> 
  *
@@ -121,4 +130,75 @@ public class NodeRegisterTest{
 
 		
 	}
+
+	@Test
+	public void testNodeExpiresAtItsDeadline() {
+		BalancerRunner balancerRunner = new BalancerRunner();
+		LoadBalancerConfiguration lbConfig = new LoadBalancerConfiguration();
+		lbConfig.getCommonConfiguration().setNodeTimeout(500);
+		lbConfig.getCommonConfiguration().setHeartbeatInterval(10000);
+		balancerRunner.start(lbConfig);
+		try {
+			Node node = new Node("node0", "127.0.0.1");
+			node.getProperties().put("udpPort", "15060");
+			ArrayList<Node> ping = new ArrayList<Node>();
+			ping.add(node);
+			balancerRunner.reg.handlePingInRegister(ping);
+			assertEquals(1, balancerRunner.getNodeList().length);
+			Helper.sleep(300);
+			balancerRunner.reg.handlePingInRegister(ping);
+			// past the first deadline, the second ping pushed it forward
+			Helper.sleep(400);
+			assertEquals(1, balancerRunner.getNodeList().length);
+			// expired well before the heartbeat interval
+			Helper.sleep(1000);
+			assertEquals(0, balancerRunner.getNodeList().length);
+		}
+		finally {
+			balancerRunner.stop();
+		}
+	}
+
+	@Test
+	public void testDeltaHeartbeatAppliedInPlace() {
+		BalancerRunner balancerRunner = new BalancerRunner();
+		balancerRunner.start(new LoadBalancerConfiguration());
+		try {
+			JsonObject start = new JsonObject();
+			start.addProperty(Protocol.HOST_NAME, "node0");
+			start.addProperty(Protocol.IP, "127.0.0.1");
+			start.addProperty(Protocol.UDP_PORT, "15060");
+			start.addProperty(Protocol.VERSION, "0");
+			start.addProperty(Protocol.SESSION_ID, "1234");
+			balancerRunner.reg.startRequestReceived(null, start);
+			InvocationContext ctx = balancerRunner.getLatestInvocationContext();
+			Node node = ctx.sipNodeMap(false).values().iterator().next();
+			node.setJoinTime(node.getJoinTime() - 60000);
+			long joinTime = node.getJoinTime();
+			long topologyVersion = balancerRunner.reg.getTopologyVersion();
+
+			balancerRunner.reg.deltaHeartbeatReceived(null, new DeltaHeartbeatPacket(1234, 1, Collections.singletonMap(Protocol.WEIGHT, "3")));
+			// the node keeps its place in the maps and its join time, only a new routing table is published
+			assertEquals(1, ctx.sipNodeMap(false).size());
+			assertSame(node, ctx.sipNodeMap(false).values().iterator().next());
+			assertSame(node, ctx.getRoutingTable().getNodes(false)[0]);
+			assertEquals("3", node.getProperties().get(Protocol.WEIGHT));
+			assertEquals(joinTime, node.getJoinTime());
+			assertEquals(topologyVersion + 1, balancerRunner.reg.getTopologyVersion());
+			assertEquals(topologyVersion + 1, ctx.getRoutingTable().getVersion());
+
+			// the same delta again changes nothing
+			balancerRunner.reg.deltaHeartbeatReceived(null, new DeltaHeartbeatPacket(1234, 2, Collections.singletonMap(Protocol.WEIGHT, "3")));
+			assertEquals(topologyVersion + 1, balancerRunner.reg.getTopologyVersion());
+
+			// other ports make it another node for the maps
+			balancerRunner.reg.deltaHeartbeatReceived(null, new DeltaHeartbeatPacket(1234, 3, Collections.singletonMap(Protocol.UDP_PORT, "15070")));
+			assertEquals(1, ctx.sipNodeMap(false).size());
+			assertEquals(Integer.valueOf(15070), ctx.sipNodeMap(false).values().iterator().next().getPort(ListeningPoint.UDP.toLowerCase()));
+			assertEquals("3", ctx.sipNodeMap(false).values().iterator().next().getProperties().get(Protocol.WEIGHT));
+		}
+		finally {
+			balancerRunner.stop();
+		}
+	}
 }
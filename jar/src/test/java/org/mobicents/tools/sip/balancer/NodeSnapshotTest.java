@@ -0,0 +1,65 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2017, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.tools.sip.balancer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.mobicents.tools.heartbeat.api.Node;
+
+public class NodeSnapshotTest {
+
+	@Test
+	public void testSnapshot() {
+		Node node = new Node("node1", "127.0.0.1");
+		node.getProperties().put("udpPort", "5060");
+		node.getProperties().put("smppSslPort", "2876");
+		node.getProperties().put("tcpPort", "bad");
+		node.getProperties().put("version", "0");
+
+		Node snapshot = node.snapshot();
+		assertFalse(node.isSnapshot());
+		assertTrue(snapshot.isSnapshot());
+		assertSame(snapshot, snapshot.snapshot());
+		assertEquals(node, snapshot);
+		assertEquals(node.hashCode(), snapshot.hashCode());
+		assertEquals(0, node.compareTo(snapshot));
+
+		assertEquals(Integer.valueOf(5060), snapshot.getPort("udp"));
+		assertEquals(Integer.valueOf(5060), snapshot.getPort("UDP"));
+		assertEquals(Integer.valueOf(5060), node.getPort("udp"));
+		assertEquals(Integer.valueOf(2876), snapshot.getPort("smppSsl"));
+		assertNull(snapshot.getPort("tcp"));
+		assertNull(snapshot.getPort("ws"));
+
+		try {
+			snapshot.getProperties().put("udpPort", "5070");
+			throw new AssertionError("snapshot properties must not be modifiable");
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+		node.getProperties().put("udpPort", "5070");
+		assertEquals(Integer.valueOf(5060), snapshot.getPort("udp"));
+	}
+}
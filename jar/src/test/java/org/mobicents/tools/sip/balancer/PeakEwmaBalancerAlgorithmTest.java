@@ -0,0 +1,110 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2017, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+package org.mobicents.tools.sip.balancer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import javax.sip.SipFactory;
+import javax.sip.message.MessageFactory;
+import javax.sip.message.Request;
+import javax.sip.message.Response;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mobicents.tools.heartbeat.api.Node;
+
+public class PeakEwmaBalancerAlgorithmTest {
+
+	private static final long DECAY = 10000000000L;
+
+	private MessageFactory messageFactory;
+	private Node[] nodes = InvocationContexts.newNodes(3);
+	private InvocationContext ctx;
+	private PeakEwmaBalancerAlgorithm algorithm;
+
+	@Before
+	public void setUp() throws Exception {
+		messageFactory = SipFactory.getInstance().createMessageFactory();
+		ctx = InvocationContexts.newContext(PeakEwmaBalancerAlgorithm.class, nodes);
+		algorithm = (PeakEwmaBalancerAlgorithm) ctx.balancerAlgorithm;
+	}
+
+	@After
+	public void tearDown() {
+		ctx.stop();
+	}
+
+	@Test
+	public void testNewCallsAvoidSlowNodes() throws Exception {
+		Request[] invites = new Request[nodes.length];
+		Node[] targets = new Node[nodes.length];
+		for(int i = 0; i < nodes.length; i++) {
+			invites[i] = messageFactory.createRequest(request("INVITE", "z9hG4bK-" + i, "call-" + i));
+			targets[i] = algorithm.processExternalRequest(invites[i], false);
+		}
+		// a node without latency gets a single call until it answers
+		assertEquals(3, new HashSet<Node>(Arrays.asList(targets)).size());
+
+		algorithm.processInternalResponse(messageFactory.createResponse(Response.OK, invites[0]), false);
+		Thread.sleep(50);
+		algorithm.processInternalResponse(messageFactory.createResponse(Response.OK, invites[1]), false);
+		long now = System.nanoTime();
+		assertTrue(algorithm.cost(targets[0], now) < algorithm.cost(targets[1], now));
+		assertTrue(algorithm.cost(targets[1], now) < algorithm.cost(targets[2], now));
+
+		// the fast node stays cheaper with one more outstanding transaction
+		for(int i = 0; i < 2; i++) {
+			Node target = algorithm.processExternalRequest(
+					messageFactory.createRequest(request("INVITE", "z9hG4bK-new" + i, "call-new" + i)), false);
+			assertSame(targets[0], target);
+		}
+	}
+
+	@Test
+	public void testPeakLatency() {
+		PeakEwmaBalancerAlgorithm.Latency latency = new PeakEwmaBalancerAlgorithm.Latency(1000, 0);
+		// a slower response is taken into account at once
+		latency.observe(5000, 0, DECAY);
+		assertEquals(5000, latency.get(0, DECAY), 0);
+		// faster ones lower the average progressively
+		latency.observe(1000, DECAY, DECAY);
+		double average = latency.get(DECAY, DECAY);
+		assertTrue(average > 1000 && average < 5000);
+		assertEquals(1000 + 4000 / Math.E, average, 1);
+		// the average decays without responses
+		assertEquals(average / Math.E, latency.get(2 * DECAY, DECAY), 1);
+	}
+
+	private static String request(String method, String branch, String callId) {
+		return method + " sip:service@127.0.0.1:5060 SIP/2.0\r\n"
+				+ "Via: SIP/2.0/UDP 127.0.0.1:5033;branch=" + branch + "\r\n"
+				+ "To: <sip:service@127.0.0.1>\r\n"
+				+ "From: <sip:caller@127.0.0.1>;tag=12345\r\n"
+				+ "Call-ID: " + callId + "@127.0.0.1\r\n"
+				+ "CSeq: 1 " + method + "\r\n"
+				+ "Max-Forwards: 70\r\n"
+				+ "Content-Length: 0\r\n\r\n";
+	}
+}
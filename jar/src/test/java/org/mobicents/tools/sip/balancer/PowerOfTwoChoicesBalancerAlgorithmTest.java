@@ -0,0 +1,85 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2017, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+package org.mobicents.tools.sip.balancer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import javax.sip.SipFactory;
+import javax.sip.message.MessageFactory;
+import javax.sip.message.Request;
+import javax.sip.message.Response;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mobicents.tools.heartbeat.api.Node;
+
+public class PowerOfTwoChoicesBalancerAlgorithmTest {
+
+	private MessageFactory messageFactory;
+	private Node[] nodes = InvocationContexts.newNodes(2);
+	private InvocationContext ctx;
+	private PowerOfTwoChoicesBalancerAlgorithm algorithm;
+
+	@Before
+	public void setUp() throws Exception {
+		messageFactory = SipFactory.getInstance().createMessageFactory();
+		ctx = InvocationContexts.newContext(PowerOfTwoChoicesBalancerAlgorithm.class, nodes);
+		algorithm = (PowerOfTwoChoicesBalancerAlgorithm) ctx.balancerAlgorithm;
+	}
+
+	@After
+	public void tearDown() {
+		ctx.stop();
+	}
+
+	@Test
+	public void testNewCallsGoToLessBusyNode() throws Exception {
+		// with two nodes both are always sampled, so the calls alternate
+		for(int i = 0; i < 10; i++) {
+			Node target = algorithm.processExternalRequest(messageFactory.createRequest(request("INVITE", "call-" + i)), false);
+			Node other = target == nodes[0] ? nodes[1] : nodes[0];
+			assertEquals(algorithm.callIdMap.count(other) + (i % 2 == 0 ? 1 : 0), algorithm.callIdMap.count(target));
+		}
+		assertEquals(5, algorithm.callIdMap.count(nodes[0]));
+		assertEquals(5, algorithm.callIdMap.count(nodes[1]));
+
+		// the requests of a call stay on its node
+		Node target = algorithm.processExternalRequest(messageFactory.createRequest(request("INVITE", "call-0")), false);
+		assertSame(target, algorithm.processExternalRequest(messageFactory.createRequest(request("BYE", "call-0")), false));
+
+		// a bad node gets no new call even when less busy
+		nodes[0].setBad(true);
+		for(int i = 0; i < 4; i++)
+			assertSame(nodes[1], algorithm.processExternalRequest(messageFactory.createRequest(request("INVITE", "new-" + i)), false));
+		assertEquals(9, algorithm.callIdMap.count(nodes[1]));
+	}
+
+	private static String request(String method, String callId) {
+		return method + " sip:service@127.0.0.1:5060 SIP/2.0\r\n"
+				+ "Via: SIP/2.0/UDP 127.0.0.1:5033;branch=z9hG4bK-" + method + callId + "\r\n"
+				+ "To: <sip:service@127.0.0.1>\r\n"
+				+ "From: <sip:caller@127.0.0.1>;tag=12345\r\n"
+				+ "Call-ID: " + callId + "@127.0.0.1\r\n"
+				+ "CSeq: 1 " + method + "\r\n"
+				+ "Max-Forwards: 70\r\n"
+				+ "Content-Length: 0\r\n\r\n";
+	}
+}
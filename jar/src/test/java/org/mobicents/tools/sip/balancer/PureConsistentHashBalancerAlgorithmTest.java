@@ -0,0 +1,72 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2017, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+package org.mobicents.tools.sip.balancer;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.jboss.netty.handler.codec.http.DefaultHttpRequest;
+import org.jboss.netty.handler.codec.http.HttpMethod;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.HttpVersion;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mobicents.tools.heartbeat.api.Node;
+
+public class PureConsistentHashBalancerAlgorithmTest {
+
+	private Node[] nodes = InvocationContexts.newNodes(3);
+	private InvocationContext ctx;
+	private PureConsistentHashBalancerAlgorithm algorithm;
+
+	@Before
+	public void setUp() throws Exception {
+		for(Node node : nodes)
+			node.getProperties().put("httpPort", "8080");
+		ctx = InvocationContexts.newContext(PureConsistentHashBalancerAlgorithm.class, nodes);
+		algorithm = (PureConsistentHashBalancerAlgorithm) ctx.balancerAlgorithm;
+		for(Node node : nodes)
+			algorithm.nodeAdded(node);
+	}
+
+	@After
+	public void tearDown() {
+		ctx.stop();
+	}
+
+	@Test
+	public void testHttpKeysFailOver() {
+		HttpRequest request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/app?appsession=session-1");
+		Node owner = algorithm.processHttpRequest(request);
+		assertSame(owner, algorithm.processHttpRequest(request));
+
+		// the key moves while its owner shuts down and comes back after
+		owner.setGracefulShutdown(true);
+		Node next = algorithm.processHttpRequest(request);
+		assertNotSame(owner, next);
+		owner.setGracefulShutdown(false);
+		assertSame(owner, algorithm.processHttpRequest(request));
+
+		for(Node node : nodes)
+			node.setBad(true);
+		assertNull(algorithm.processHttpRequest(request));
+	}
+}
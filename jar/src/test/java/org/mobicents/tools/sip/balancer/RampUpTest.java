@@ -54,7 +54,7 @@ public class RampUpTest {
 			balancer = new BalancerRunner();
 			LoadBalancerConfiguration lbConfig = new LoadBalancerConfiguration();
 			lbConfig.getSipConfiguration().getInternalLegConfiguration().setUdpPort(5065);
-			lbConfig.getSipConfiguration().setTrafficRampupCyclePeriod(70000);
+			lbConfig.getSipConfiguration().setTrafficRampupCyclePeriod(3000);
 			lbConfig.getSipConfiguration().setTrafficPercentageIncrease(50);
 			balancer.start(lbConfig);
 			
@@ -91,8 +91,9 @@ public class RampUpTest {
 				}
 			}
 			
-			assertEquals(6,servers[0].getTestSipListener().getDialogCount());
-			assertEquals(2,servers[1].getTestSipListener().getDialogCount());
+			// node1 joins with half the weight of node0 and gets the same share 6 seconds later
+			assertEquals(5,servers[0].getTestSipListener().getDialogCount());
+			assertEquals(3,servers[1].getTestSipListener().getDialogCount());
 			for(Shootist s :shootists)
 			{
 				boolean wasRinging = false;
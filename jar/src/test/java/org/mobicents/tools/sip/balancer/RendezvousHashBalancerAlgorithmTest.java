@@ -0,0 +1,93 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2017, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+package org.mobicents.tools.sip.balancer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.mobicents.tools.heartbeat.api.Node;
+import org.mobicents.tools.heartbeat.api.Protocol;
+
+public class RendezvousHashBalancerAlgorithmTest {
+
+	private static final int KEYS = 20000;
+
+	@Test
+	public void testOnlyKeysOfRemovedNodeMove() {
+		Node[] nodes = createNodes(5);
+		RendezvousHashBalancerAlgorithm.Candidates all = new RendezvousHashBalancerAlgorithm.Candidates(null, nodes);
+		RendezvousHashBalancerAlgorithm.Candidates remaining = new RendezvousHashBalancerAlgorithm.Candidates(null,
+				Arrays.copyOf(nodes, 4));
+		int[] owned = new int[nodes.length];
+		for(int i = 0; i < KEYS; i++) {
+			long key = RendezvousHashBalancerAlgorithm.hash64("call-" + i);
+			Node before = nodes[all.best(key, null)];
+			Node after = remaining.nodes[remaining.best(key, null)];
+			owned[Arrays.asList(nodes).indexOf(before)]++;
+			if(before != nodes[4])
+				assertSame(before, after);
+		}
+		for(int count : owned)
+			assertTrue("unbalanced " + Arrays.toString(owned), Math.abs(count - KEYS / nodes.length) < KEYS / 20);
+	}
+
+	@Test
+	public void testWeights() {
+		Node[] nodes = createNodes(3);
+		nodes[0].getProperties().put(Protocol.WEIGHT, "2");
+		nodes[2].getProperties().put(Protocol.WEIGHT, "invalid");
+		RendezvousHashBalancerAlgorithm.Candidates candidates = new RendezvousHashBalancerAlgorithm.Candidates(null, nodes);
+		int[] owned = new int[nodes.length];
+		for(int i = 0; i < KEYS; i++)
+			owned[candidates.best(RendezvousHashBalancerAlgorithm.hash64("call-" + i), null)]++;
+		assertEquals("unbalanced " + Arrays.toString(owned), 0.5, (double) owned[0] / KEYS, 0.03);
+		assertEquals("unbalanced " + Arrays.toString(owned), 0.25, (double) owned[2] / KEYS, 0.03);
+	}
+
+	@Test
+	public void testExcludedNodeGoesToRunnerUp() {
+		Node[] nodes = createNodes(4);
+		RendezvousHashBalancerAlgorithm.Candidates candidates = new RendezvousHashBalancerAlgorithm.Candidates(null, nodes);
+		long key = RendezvousHashBalancerAlgorithm.hash64("call-1");
+		int best = candidates.best(key, null);
+		boolean[] excluded = new boolean[nodes.length];
+		excluded[best] = true;
+		int runnerUp = candidates.best(key, excluded);
+		Node[] withoutBest = new Node[nodes.length - 1];
+		for(int i = 0, j = 0; i < nodes.length; i++)
+			if(i != best)
+				withoutBest[j++] = nodes[i];
+		RendezvousHashBalancerAlgorithm.Candidates remaining = new RendezvousHashBalancerAlgorithm.Candidates(null, withoutBest);
+		assertSame(nodes[runnerUp], remaining.nodes[remaining.best(key, null)]);
+	}
+
+	private static Node[] createNodes(int count) {
+		Node[] nodes = new Node[count];
+		for(int i = 0; i < count; i++) {
+			String ip = "10.0.0." + (i + 1);
+			nodes[i] = new Node(ip, ip);
+			nodes[i].getProperties().put("udpPort", "5060");
+		}
+		return nodes;
+	}
+}
@@ -64,6 +64,7 @@ public class RingingFailoverTest {
 		InvocationContext ctx = new InvocationContext("0",algorithm.balancerContext);
 
 		ctx.sipNodeMap(false).put(new KeySip(adNode,false), adNode); 
+		ctx.publishRoutingTable(1);
 				
 		algorithm.invocationContext = ctx;
 		algorithm.processExternalResponse(response,false);
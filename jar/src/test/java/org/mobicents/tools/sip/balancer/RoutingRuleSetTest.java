@@ -0,0 +1,86 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2017, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.tools.sip.balancer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+
+import org.junit.Test;
+
+public class RoutingRuleSetTest {
+
+	@Test
+	public void testRegexAndNetworkRules() {
+		ArrayList<RoutingRule> rules = new ArrayList<RoutingRule>();
+		rules.add(new RoutingRule("default", true));
+		rules.add(new RoutingRule("172.0.0.*", false));
+		rules.add(new RoutingRule("10.0.0.0/8", false));
+		rules.add(new RoutingRule("192.168.1.0/24", true));
+		rules.add(new RoutingRule("(a)\\1", false));
+		RoutingRuleSet set = new RoutingRuleSet(rules);
+
+		assertTrue(set.matches("172.0.0.10"));
+		assertTrue(set.matches("10.200.3.4"));
+		assertTrue(set.matches("aa"));
+		assertFalse(set.matches("11.0.0.1"));
+		assertFalse(set.matches("192.168.1.5"));
+		assertFalse(set.matches("default"));
+		assertFalse(set.matches("host.example.com"));
+		assertFalse(RoutingRuleSet.EMPTY.matches("10.0.0.1"));
+	}
+
+	@Test
+	public void testIpv6Network() {
+		ArrayList<RoutingRule> rules = new ArrayList<RoutingRule>();
+		rules.add(new RoutingRule("fd30::/16", false));
+		RoutingRuleSet set = new RoutingRuleSet(rules);
+
+		assertTrue(set.matches("fd30:0:0:0:0:0:0:1"));
+		assertTrue(set.matches("[fd30::2]"));
+		assertFalse(set.matches("fd31::1"));
+		assertFalse(set.matches("10.0.0.1"));
+	}
+
+	@Test
+	public void testRegexRoutes() {
+		KeySip first = new KeySip("127.0.0.1", 5060, false);
+		KeySip second = new KeySip("127.0.0.2", 5060, false);
+		LinkedHashMap<String, KeySip> routes = new LinkedHashMap<String, KeySip>();
+		routes.put("^alice", first);
+		routes.put("(-)", second);
+		RegexRoutes regexRoutes = new RegexRoutes(routes, 10);
+
+		assertEquals(2, regexRoutes.size());
+		assertArrayEquals(new int[] {0, 1}, regexRoutes.match("alice-1"));
+		assertArrayEquals(new int[] {1}, regexRoutes.match("bob-1"));
+		assertArrayEquals(new int[0], regexRoutes.match("bob"));
+		assertEquals(first, regexRoutes.getKey(0));
+		assertEquals("(-)", regexRoutes.getRegex(1));
+		for(int i = 0; i < 100; i++)
+			regexRoutes.match("user" + i);
+		assertArrayEquals(new int[] {1}, regexRoutes.match("bob-1"));
+		assertTrue(RegexRoutes.EMPTY.isEmpty());
+	}
+}
@@ -0,0 +1,159 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2017, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+package org.mobicents.tools.sip.balancer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.mobicents.tools.heartbeat.api.Node;
+import org.mobicents.tools.heartbeat.api.Protocol;
+
+public class RoutingTableTest {
+
+	@Test
+	public void testRoundRobinSkipsUnavailableNodes() {
+		Node first = createNode("10.0.0.3");
+		Node second = createNode("10.0.0.1");
+		Node third = createNode("10.0.0.2");
+		RoutingTable table = new RoutingTable(1, Arrays.asList(first, second, third), Collections.<Node>emptyList());
+
+		assertSame(first, table.nextAvailableNode(false));
+		assertSame(second, table.nextAvailableNode(false));
+		second.setBad(true);
+		assertSame(third, table.nextAvailableNode(false));
+		assertSame(first, table.nextAvailableNode(false));
+		assertSame(third, table.nextAvailableNode(false));
+		// the HTTP requests have a round of their own
+		assertSame(first, table.nextAvailableHttpNode());
+		first.setGracefulShutdown(true);
+		third.setBad(true);
+		assertNull(table.nextAvailableNode(false));
+		assertNull(table.nextAvailableNode(true));
+	}
+
+	@Test
+	public void testWeightedRoundRobin() {
+		Node big = createNode("10.0.0.1");
+		Node small = createNode("10.0.0.2");
+		Node medium = createNode("10.0.0.3");
+		big.getProperties().put(Protocol.WEIGHT, "4");
+		medium.getProperties().put(Protocol.WEIGHT, "2");
+		RoutingTable table = new RoutingTable(1, Arrays.asList(big, small, medium), Collections.<Node>emptyList());
+
+		// the picks of the big node are spread over the round
+		Node[] round = new Node[7];
+		for(int i = 0; i < round.length; i++)
+			round[i] = table.nextAvailableNode(false);
+		assertArrayEquals(new Node[] {big, medium, big, small, big, medium, big}, round);
+		assertSame(big, table.nextAvailableHttpNode());
+
+		big.setBad(true);
+		Map<Node, Integer> picks = new HashMap<Node, Integer>();
+		for(int i = 0; i < 30; i++) {
+			Node node = table.nextAvailableNode(false);
+			picks.put(node, picks.containsKey(node) ? picks.get(node) + 1 : 1);
+		}
+		assertEquals(Integer.valueOf(20), picks.get(medium));
+		assertEquals(Integer.valueOf(10), picks.get(small));
+		assertFalse(picks.containsKey(big));
+	}
+
+	@Test
+	public void testRoundLength() {
+		Node two = createNode("10.0.0.1");
+		Node three = createNode("10.0.0.2");
+		two.getProperties().put(Protocol.WEIGHT, "2");
+		three.getProperties().put(Protocol.WEIGHT, "3");
+		assertArrayEquals(new int[] {1, 0, 1, 0, 1}, SmoothWeightedRoundRobin.round(new Node[] {two, three}));
+
+		// decimals are scaled to the same ratio
+		two.getProperties().put(Protocol.WEIGHT, "0.2");
+		three.getProperties().put(Protocol.WEIGHT, "0.3");
+		assertArrayEquals(new int[] {1, 0, 1, 0, 1}, SmoothWeightedRoundRobin.round(new Node[] {two, three}));
+		two.getProperties().put(Protocol.WEIGHT, "1.5");
+		three.getProperties().put(Protocol.WEIGHT, "1");
+		assertArrayEquals(new int[] {0, 1, 0, 1, 0}, SmoothWeightedRoundRobin.round(new Node[] {two, three}));
+
+		// the same weights give one pick per node
+		two.getProperties().put(Protocol.WEIGHT, "5");
+		three.getProperties().put(Protocol.WEIGHT, "5");
+		assertArrayEquals(new int[] {0, 1}, SmoothWeightedRoundRobin.round(new Node[] {two, three}));
+
+		// weights with no common divisor are cut short
+		two.getProperties().put(Protocol.WEIGHT, "9999");
+		three.getProperties().put(Protocol.WEIGHT, "10000");
+		assertEquals(SmoothWeightedRoundRobin.MAX_ROUND, SmoothWeightedRoundRobin.round(new Node[] {two, three}).length);
+	}
+
+	@Test
+	public void testRampUp() {
+		Node old = createNode("10.0.0.1");
+		Node joined = createNode("10.0.0.2");
+		long now = System.currentTimeMillis();
+		old.setJoinTime(now - 60000);
+		joined.setJoinTime(now);
+		RoutingTable table = new RoutingTable(1, Arrays.asList(old, joined), Collections.<Node>emptyList());
+
+		// 25% more every 10 seconds, the joined node starts with a quarter of the weight of the old one
+		SlowStart slowStart = new SlowStart(40000, 0.25, false);
+		int joinedPicks = 0;
+		for(int i = 0; i < 1000; i++) {
+			if(table.nextRampUpNode(false, slowStart) == joined)
+				joinedPicks++;
+		}
+		assertEquals(200, joinedPicks, 10);
+
+		assertEquals(0.25, slowStart.factor(joined, now + 5000), 0.001);
+		assertEquals(0.5, slowStart.factor(joined, now + 20000), 0.001);
+		assertEquals(1, slowStart.factor(joined, now + 40000), 0);
+		SlowStart exponential = new SlowStart(40000, 0.25, true);
+		assertEquals(0.25, exponential.factor(joined, now), 0.001);
+		assertEquals(0.5, exponential.factor(joined, now + 20000), 0.001);
+		assertEquals(1, exponential.factor(old, now), 0);
+	}
+
+	@Test
+	public void testSortedNodes() {
+		Node first = createNode("10.0.0.3");
+		Node second = createNode("10.0.0.1");
+		Node ipv6 = createNode("fd30::1");
+		RoutingTable table = new RoutingTable(2, Arrays.asList(first, second), Arrays.asList(ipv6));
+
+		assertEquals(2, table.getVersion());
+		assertArrayEquals(new Node[] {first, second}, table.getNodes(false));
+		assertArrayEquals(new Node[] {second, first}, table.getSortedNodes(false));
+		assertArrayEquals(new Node[] {ipv6}, table.getNodes(true));
+		assertEquals(0, RoutingTable.EMPTY.getSortedNodes(true).length);
+	}
+
+	private static Node createNode(String ip) {
+		Node node = new Node(ip, ip);
+		node.getProperties().put("udpPort", "5060");
+		return node;
+	}
+}
@@ -0,0 +1,96 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2017, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.tools.sip.balancer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.mobicents.tools.heartbeat.api.Node;
+
+public class SipNodeMapTest {
+
+	@Test
+	public void testKeys() {
+		assertEquals(new KeySip("10.0.0.1", 5060, false), new KeySip("10.0.0.1", 5060, false));
+		assertFalse(new KeySip("10.0.0.1", 5060, false).equals(new KeySip("10.0.0.1", 5061, false)));
+		assertFalse(new KeySip("10.0.0.1", 5060, false).equals(new KeySip("10.0.0.2", 5060, false)));
+		assertEquals(new KeySip("255.255.255.255", 5060, false), new KeySip("255.255.255.255", 5060, false));
+		KeySip ipv6 = new KeySip("::1", 5060, true);
+		assertEquals(ipv6, new KeySip("0:0:0:0:0:0:0:1", 5060, true));
+		assertEquals(ipv6.hashCode(), new KeySip("[0:0:0:0:0:0:0:1]", 5060, true).hashCode());
+		// host names are not resolved by the key, they only match the same host name
+		assertNull(new KeySip("localhost", 5060, false).getIp());
+		assertEquals(new KeySip("unknown.invalid", 5060, false), new KeySip("Unknown.Invalid", 5060, false));
+		assertFalse(new KeySip("unknown.invalid", 5060, false).equals(new KeySip("unknown.invalid", 5061, false)));
+		assertFalse(new KeySip("localhost", 5060, false).equals(new KeySip("127.0.0.1", 5060, false)));
+	}
+
+	@Test
+	public void testHostNames() {
+		Node node = new Node("node", "127.0.0.1");
+		node.getProperties().put("udpPort", "5060");
+		node.getProperties().put("tcpPort", "5061");
+		Node named = new Node("named", "unknown.invalid");
+		named.getProperties().put("udpPort", "5060");
+
+		SipNodeMap map = new SipNodeMap(new AddressCache(new BalancerContext()));
+		map.put(new KeySip(node, false), node);
+		map.put(new KeySip(named, false), named);
+		// a host name of a Via header resolves to the address of the node
+		assertSame(node, map.get(new KeySip("localhost", 5061, false)));
+		assertTrue(map.containsKey(new KeySip("localhost", 5060, false)));
+		// a name which can not be resolved still finds the node registered with it
+		assertSame(named, map.get(new KeySip("unknown.invalid", 5060, false)));
+		assertTrue(map.containsValue(named));
+
+		assertSame(node, map.remove(new KeySip("localhost", 5060, false)));
+		assertFalse(map.containsValue(node));
+		assertSame(named, map.remove(new KeySip(named, false)));
+		assertEquals(0, map.size());
+	}
+
+	@Test
+	public void testMultiPortNode() {
+		Node node = new Node("node", "10.0.0.1");
+		node.getProperties().put("udpPort", "5060");
+		node.getProperties().put("tcpPort", "5060");
+		node.getProperties().put("wsPort", "5082");
+		Node other = new Node("other", "10.0.0.2");
+		other.getProperties().put("udpPort", "5060");
+
+		SipNodeMap map = new SipNodeMap();
+		map.put(new KeySip(node, false), node);
+		map.put(new KeySip(other, false), other);
+		assertSame(node, map.get(new KeySip("10.0.0.1", 5082, false)));
+		assertSame(node, map.get(new KeySip("10.0.0.1", 5060, false)));
+		assertSame(other, map.get(new KeySip("10.0.0.2", 5060, false)));
+		assertNull(map.get(new KeySip("10.0.0.2", 5082, false)));
+		assertTrue(map.containsValue(node));
+
+		assertSame(node, map.remove(new KeySip("10.0.0.1", 5082, false)));
+		assertFalse(map.containsKey(new KeySip("10.0.0.1", 5060, false)));
+		assertFalse(map.containsValue(node));
+		assertEquals(1, map.size());
+	}
+}
@@ -0,0 +1,117 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2017, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.tools.sip.balancer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.mobicents.tools.heartbeat.api.Node;
+
+public class TopologyPublisherTest {
+
+	@Test
+	public void testOneVersionPerChange() {
+		CopyOnWriteArrayList<Node> aliveNodes = new CopyOnWriteArrayList<Node>();
+		TopologyPublisher publisher = new TopologyPublisher(aliveNodes);
+		CountingAlgorithm algorithm = new CountingAlgorithm(null);
+		InvocationContext ctx = createContext(algorithm);
+		Node first = InvocationContexts.newNode("10.0.0.1");
+		Node second = InvocationContexts.newNode("10.0.0.2");
+
+		publisher.nodeAdded(ctx, first);
+		publisher.nodeAdded(ctx, second);
+		publisher.nodeRemoved(ctx, first);
+
+		assertEquals(Arrays.asList(second), aliveNodes);
+		assertEquals(3, publisher.getVersion());
+		assertEquals(3, algorithm.notifications);
+	}
+
+	@Test
+	public void testChangesQueuedDuringPublicationFormOneVersion() throws Exception {
+		CopyOnWriteArrayList<Node> aliveNodes = new CopyOnWriteArrayList<Node>();
+		final TopologyPublisher publisher = new TopologyPublisher(aliveNodes);
+		CountDownLatch release = new CountDownLatch(1);
+		CountingAlgorithm algorithm = new CountingAlgorithm(release);
+		final InvocationContext ctx = createContext(algorithm);
+		final Node first = InvocationContexts.newNode("10.0.0.1");
+		Node second = InvocationContexts.newNode("10.0.0.2");
+		Node third = InvocationContexts.newNode("10.0.0.3");
+
+		Thread publishing = new Thread(new Runnable() {
+			public void run() {
+				publisher.nodeAdded(ctx, first);
+			}
+		});
+		publishing.start();
+		assertTrue(algorithm.entered.await(5, TimeUnit.SECONDS));
+		// applied by the publishing thread once its batch is done
+		publisher.nodeAdded(ctx, second);
+		publisher.nodeAdded(ctx, third);
+		publisher.nodeRemoved(ctx, second);
+		release.countDown();
+		publishing.join(5000);
+
+		assertEquals(Arrays.asList(first, third), aliveNodes);
+		assertEquals(2, publisher.getVersion());
+		assertEquals(2, algorithm.notifications);
+		assertEquals(Arrays.asList(third), algorithm.lastAdded);
+		assertTrue(algorithm.lastRemoved.isEmpty());
+	}
+
+	private static InvocationContext createContext(CountingAlgorithm algorithm) {
+		InvocationContext ctx = InvocationContexts.newContext(CallIDAffinityBalancerAlgorithm.class);
+		ctx.balancerAlgorithm = algorithm;
+		return ctx;
+	}
+
+	private static class CountingAlgorithm extends CallIDAffinityBalancerAlgorithm {
+		private final CountDownLatch entered = new CountDownLatch(1);
+		private final CountDownLatch release;
+		private volatile int notifications;
+		private volatile List<Node> lastRemoved;
+		private volatile List<Node> lastAdded;
+
+		private CountingAlgorithm(CountDownLatch release) {
+			this.release = release;
+		}
+
+		@Override
+		public void nodesChanged(List<Node> removed, List<Node> added) {
+			notifications++;
+			lastRemoved = removed;
+			lastAdded = added;
+			entered.countDown();
+			try {
+				if(release != null)
+					release.await(5, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
@@ -0,0 +1,75 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2017, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.tools.sip.balancer.scalability;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Test;
+import org.mobicents.tools.heartbeat.api.Node;
+import org.mobicents.tools.sip.balancer.ConsistentHashRing;
+
+public class ConsistentHashRingTest {
+
+	private static final int NODES = 40;
+	private static final int KEYS = 100000;
+
+	@Test
+	public void testSpreadAndRemapping() {
+		List<Node> nodes = new ArrayList<Node>();
+		for(int i = 0; i < NODES; i++) {
+			Node node = new Node("node" + i, "10.0.0." + i);
+			node.getProperties().put("udpPort", "5060");
+			nodes.add(node);
+		}
+		ConsistentHashRing ring = ConsistentHashRing.build(nodes, 160);
+
+		HashMap<Node, Integer> load = new HashMap<Node, Integer>();
+		Node[] owners = new Node[KEYS];
+		for(int i = 0; i < KEYS; i++) {
+			owners[i] = ring.get("call" + i + "@127.0.0.1");
+			Integer n = load.get(owners[i]);
+			load.put(owners[i], n == null ? 1 : n + 1);
+		}
+		assertEquals(NODES, load.size());
+		int expected = KEYS / NODES;
+		for(Integer n : load.values())
+			assertTrue("Unbalanced node with " + n + " keys", n > expected / 2 && n < expected * 3 / 2);
+
+		// registration order must not matter, the ring has to be the same on every load balancer
+		List<Node> shuffled = new ArrayList<Node>(nodes);
+		Collections.shuffle(shuffled);
+		ConsistentHashRing sameRing = ConsistentHashRing.build(shuffled, 160);
+
+		Node leaving = nodes.remove(7);
+		ConsistentHashRing smallerRing = ConsistentHashRing.build(nodes, 160);
+		for(int i = 0; i < KEYS; i++) {
+			String key = "call" + i + "@127.0.0.1";
+			assertEquals(owners[i], sameRing.get(key));
+			if(!owners[i].equals(leaving))
+				assertEquals(owners[i], smallerRing.get(key));
+		}
+	}
+}
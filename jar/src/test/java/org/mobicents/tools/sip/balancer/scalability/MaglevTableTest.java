@@ -0,0 +1,68 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2017, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.tools.sip.balancer.scalability;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+
+import org.junit.Test;
+import org.mobicents.tools.heartbeat.api.Node;
+import org.mobicents.tools.sip.balancer.MaglevTable;
+
+public class MaglevTableTest {
+
+	private static final int NODES = 40;
+	private static final int SIZE = 4001;
+
+	@Test
+	public void testBalanceAndDisruption() {
+		Node[] nodes = new Node[NODES];
+		for(int i = 0; i < NODES; i++) {
+			nodes[i] = new Node("node" + i, "10.0.0." + i);
+			nodes[i].getProperties().put("udpPort", "5060");
+		}
+		MaglevTable table = MaglevTable.build(null, nodes, 4000);
+		assertEquals(SIZE, table.size());
+
+		HashMap<Node, Integer> load = new HashMap<Node, Integer>();
+		for(int i = 0; i < SIZE; i++) {
+			Integer n = load.get(table.getEntry(i));
+			load.put(table.getEntry(i), n == null ? 1 : n + 1);
+		}
+		assertEquals(NODES, load.size());
+		for(Integer n : load.values())
+			assertTrue("Unbalanced node with " + n + " entries", n == SIZE / NODES || n == SIZE / NODES + 1);
+
+		Node leaving = nodes[7];
+		Node[] remaining = new Node[NODES - 1];
+		for(int i = 0, j = 0; i < NODES; i++)
+			if(nodes[i] != leaving)
+				remaining[j++] = nodes[i];
+		MaglevTable smallerTable = MaglevTable.build(null, remaining, 4000);
+		int moved = 0;
+		for(int i = 0; i < SIZE; i++)
+			if(table.getEntry(i) != leaving && table.getEntry(i) != smallerTable.getEntry(i))
+				moved++;
+		// only a small share of the entries of the other nodes should move
+		assertTrue("Too many entries moved " + moved, moved < SIZE / 10);
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2017, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.tools.smpp.balancer.timers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HashedWheelSchedulerTest {
+
+	private HashedWheelScheduler scheduler;
+
+	@Before
+	public void setUp() {
+		scheduler = new HashedWheelScheduler(2);
+	}
+
+	@After
+	public void tearDown() {
+		scheduler.shutdownNow();
+	}
+
+	@Test
+	public void testScheduleAndCancel() throws Exception {
+		final CountDownLatch fired = new CountDownLatch(1);
+		final AtomicInteger cancelledRuns = new AtomicInteger();
+		ScheduledFuture<?> cancelled = scheduler.schedule(new Runnable() {
+			public void run() {
+				cancelledRuns.incrementAndGet();
+			}
+		}, 100, TimeUnit.MILLISECONDS);
+		long start = System.currentTimeMillis();
+		scheduler.schedule(new Runnable() {
+			public void run() {
+				fired.countDown();
+			}
+		}, 200, TimeUnit.MILLISECONDS);
+		assertTrue(cancelled.cancel(false));
+		assertTrue(cancelled.isCancelled());
+
+		assertTrue(fired.await(2, TimeUnit.SECONDS));
+		assertTrue(System.currentTimeMillis() - start >= 190);
+		assertEquals(0, cancelledRuns.get());
+	}
+
+	@Test
+	public void testFixedRate() throws Exception {
+		final CountDownLatch runs = new CountDownLatch(5);
+		ScheduledFuture<?> periodic = scheduler.scheduleAtFixedRate(new Runnable() {
+			public void run() {
+				runs.countDown();
+			}
+		}, 20, 20, TimeUnit.MILLISECONDS);
+		assertTrue(runs.await(2, TimeUnit.SECONDS));
+		assertTrue(periodic.cancel(false));
+		assertTrue(periodic.isCancelled());
+	}
+}